@@ -0,0 +1,117 @@
+package coza.trojanc.meepsensors.bench;
+
+import coza.trojanc.meepsensors.i2c.BMP180;
+import coza.trojanc.meepsensors.io.sim.SimulatedBMP180;
+import coza.trojanc.meepsensors.io.sim.SimulatedDeviceProvider;
+import coza.trojanc.meepsensors.io.sim.SimulatedGpsReceiver;
+import coza.trojanc.meepsensors.sensors.data.MutablePosition;
+import coza.trojanc.meepsensors.sensors.data.MutableVelocity;
+import coza.trojanc.meepsensors.sensors.impl.AdaFruitGPSSensor;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Checks that the read paths meant to create no garbage stay that way. The
+ * bytes allocated by the current thread are counted around many GPS reads into
+ * reused holders, polled and with the background reader, and around BMP180
+ * temperature and pressure reads. The check fails if any of them allocates
+ * more than a small allowance. Needs a HotSpot JVM for the allocation counter.
+ *
+ * <pre>
+ * ant -f bench/build.xml alloc-check
+ * </pre>
+ */
+public class AllocationCheck {
+
+	private static final int GPS_READS = 100000;
+	private static final int BMP180_READS = 200;
+
+	/**
+	 * Bytes a check may allocate in total, for one-off allocations such as a
+	 * lazily initialised class. An allocation on every read exceeds it many times.
+	 */
+	private static final long ALLOWANCE = 1024;
+
+	private final com.sun.management.ThreadMXBean threads;
+	private final long threadId = Thread.currentThread().getId();
+	private boolean failed;
+
+	private AllocationCheck(com.sun.management.ThreadMXBean threads) {
+		this.threads = threads;
+	}
+
+	public static void main(String[] args) throws Exception {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+			System.err.println("This JVM can't count the bytes allocated by a thread");
+			System.exit(2);
+		}
+		AllocationCheck check = new AllocationCheck((com.sun.management.ThreadMXBean) threads);
+		check.run();
+		System.exit(check.failed ? 1 : 0);
+	}
+
+	private void run() throws Exception {
+		SimulatedDeviceProvider provider = new SimulatedDeviceProvider();
+		provider.addRegisterDevice(1, 0x77, new SimulatedBMP180());
+		provider.addSerialPort(40, new SimulatedGpsReceiver(1, false));
+		BMP180 bmp180 = new BMP180(provider);
+		AdaFruitGPSSensor gps = new AdaFruitGPSSensor(provider);
+		MutablePosition position = new MutablePosition();
+		MutableVelocity velocity = new MutableVelocity();
+		try {
+			// Warm up so class loading and compilation aren't counted
+			for (int i = 0; i < GPS_READS / 5; i++) {
+				gps.readPosition(position);
+				gps.readVelocity(velocity);
+			}
+			for (int i = 0; i < BMP180_READS; i++) {
+				bmp180.getTemparature();
+				bmp180.getPressure();
+			}
+
+			long start = allocated();
+			for (int i = 0; i < GPS_READS; i++) {
+				gps.readPosition(position);
+				gps.readVelocity(velocity);
+			}
+			report("GPS polled reads", GPS_READS, allocated() - start);
+
+			start = allocated();
+			for (int i = 0; i < BMP180_READS; i++) {
+				bmp180.getTemparature();
+				bmp180.getPressure();
+			}
+			report("BMP180 reads", BMP180_READS, allocated() - start);
+
+			gps.startReader();
+			if (gps.awaitPosition(0, 5000) == null) {
+				throw new IllegalStateException("The GPS reader published no position");
+			}
+			for (int i = 0; i < GPS_READS / 5; i++) {
+				gps.readPosition(position);
+				gps.readVelocity(velocity);
+			}
+			start = allocated();
+			for (int i = 0; i < GPS_READS; i++) {
+				gps.readPosition(position);
+				gps.readVelocity(velocity);
+			}
+			report("GPS reader reads", GPS_READS, allocated() - start);
+		} finally {
+			gps.close();
+			bmp180.close();
+		}
+	}
+
+	private long allocated() {
+		return threads.getThreadAllocatedBytes(threadId);
+	}
+
+	private void report(String name, int reads, long bytes) {
+		boolean ok = bytes <= ALLOWANCE;
+		System.out.println((ok ? "OK   " : "FAIL ") + name + ": " + bytes + " bytes over " + reads + " reads");
+		failed |= !ok;
+	}
+}
@@ -0,0 +1,135 @@
+package coza.trojanc.meepsensors.bench;
+
+import coza.trojanc.meepsensors.i2c.BMP180;
+import coza.trojanc.meepsensors.i2c.BMP180Calibration;
+import coza.trojanc.meepsensors.io.sim.SimulatedBMP180;
+import coza.trojanc.meepsensors.io.sim.SimulatedDeviceProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * BMP180 temperature and pressure compensation math, using the datasheet
+ * calibration values of a simulated chip. The raw values vary so the
+ * calculation can't be folded into a constant. The batch benchmarks compensate
+ * a recording of 100000 readings per call, one at a time, in bulk with
+ * BMP180Calibration and in bulk split over all processors.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class BMP180Benchmark {
+
+	private static final int BATCH = 100000;
+
+	/**
+	 * Oversampling setting of the driver's default mode
+	 */
+	private static final int OSS = BMP180.BMPMode.STANDARD.getOSS();
+
+	private int counter;
+
+	private BMP180Calibration calibration;
+
+	/**
+	 * B5 of the last temperature, needed for the pressure like in the driver
+	 */
+	private int b5;
+	private final int[] ut = new int[BATCH];
+	private final int[] up = new int[BATCH];
+	private final double[] celsius = new double[BATCH];
+	private final double[] hPa = new double[BATCH];
+	private ExecutorService executor;
+	private int threads;
+
+	@Setup
+	public void setUp() {
+		SimulatedDeviceProvider provider = new SimulatedDeviceProvider();
+		provider.addRegisterDevice(BMP180.DEFAULT_BUS, 0x77, new SimulatedBMP180());
+		calibration = new BMP180(provider).getCalibration();
+
+		Random random = new Random(42);
+		for (int i = 0; i < BATCH; i++) {
+			ut[i] = SimulatedBMP180.DATASHEET_UT + random.nextInt(512) - 256;
+			up[i] = (SimulatedBMP180.DATASHEET_UP << 1) + random.nextInt(2048) - 1024;
+		}
+		threads = Runtime.getRuntime().availableProcessors();
+		executor = Executors.newFixedThreadPool(threads);
+	}
+
+	@TearDown
+	public void tearDown() {
+		executor.shutdown();
+	}
+
+	@Benchmark
+	public double temperature() {
+		counter++;
+		return temperature(SimulatedBMP180.DATASHEET_UT + (counter & 0xFF));
+	}
+
+	@Benchmark
+	public int pressure() {
+		counter++;
+		return pressure((SimulatedBMP180.DATASHEET_UP << 1) + (counter & 0xFF));
+	}
+
+	@Benchmark
+	public double temperatureAndPressure() {
+		counter++;
+		double temperature = temperature(SimulatedBMP180.DATASHEET_UT + (counter & 0xFF));
+		return temperature + pressure((SimulatedBMP180.DATASHEET_UP << 1) + (counter & 0xFF));
+	}
+
+	@Benchmark
+	public double[] batchPerCall() {
+		for (int i = 0; i < BATCH; i++) {
+			celsius[i] = temperature(ut[i]);
+			hPa[i] = pressure(up[i]) / 100.0;
+		}
+		return hPa;
+	}
+
+	@Benchmark
+	public double[] batchBulk() {
+		calibration.compensate(ut, up, 1, 0, BATCH, celsius, hPa);
+		return hPa;
+	}
+
+	@Benchmark
+	public double[] batchParallel() throws InterruptedException {
+		calibration.compensate(ut, up, 1, celsius, hPa, executor, threads);
+		return hPa;
+	}
+
+	/**
+	 * The driver's temperature compensation, without the conversion delays
+	 */
+	private double temperature(int ut) {
+		b5 = calibration.b5(ut);
+		return BMP180Calibration.temperature(b5);
+	}
+
+	/**
+	 * The driver's pressure compensation, using B5 of the last temperature
+	 */
+	private int pressure(int up) {
+		return calibration.pressure(up, b5, OSS);
+	}
+}
@@ -0,0 +1,146 @@
+package coza.trojanc.meepsensors.bench;
+
+import coza.trojanc.meepsensors.io.sim.SimulatedDeviceProvider;
+import coza.trojanc.meepsensors.io.sim.SimulatedGpsReceiver;
+import coza.trojanc.meepsensors.sensors.data.Position;
+import coza.trojanc.meepsensors.sensors.impl.AdaFruitGPSSensor;
+import coza.trojanc.meepsensors.store.GorillaDecoder;
+import coza.trojanc.meepsensors.store.GorillaEncoder;
+import coza.trojanc.meepsensors.store.PositionDecoder;
+import coza.trojanc.meepsensors.store.PositionEncoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and decoding throughput of the time series codecs, per block of
+ * 1000 samples. The temperatures and pressures have the resolution of the
+ * BMP180 driver, sampled every second with some jitter, and the positions come
+ * from the simulated GPS receiver. The compression ratio against 16 bytes per
+ * sample and 36 bytes per position is printed during setup.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class CompressionBenchmark {
+
+	private static final int SAMPLES = 1000;
+
+	private final long[] timestamps = new long[SAMPLES];
+	private final double[] temperatures = new double[SAMPLES];
+	private final double[] pressures = new double[SAMPLES];
+	private final Position[] positions = new Position[SAMPLES];
+
+	private final GorillaEncoder encoder = new GorillaEncoder();
+	private final GorillaDecoder decoder = new GorillaDecoder();
+	private final PositionEncoder positionEncoder = new PositionEncoder();
+	private final PositionDecoder positionDecoder = new PositionDecoder();
+
+	private final ByteBuffer buffer = ByteBuffer.allocate(SAMPLES * 64);
+	private final ByteBuffer encodedTemperatures = ByteBuffer.allocate(SAMPLES * GorillaEncoder.MAX_SAMPLE_BYTES);
+	private final ByteBuffer encodedPositions = ByteBuffer.allocate(SAMPLES * PositionEncoder.MAX_POSITION_BYTES);
+
+	@Setup
+	public void setUp() throws Exception {
+		Random random = new Random(42);
+		long timestamp = 1400000000000L;
+		double temperature = 21.5;
+		double pressure = 1013;
+		for (int i = 0; i < SAMPLES; i++) {
+			timestamp += 1000 + random.nextInt(5) - 2;
+			temperature = Math.round((temperature + (random.nextInt(3) - 1) * 0.1) * 10) / 10.0;
+			if (random.nextInt(20) == 0) {
+				pressure += random.nextInt(3) - 1;
+			}
+			timestamps[i] = timestamp;
+			temperatures[i] = temperature;
+			pressures[i] = pressure;
+		}
+
+		SimulatedDeviceProvider provider = new SimulatedDeviceProvider();
+		provider.addSerialPort(40, new SimulatedGpsReceiver());
+		try (AdaFruitGPSSensor gps = new AdaFruitGPSSensor(provider)) {
+			for (int i = 0; i < SAMPLES; i++) {
+				positions[i] = gps.getPosition();
+			}
+		}
+
+		int temperatureBytes = encode(temperatures, encodedTemperatures);
+		int pressureBytes = encode(pressures, buffer);
+		int positionBytes = encode(positions, encodedPositions);
+		System.out.printf("Compression ratio: temperature %.1f, pressure %.1f, position %.1f%n",
+				SAMPLES * 16.0 / temperatureBytes, SAMPLES * 16.0 / pressureBytes, SAMPLES * 36.0 / positionBytes);
+		encodedTemperatures.flip();
+		encodedPositions.flip();
+	}
+
+	private int encode(double[] values, ByteBuffer out) {
+		out.clear();
+		encoder.reset(out);
+		for (int i = 0; i < SAMPLES; i++) {
+			encoder.append(timestamps[i], values[i]);
+		}
+		encoder.finish();
+		return out.position();
+	}
+
+	private int encode(Position[] values, ByteBuffer out) {
+		out.clear();
+		positionEncoder.reset(out);
+		for (int i = 0; i < SAMPLES; i++) {
+			positionEncoder.append(values[i]);
+		}
+		return out.position();
+	}
+
+	@Benchmark
+	public int encodeTemperature() {
+		return encode(temperatures, buffer);
+	}
+
+	@Benchmark
+	public int encodePressure() {
+		return encode(pressures, buffer);
+	}
+
+	@Benchmark
+	public double decodeTemperature() {
+		encodedTemperatures.rewind();
+		decoder.reset(encodedTemperatures, SAMPLES);
+		double sum = 0;
+		while (decoder.next()) {
+			sum += decoder.getValue();
+		}
+		return sum;
+	}
+
+	@Benchmark
+	public int encodePosition() {
+		return encode(positions, buffer);
+	}
+
+	@Benchmark
+	public double decodePosition() {
+		encodedPositions.rewind();
+		positionDecoder.reset(encodedPositions, SAMPLES);
+		double sum = 0;
+		while (positionDecoder.next()) {
+			sum += positionDecoder.getLatitude() + positionDecoder.getAltitude();
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,62 @@
+package coza.trojanc.meepsensors.bench;
+
+import coza.trojanc.meepsensors.io.sim.SimulatedDHT11;
+import coza.trojanc.meepsensors.io.sim.SimulatedDeviceProvider;
+import coza.trojanc.meepsensors.sensors.impl.DHT11;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DHT11 acquisition and 40-bit frame decoding against a simulated sensor, with
+ * edge capture and with the bits timed as they arrive. The simulated waveform
+ * runs in real time, so the time per operation includes the 18ms start signal
+ * and the frame itself. Caching and retries are turned off so every operation
+ * is one read, and the failed reads are printed at the end.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class DHT11Benchmark {
+
+	@Param({"true", "false"})
+	private boolean edgeCapture;
+
+	private DHT11 sensor;
+
+	@Setup
+	public void setUp() throws IOException {
+		SimulatedDeviceProvider provider = new SimulatedDeviceProvider();
+		provider.addDigitalPin(0, 17, new SimulatedDHT11());
+		sensor = new DHT11(provider, 17);
+		sensor.setEdgeCapture(edgeCapture);
+		sensor.setMinInterval(0);
+		sensor.setRetries(0, 0);
+	}
+
+	@TearDown
+	public void tearDown() {
+		System.out.println("Failed reads: " + sensor.getFailedAcquisitions() + " of " + sensor.getAcquisitions());
+		sensor.close();
+	}
+
+	@Benchmark
+	public double readFrame() {
+		return sensor.getHumidity();
+	}
+}
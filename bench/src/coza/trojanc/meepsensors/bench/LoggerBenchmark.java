@@ -0,0 +1,101 @@
+package coza.trojanc.meepsensors.bench;
+
+import coza.trojanc.meepsensors.Logger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * Overhead per call of Logger, for a disabled level and for an enabled level
+ * published to a handler that discards the records, logging synchronously or
+ * through the asynchronous appender.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class LoggerBenchmark {
+
+	private static final String NAME = "coza.trojanc.meepsensors.bench.LoggerBenchmark";
+
+	@Param({"false", "true"})
+	private boolean async;
+
+	private Logger log;
+	private String line = "$GPGGA,123519,4807.038,N,01131.000,E,1,08,0.9,545.4,M,46.9,M,,*47";
+
+	@Setup
+	public void setUp() {
+		java.util.logging.Logger julLogger = java.util.logging.Logger.getLogger(NAME);
+		julLogger.setUseParentHandlers(false);
+		julLogger.setLevel(Level.INFO);
+		julLogger.addHandler(new Handler() {
+			@Override
+			public void publish(LogRecord record) {
+			}
+
+			@Override
+			public void flush() {
+			}
+
+			@Override
+			public void close() {
+			}
+		});
+		log = Logger.getLogger(NAME);
+		if (async) {
+			Logger.enableAsync(4096);
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws InterruptedException {
+		Logger.disableAsync();
+	}
+
+	@Benchmark
+	public void disabledConstant() {
+		log.debug("Got line");
+	}
+
+	@Benchmark
+	public void disabledConcatenated() {
+		log.debug("Got line : " + line);
+	}
+
+	@Benchmark
+	public void disabledParameterized() {
+		log.debug("Got line : {}", line);
+	}
+
+	@Benchmark
+	public void enabledConstant() {
+		log.info("Got line");
+	}
+
+	@Benchmark
+	public void enabledConcatenated() {
+		log.info("Got line : " + line);
+	}
+
+	@Benchmark
+	public void enabledParameterized() {
+		log.info("Got line : {}", line);
+	}
+}
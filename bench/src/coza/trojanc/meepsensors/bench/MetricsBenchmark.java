@@ -0,0 +1,76 @@
+package coza.trojanc.meepsensors.bench;
+
+import coza.trojanc.meepsensors.metrics.Counter;
+import coza.trojanc.meepsensors.metrics.Histogram;
+import coza.trojanc.meepsensors.metrics.MetricsRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost per call of the instrumentation on the hot paths: a counter increment
+ * and a latency recorded to a histogram, from one thread and from four threads
+ * sharing the same metrics.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class MetricsBenchmark {
+
+	private final MetricsRegistry registry = new MetricsRegistry();
+	private Counter counter;
+	private Histogram histogram;
+
+	@Setup
+	public void setUp() {
+		counter = registry.counter("bench.counter");
+		histogram = registry.histogram("bench.latency");
+	}
+
+	/**
+	 * Increment a counter
+	 */
+	@Benchmark
+	public void increment() {
+		counter.increment();
+	}
+
+	/**
+	 * Time an empty operation the way the drivers time theirs
+	 */
+	@Benchmark
+	public void recordSince() {
+		histogram.recordSince(System.nanoTime());
+	}
+
+	/**
+	 * Increment a counter shared by four threads
+	 */
+	@Benchmark
+	@Threads(4)
+	public void incrementShared() {
+		counter.increment();
+	}
+
+	/**
+	 * Record to a histogram shared by four threads
+	 */
+	@Benchmark
+	@Threads(4)
+	public void recordShared() {
+		histogram.recordSince(System.nanoTime());
+	}
+}
@@ -0,0 +1,175 @@
+package coza.trojanc.meepsensors.bench;
+
+import coza.trojanc.meepsensors.hub.SensorAdapter;
+import coza.trojanc.meepsensors.io.sim.SimulatedDeviceProvider;
+import coza.trojanc.meepsensors.io.sim.SimulatedGpsReceiver;
+import coza.trojanc.meepsensors.nmea.NmeaAdapter;
+import coza.trojanc.meepsensors.nmea.NmeaDispatcher;
+import coza.trojanc.meepsensors.nmea.NmeaParser;
+import coza.trojanc.meepsensors.sensors.data.MutablePosition;
+import coza.trojanc.meepsensors.sensors.data.MutableVelocity;
+import coza.trojanc.meepsensors.sensors.data.Position;
+import coza.trojanc.meepsensors.sensors.data.Velocity;
+import coza.trojanc.meepsensors.sensors.impl.AdaFruitGPSSensor;
+import coza.trojanc.meepsensors.sensors.impl.NmeaReplay;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * NMEA parsing throughput of AdaFruitGPSSensor against a simulated receiver
+ * producing sentences as fast as they are read, and of NmeaReplay over a 1 MB
+ * capture recorded from the simulator.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class NmeaBenchmark {
+
+	private AdaFruitGPSSensor sensor;
+	private NmeaParser parser;
+	private final NmeaDispatcher dispatcher = new NmeaDispatcher(new NmeaAdapter() {
+	});
+	private File capture;
+	private NmeaReplay replay;
+	private final SensorAdapter discard = new SensorAdapter() {
+	};
+	private final MutablePosition position = new MutablePosition();
+	private final MutableVelocity velocity = new MutableVelocity();
+
+	@Setup
+	public void setUp() {
+		SimulatedDeviceProvider provider = new SimulatedDeviceProvider();
+		provider.addSerialPort(40, new SimulatedGpsReceiver());
+		sensor = new AdaFruitGPSSensor(provider);
+		parser = new NmeaParser(new SimulatedGpsReceiver());
+
+		try {
+			SimulatedGpsReceiver receiver = new SimulatedGpsReceiver();
+			ByteBuffer recorded = ByteBuffer.allocate(1 << 20);
+			while (recorded.hasRemaining()) {
+				receiver.read(recorded);
+			}
+			capture = File.createTempFile("nmea", ".log");
+			try (FileOutputStream out = new FileOutputStream(capture)) {
+				out.write(recorded.array());
+			}
+			replay = new NmeaReplay(capture);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		System.out.println();
+		System.out.println("replay: " + Math.round(replay.getSentencesPerSecond()) + " sentences/s in the last run");
+		sensor.close();
+		replay.close();
+		capture.delete();
+	}
+
+	/**
+	 * Split the next sentence into fields and verify its checksum
+	 */
+	@Benchmark
+	public boolean nextSentence() throws IOException {
+		return parser.next();
+	}
+
+	/**
+	 * Parse the next sentence and one of its numbers
+	 */
+	@Benchmark
+	public double parseNumber() throws IOException {
+		parser.next();
+		return parser.getDouble(0);
+	}
+
+	/**
+	 * Parse the next sentence and decode it whatever its type
+	 */
+	@Benchmark
+	public boolean dispatchSentence() throws IOException {
+		parser.next();
+		return dispatcher.dispatch(parser, 0);
+	}
+
+	/**
+	 * Parse the next sentence and the same number through a String, the way the
+	 * sensor used to
+	 */
+	@Benchmark
+	public double parseNumberFromString() throws IOException {
+		parser.next();
+		String data = parser.getRawData();
+		return Double.parseDouble(data.substring(0, data.indexOf(',')));
+	}
+
+	/**
+	 * Read the next GGA sentence as a String
+	 */
+	@Benchmark
+	public String getRawData() throws IOException {
+		return sensor.getRawData("GPGGA");
+	}
+
+	/**
+	 * Read and decode the next position
+	 */
+	@Benchmark
+	public Position getPosition() {
+		return sensor.getPosition();
+	}
+
+	/**
+	 * Read and decode the next velocity
+	 */
+	@Benchmark
+	public Velocity getVelocity() {
+		return sensor.getVelocity();
+	}
+
+	/**
+	 * Read and decode the next position into a reused holder, run with
+	 * -prof gc to check that it allocates nothing
+	 */
+	@Benchmark
+	public boolean readPosition() {
+		return sensor.readPosition(position);
+	}
+
+	/**
+	 * Read and decode the next velocity into a reused holder
+	 */
+	@Benchmark
+	public boolean readVelocity() {
+		return sensor.readVelocity(velocity);
+	}
+
+	/**
+	 * Replay the whole capture as fast as possible, returning the sentence count
+	 */
+	@Benchmark
+	public long replayCapture() throws InterruptedException {
+		replay.rewind();
+		return replay.replay(discard);
+	}
+}
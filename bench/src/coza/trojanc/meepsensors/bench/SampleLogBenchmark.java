@@ -0,0 +1,61 @@
+package coza.trojanc.meepsensors.bench;
+
+import coza.trojanc.meepsensors.store.SampleLog;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Appending samples to a SampleLog in a temporary directory, including the
+ * segment rollovers and the flush once a second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class SampleLogBenchmark {
+
+	private File directory;
+	private SampleLog log;
+	private long timestamp;
+
+	@Setup
+	public void setUp() throws IOException {
+		directory = File.createTempFile("samplelog", "");
+		directory.delete();
+		log = new SampleLog(directory, new String[]{"temperature", "pressure", "humidity"}, 8 << 20, 1000);
+		timestamp = System.currentTimeMillis();
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		log.close();
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		directory.delete();
+	}
+
+	@Benchmark
+	public void append() throws IOException {
+		timestamp++;
+		log.append((int) (timestamp % 3), timestamp, 1013.25 + (timestamp & 0xFF));
+	}
+}
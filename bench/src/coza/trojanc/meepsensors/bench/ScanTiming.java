@@ -0,0 +1,152 @@
+package coza.trojanc.meepsensors.bench;
+
+import coza.trojanc.meepsensors.i2c.BMP180;
+import coza.trojanc.meepsensors.i2c.I2CBusScanner;
+import coza.trojanc.meepsensors.io.DeviceProvider;
+import coza.trojanc.meepsensors.io.DigitalPin;
+import coza.trojanc.meepsensors.io.RegisterDevice;
+import coza.trojanc.meepsensors.io.SerialPort;
+import coza.trojanc.meepsensors.io.sim.SimulatedBMP180;
+import coza.trojanc.meepsensors.io.sim.SimulatedDeviceProvider;
+import coza.trojanc.meepsensors.sensors.MEEPSensor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Times I2C sensor discovery with the buses scanned in parallel against one
+ * bus at a time. Bus 1 and 2 hold a simulated BMP180, bus 3 an unknown device
+ * at the BMP180 address and bus 4 nothing, like an unplugged sensor. Opening a
+ * device waits a while first, standing in for the time a real bus takes, 1 ms
+ * unless another value is given as the argument.
+ *
+ * <pre>
+ * ant -f bench/build.xml scan-timing
+ * ant -f bench/build.xml scan-timing -Dopen.delay.ms=5
+ * </pre>
+ */
+public class ScanTiming {
+
+	private static final int[] BUSES = {1, 2, 3, 4};
+
+	/**
+	 * Address of the BMP180, also used for the unknown device
+	 */
+	private static final int ADDRESS = 0x77;
+	private static final int ROUNDS = 5;
+
+	public static void main(String[] args) throws Exception {
+		long openDelayMillis = args.length > 0 ? Long.parseLong(args[0]) : 1;
+		DelayedProvider provider = new DelayedProvider(openDelayMillis);
+		provider.simulator.addRegisterDevice(1, ADDRESS, new SimulatedBMP180());
+		provider.simulator.addRegisterDevice(2, ADDRESS, new SimulatedBMP180());
+		provider.simulator.addRegisterDevice(3, ADDRESS, new UnknownDevice());
+		I2CBusScanner scanner = new I2CBusScanner(provider);
+
+		long parallel = Long.MAX_VALUE;
+		long sequential = Long.MAX_VALUE;
+		for (int round = 0; round < ROUNDS; round++) {
+			long start = System.nanoTime();
+			List<MEEPSensor> found = scanner.discover(BUSES);
+			parallel = Math.min(parallel, System.nanoTime() - start);
+			check(found);
+
+			start = System.nanoTime();
+			found = new ArrayList<>();
+			for (int bus : BUSES) {
+				found.addAll(scanner.discover(bus));
+			}
+			sequential = Math.min(sequential, System.nanoTime() - start);
+			check(found);
+		}
+		System.out.printf("%d buses, %d ms per open, best of %d: parallel %d ms, one bus at a time %d ms%n",
+				BUSES.length, openDelayMillis, ROUNDS, parallel / 1000000, sequential / 1000000);
+	}
+
+	/**
+	 * Make sure both BMP180s were found and read correctly
+	 */
+	private static void check(List<MEEPSensor> found) throws Exception {
+		if (found.size() != 2) {
+			throw new IllegalStateException("Expected 2 sensors, found " + found);
+		}
+		for (MEEPSensor sensor : found) {
+			BMP180 bmp180 = (BMP180) sensor;
+			if (Math.abs(bmp180.getTemparature() - 15.0) > 0.1) {
+				throw new IllegalStateException("Unexpected temperature " + bmp180.getTemparature());
+			}
+			bmp180.close();
+		}
+	}
+
+	/**
+	 * Opens the simulated devices after a delay. The delay is outside the lock of
+	 * the simulator, so buses opened on different threads wait at the same time.
+	 */
+	private static class DelayedProvider implements DeviceProvider {
+
+		private final SimulatedDeviceProvider simulator = new SimulatedDeviceProvider();
+		private final long delayMillis;
+
+		DelayedProvider(long delayMillis) {
+			this.delayMillis = delayMillis;
+		}
+
+		@Override
+		public RegisterDevice openRegisterDevice(int i2cBus, int address, int addressSizeBits, int serialClock) throws IOException {
+			delay();
+			return simulator.openRegisterDevice(i2cBus, address, addressSizeBits, serialClock);
+		}
+
+		@Override
+		public SerialPort openSerialPort(int deviceId) throws IOException {
+			delay();
+			return simulator.openSerialPort(deviceId);
+		}
+
+		@Override
+		public DigitalPin openDigitalPin(int controller, int pin) throws IOException {
+			delay();
+			return simulator.openDigitalPin(controller, pin);
+		}
+
+		private void delay() throws IOException {
+			try {
+				Thread.sleep(delayMillis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while opening a device");
+			}
+		}
+	}
+
+	/**
+	 * A device answering every register with 0x60, which is not a known chip ID
+	 */
+	private static class UnknownDevice implements RegisterDevice {
+
+		@Override
+		public int read(int register, int registerSize, ByteBuffer dst) {
+			dst.put((byte) 0x60);
+			return 1;
+		}
+
+		@Override
+		public int write(int register, int registerSize, ByteBuffer src) {
+			int written = src.remaining();
+			src.position(src.limit());
+			return written;
+		}
+
+		@Override
+		public int transfer(ByteBuffer src, ByteBuffer dst) {
+			return 0;
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}
@@ -1,56 +1,323 @@
 package coza.trojanc.meepsensors;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Level;
+import java.util.logging.LogRecord;
 
 /**
  * Created by Charl on 2014-06-27.
+ *
+ * Thin wrapper around java.util.logging. Messages can contain {} placeholders
+ * which are replaced by the arguments only when the level is enabled, so a
+ * disabled log call costs a level check and nothing is allocated. Primitive
+ * arguments are still boxed at the call site, guard those calls with
+ * {@link #isDebugEnabled()} on hot paths.
+ *
+ * With {@link #enableAsync(int)} records are handed to a background thread
+ * through a bounded ring buffer, so formatting and writing the records never
+ * happens on a sensor thread. When the ring buffer is full records are dropped
+ * rather than blocking the caller. Arguments are formatted on the background
+ * thread, so pass values that don't change after the call.
  */
 public class Logger {
 
-	private static final Map<String, Logger> LOGGER_MAP = new HashMap<>();
+	private static final ConcurrentMap<String, Logger> LOGGER_MAP = new ConcurrentHashMap<>();
 
+	/**
+	 * The asynchronous appender, or null when logging synchronously
+	 */
+	private static volatile AsyncAppender appender;
 
-	private java.util.logging.Logger LOG;
+	private final java.util.logging.Logger LOG;
 
 	private Logger(String name){
 		this.LOG = java.util.logging.Logger.getLogger(name);
-		LOGGER_MAP.put(name, this);
 	}
 
 	public static Logger getLogger(Class clazz){
-		return getLogger(clazz.getClass().getName());
+		return getLogger(clazz.getName());
 	}
 
 	public static Logger getLogger(String name){
-		if(LOGGER_MAP.containsKey(name)){
-			return LOGGER_MAP.get(name);
-		}else{
-			return new Logger(name);
+		Logger logger = LOGGER_MAP.get(name);
+		if(logger == null){
+			Logger created = new Logger(name);
+			logger = LOGGER_MAP.putIfAbsent(name, created);
+			if(logger == null){
+				logger = created;
+			}
+		}
+		return logger;
+	}
+
+	/**
+	 * Log through a background thread from now on. Does nothing if asynchronous
+	 * logging is already enabled.
+	 *
+	 * @param capacity Number of records the ring buffer holds
+	 */
+	public static synchronized void enableAsync(int capacity){
+		if(appender == null){
+			appender = new AsyncAppender(capacity);
+		}
+	}
+
+	/**
+	 * Log synchronously again. Records still in the ring buffer are written first.
+	 *
+	 * @throws InterruptedException If interrupted while waiting for the records to be written
+	 */
+	public static synchronized void disableAsync() throws InterruptedException{
+		AsyncAppender current = appender;
+		if(current != null){
+			appender = null;
+			current.stop();
 		}
 	}
 
+	/**
+	 * Get the number of records dropped because the ring buffer was full
+	 *
+	 * @return The number of dropped records, 0 when logging synchronously
+	 */
+	public static long getDroppedRecords(){
+		AsyncAppender current = appender;
+		return current != null ? current.getDropped() : 0;
+	}
+
+	public boolean isDebugEnabled(){
+		return LOG.isLoggable(Level.FINE);
+	}
+
+	public boolean isInfoEnabled(){
+		return LOG.isLoggable(Level.INFO);
+	}
+
+	public boolean isWarnEnabled(){
+		return LOG.isLoggable(Level.WARNING);
+	}
+
 
 	public void debug(String message){
-		LOG.log(Level.FINE, message);
+		log(Level.FINE, message, 0, null, null, null);
+	}
+
+	public void debug(String pattern, Object arg){
+		log(Level.FINE, pattern, 1, arg, null, null);
+	}
+
+	public void debug(String pattern, Object arg1, Object arg2){
+		log(Level.FINE, pattern, 2, arg1, arg2, null);
 	}
 
 
 	public void info(String message){
-		LOG.log(Level.INFO, message);
+		log(Level.INFO, message, 0, null, null, null);
+	}
+
+	public void info(String pattern, Object arg){
+		log(Level.INFO, pattern, 1, arg, null, null);
+	}
+
+	public void info(String pattern, Object arg1, Object arg2){
+		log(Level.INFO, pattern, 2, arg1, arg2, null);
 	}
 
 	public void warn(String message){
-		LOG.log(Level.WARNING, message);
+		log(Level.WARNING, message, 0, null, null, null);
+	}
+
+	public void warn(String pattern, Object arg){
+		log(Level.WARNING, pattern, 1, arg, null, null);
+	}
+
+	public void warn(String pattern, Object arg1, Object arg2){
+		log(Level.WARNING, pattern, 2, arg1, arg2, null);
 	}
 
 	public void warn(String message, Throwable th){
-		LOG.log(Level.WARNING, message, th);
+		log(Level.WARNING, message, 0, null, null, th);
 	}
 
 	public void severe(String message, Throwable th){
-		LOG.log(Level.SEVERE, message, th);
+		log(Level.SEVERE, message, 0, null, null, th);
+	}
+
+	private void log(Level level, String pattern, int argCount, Object arg1, Object arg2, Throwable th){
+		if(!LOG.isLoggable(level)){
+			return;
+		}
+		AsyncAppender current = appender;
+		if(current != null && current.offer(LOG, level, pattern, argCount, arg1, arg2, th)){
+			return;
+		}
+		String message = format(pattern, argCount, arg1, arg2);
+		if(th != null){
+			LOG.log(level, message, th);
+		}else{
+			LOG.log(level, message);
+		}
 	}
 
+	/**
+	 * Replace the {} placeholders in a pattern by the arguments
+	 */
+	private static String format(String pattern, int argCount, Object arg1, Object arg2){
+		if(argCount == 0 || pattern == null){
+			return pattern;
+		}
+		StringBuilder out = new StringBuilder(pattern.length() + 32);
+		int start = 0;
+		for(int arg = 0; arg < argCount; arg++){
+			int placeholder = pattern.indexOf("{}", start);
+			if(placeholder < 0){
+				break;
+			}
+			out.append(pattern, start, placeholder).append(arg == 0 ? arg1 : arg2);
+			start = placeholder + 2;
+		}
+		return out.append(pattern, start, pattern.length()).toString();
+	}
+
+	/**
+	 * Ring buffer of pending records written by a background thread. The slots
+	 * are preallocated and hold the pattern and arguments, so queuing a record
+	 * allocates nothing.
+	 */
+	private static class AsyncAppender implements Runnable {
+
+		private final int capacity;
+		private final java.util.logging.Logger[] targets;
+		private final Level[] levels;
+		private final String[] patterns;
+		private final int[] argCounts;
+		private final Object[] args1;
+		private final Object[] args2;
+		private final Throwable[] thrown;
+		private final long[] millis;
+
+		/**
+		 * Sequence numbers of the next record to write and the next free slot
+		 */
+		private long head;
+		private long tail;
+
+		private long dropped;
+		private boolean running = true;
+		private boolean writerWaiting;
+		private final Thread writer;
+
+		AsyncAppender(int capacity){
+			if(capacity <= 0){
+				throw new IllegalArgumentException("Capacity must be positive");
+			}
+			this.capacity = capacity;
+			targets = new java.util.logging.Logger[capacity];
+			levels = new Level[capacity];
+			patterns = new String[capacity];
+			argCounts = new int[capacity];
+			args1 = new Object[capacity];
+			args2 = new Object[capacity];
+			thrown = new Throwable[capacity];
+			millis = new long[capacity];
+			writer = new Thread(this, "Logger appender");
+			writer.setDaemon(true);
+			writer.start();
+		}
+
+		/**
+		 * Queue a record
+		 *
+		 * @return false if the appender was stopped and the record has to be logged synchronously
+		 */
+		synchronized boolean offer(java.util.logging.Logger target, Level level, String pattern, int argCount, Object arg1, Object arg2, Throwable th){
+			if(!running){
+				return false;
+			}
+			if(tail - head == capacity){
+				dropped++;
+				return true;
+			}
+			int slot = (int) (tail % capacity);
+			targets[slot] = target;
+			levels[slot] = level;
+			patterns[slot] = pattern;
+			argCounts[slot] = argCount;
+			args1[slot] = arg1;
+			args2[slot] = arg2;
+			thrown[slot] = th;
+			millis[slot] = System.currentTimeMillis();
+			tail++;
+			if(writerWaiting){
+				notify();
+			}
+			return true;
+		}
+
+		synchronized long getDropped(){
+			return dropped;
+		}
+
+		/**
+		 * Stop accepting records and wait until the queued records are written
+		 */
+		void stop() throws InterruptedException{
+			synchronized(this){
+				running = false;
+				notify();
+			}
+			writer.join();
+		}
+
+		@Override
+		public void run(){
+			while(true){
+				java.util.logging.Logger target;
+				Level level;
+				String pattern;
+				int argCount;
+				Object arg1;
+				Object arg2;
+				Throwable th;
+				long time;
+				synchronized(this){
+					while(head == tail && running){
+						writerWaiting = true;
+						try{
+							wait();
+						}catch(InterruptedException e){
+							// Keep writing until stopped
+						}
+						writerWaiting = false;
+					}
+					if(head == tail){
+						return;
+					}
+					int slot = (int) (head % capacity);
+					target = targets[slot];
+					level = levels[slot];
+					pattern = patterns[slot];
+					argCount = argCounts[slot];
+					arg1 = args1[slot];
+					arg2 = args2[slot];
+					th = thrown[slot];
+					time = millis[slot];
+					targets[slot] = null;
+					patterns[slot] = null;
+					args1[slot] = null;
+					args2[slot] = null;
+					thrown[slot] = null;
+					head++;
+				}
+				LogRecord record = new LogRecord(level, format(pattern, argCount, arg1, arg2));
+				record.setLoggerName(target.getName());
+				record.setMillis(time);
+				record.setThrown(th);
+				record.setSourceClassName(target.getName());
+				record.setSourceMethodName(null);
+				target.log(record);
+			}
+		}
+	}
 }
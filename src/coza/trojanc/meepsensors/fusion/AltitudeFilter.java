@@ -0,0 +1,363 @@
+package coza.trojanc.meepsensors.fusion;
+
+import coza.trojanc.meepsensors.hub.SensorAdapter;
+import coza.trojanc.meepsensors.sensors.MEEPSensor;
+import coza.trojanc.meepsensors.sensors.data.Position;
+
+/**
+ * Fuses barometric pressure and GPS altitude into an altitude and vertical speed
+ * estimate with a Kalman filter. The barometer is precise over short periods
+ * but its altitude drifts with the weather, GPS altitude is noisy but doesn't
+ * drift. The filter tracks
+ *
+ * <pre>
+ * altitude       metres
+ * vertical speed metres per second, constant between updates
+ * bias           barometric altitude minus the true altitude, a slow random walk
+ * </pre>
+ *
+ * so every pressure reading updates the altitude and speed at the barometer's
+ * rate while the GPS fixes keep the bias in check. Nothing is allocated per
+ * update.
+ *
+ * The filter can be subscribed to a sensor hub directly, readings are then
+ * timed when they arrive. Readings from other sources are given with
+ * {@link #updatePressure(long, double)} and {@link #updateAltitude(long, double)}.
+ */
+public class AltitudeFilter extends SensorAdapter {
+
+	/**
+	 * Standard pressure at sea level in hPa
+	 */
+	public static final double SEA_LEVEL_PRESSURE = 1013.25;
+
+	/**
+	 * Innovations further than this many standard deviations from the estimate are rejected
+	 */
+	private static final double GATE_SIGMAS = 5;
+
+	/**
+	 * Variance of the barometer bias before any GPS altitude, the sea level
+	 * pressure can easily be 500 metres worth off the standard pressure
+	 */
+	private static final double INITIAL_BIAS_VARIANCE = 500 * 500;
+
+	private double seaLevelPressure = SEA_LEVEL_PRESSURE;
+	private double barometerVariance = 0.5 * 0.5;
+	private double gpsVariance = 5 * 5;
+	private double accelerationVariance = 1 * 1;
+	private double biasDriftVariance = 0.05 * 0.05;
+
+	private boolean initialized;
+	private long time;
+
+	// State
+	private double altitude;
+	private double speed;
+	private double bias;
+
+	// Symmetric covariance
+	private double p00;
+	private double p01;
+	private double p02;
+	private double p11;
+	private double p12;
+	private double p22;
+
+	private long pressureUpdates;
+	private long altitudeUpdates;
+	private long rejected;
+
+	/**
+	 * Set the pressure at sea level used to turn pressure into altitude. This
+	 * doesn't need to be accurate, the difference is tracked as barometer bias.
+	 *
+	 * @param hPa The pressure in hPa
+	 */
+	public synchronized void setSeaLevelPressure(double hPa) {
+		this.seaLevelPressure = hPa;
+	}
+
+	/**
+	 * Set the noise of the barometric altitude
+	 *
+	 * @param metres Standard deviation in metres
+	 */
+	public synchronized void setBarometerNoise(double metres) {
+		this.barometerVariance = metres * metres;
+	}
+
+	/**
+	 * Set the noise of the GPS altitude
+	 *
+	 * @param metres Standard deviation in metres
+	 */
+	public synchronized void setGpsNoise(double metres) {
+		this.gpsVariance = metres * metres;
+	}
+
+	/**
+	 * Set how much the vertical speed can change between updates
+	 *
+	 * @param metresPerSecondSquared Standard deviation of the vertical acceleration
+	 */
+	public synchronized void setAccelerationNoise(double metresPerSecondSquared) {
+		this.accelerationVariance = metresPerSecondSquared * metresPerSecondSquared;
+	}
+
+	/**
+	 * Set how fast the barometer bias can drift
+	 *
+	 * @param metresPerRootSecond Standard deviation of the drift after one second
+	 */
+	public synchronized void setBiasDrift(double metresPerRootSecond) {
+		this.biasDriftVariance = metresPerRootSecond * metresPerRootSecond;
+	}
+
+	/**
+	 * Forget the estimate, the next reading starts a new one
+	 */
+	public synchronized void reset() {
+		initialized = false;
+	}
+
+	/**
+	 * Add a pressure reading
+	 *
+	 * @param timeNanos Time of the reading from {@link System#nanoTime()}
+	 * @param hPa The pressure in hPa
+	 * @return false if the reading was rejected as invalid or as an outlier
+	 */
+	public synchronized boolean updatePressure(long timeNanos, double hPa) {
+		// BMP180 returns -1 when it couldn't be read
+		if (!(hPa > 0) || Double.isInfinite(hPa)) {
+			rejected++;
+			return false;
+		}
+		double barometric = 44330 * (1 - Math.pow(hPa / seaLevelPressure, 1 / 5.255));
+		if (!initialized) {
+			// The bias is unknown until GPS altitude arrives, and so is the altitude
+			start(timeNanos, barometric, INITIAL_BIAS_VARIANCE + barometerVariance, -INITIAL_BIAS_VARIANCE);
+			pressureUpdates++;
+			return true;
+		}
+		predict(timeNanos);
+		if (!correct(barometric, 1, barometerVariance)) {
+			return false;
+		}
+		pressureUpdates++;
+		return true;
+	}
+
+	/**
+	 * Add a GPS altitude reading
+	 *
+	 * @param timeNanos Time of the reading from {@link System#nanoTime()}
+	 * @param metres The altitude in metres
+	 * @return false if the reading was rejected as invalid or as an outlier
+	 */
+	public synchronized boolean updateAltitude(long timeNanos, double metres) {
+		if (Double.isNaN(metres) || Double.isInfinite(metres)) {
+			rejected++;
+			return false;
+		}
+		if (!initialized) {
+			start(timeNanos, metres, gpsVariance, 0);
+			altitudeUpdates++;
+			return true;
+		}
+		predict(timeNanos);
+		if (!correct(metres, 0, gpsVariance)) {
+			return false;
+		}
+		altitudeUpdates++;
+		return true;
+	}
+
+	@Override
+	public void pressure(MEEPSensor sensor, double pressure) {
+		updatePressure(System.nanoTime(), pressure);
+	}
+
+	@Override
+	public void position(MEEPSensor sensor, Position position) {
+		// The GPS has no position before its first fix
+		if (position == null) {
+			return;
+		}
+		updateAltitude(System.nanoTime(), position.getAltitude());
+	}
+
+	/**
+	 * Start a new estimate at rest with an unknown bias
+	 *
+	 * @param timeNanos Time of the first reading
+	 * @param measured The first altitude
+	 * @param altitudeVariance Variance of the first altitude
+	 * @param covariance Covariance of the altitude and the bias
+	 */
+	private void start(long timeNanos, double measured, double altitudeVariance, double covariance) {
+		initialized = true;
+		time = timeNanos;
+		altitude = measured;
+		speed = 0;
+		bias = 0;
+		p00 = altitudeVariance;
+		p01 = 0;
+		p02 = covariance;
+		p11 = 4;
+		p12 = 0;
+		p22 = INITIAL_BIAS_VARIANCE;
+	}
+
+	/**
+	 * Move the estimate to a time, readings arriving out of order don't move it back
+	 */
+	private void predict(long timeNanos) {
+		long elapsed = timeNanos - time;
+		if (elapsed <= 0) {
+			return;
+		}
+		time = timeNanos;
+		double dt = elapsed / 1e9;
+		double dt2 = dt * dt;
+
+		altitude += speed * dt;
+
+		double q = accelerationVariance;
+		p00 += 2 * dt * p01 + dt2 * p11 + dt2 * dt / 3 * q;
+		p01 += dt * p11 + dt2 / 2 * q;
+		p02 += dt * p12;
+		p11 += dt * q;
+		p22 += dt * biasDriftVariance;
+	}
+
+	/**
+	 * Correct the estimate with a measurement of altitude plus, for the
+	 * barometer, the bias
+	 *
+	 * @param measured The measurement
+	 * @param biasFactor 1 if the measurement includes the bias, 0 if not
+	 * @param variance Variance of the measurement
+	 * @return false if the measurement was rejected as invalid or as an outlier
+	 */
+	private boolean correct(double measured, double biasFactor, double variance) {
+		// P * H', with H = [1 0 biasFactor]
+		double a0 = p00 + p02 * biasFactor;
+		double a1 = p01 + p12 * biasFactor;
+		double a2 = p02 + p22 * biasFactor;
+		double s = a0 + a2 * biasFactor + variance;
+		double innovation = measured - (altitude + bias * biasFactor);
+		if (Double.isNaN(innovation) || Double.isInfinite(innovation)
+				|| innovation * innovation > GATE_SIGMAS * GATE_SIGMAS * s) {
+			rejected++;
+			return false;
+		}
+
+		double k0 = a0 / s;
+		double k1 = a1 / s;
+		double k2 = a2 / s;
+		altitude += k0 * innovation;
+		speed += k1 * innovation;
+		bias += k2 * innovation;
+
+		p00 -= k0 * a0;
+		p01 -= k0 * a1;
+		p02 -= k0 * a2;
+		p11 -= k1 * a1;
+		p12 -= k1 * a2;
+		p22 -= k2 * a2;
+		return true;
+	}
+
+	/**
+	 * Check if a reading has been received
+	 *
+	 * @return true if there is an estimate
+	 */
+	public synchronized boolean isInitialized() {
+		return initialized;
+	}
+
+	/**
+	 * Get the estimated altitude at the last reading
+	 *
+	 * @return Altitude in metres
+	 */
+	public synchronized double getAltitude() {
+		return altitude;
+	}
+
+	/**
+	 * Get the estimated altitude at a time after the last reading
+	 *
+	 * @param timeNanos The time from {@link System#nanoTime()}
+	 * @return Altitude in metres
+	 */
+	public synchronized double getAltitude(long timeNanos) {
+		return altitude + speed * Math.max(0, timeNanos - time) / 1e9;
+	}
+
+	/**
+	 * Get the estimated vertical speed
+	 *
+	 * @return Vertical speed in metres per second, positive when climbing
+	 */
+	public synchronized double getVerticalSpeed() {
+		return speed;
+	}
+
+	/**
+	 * Get the uncertainty of the altitude
+	 *
+	 * @return Standard deviation in metres
+	 */
+	public synchronized double getAltitudeError() {
+		return Math.sqrt(p00);
+	}
+
+	/**
+	 * Get the uncertainty of the vertical speed
+	 *
+	 * @return Standard deviation in metres per second
+	 */
+	public synchronized double getVerticalSpeedError() {
+		return Math.sqrt(p11);
+	}
+
+	/**
+	 * Get the estimated error of the barometric altitude
+	 *
+	 * @return Barometric altitude minus the true altitude in metres
+	 */
+	public synchronized double getBarometerBias() {
+		return bias;
+	}
+
+	/**
+	 * Get the number of pressure readings used
+	 *
+	 * @return The pressure update count
+	 */
+	public synchronized long getPressureUpdates() {
+		return pressureUpdates;
+	}
+
+	/**
+	 * Get the number of GPS altitude readings used
+	 *
+	 * @return The altitude update count
+	 */
+	public synchronized long getAltitudeUpdates() {
+		return altitudeUpdates;
+	}
+
+	/**
+	 * Get the number of readings rejected as invalid or as outliers
+	 *
+	 * @return The rejected count
+	 */
+	public synchronized long getRejected() {
+		return rejected;
+	}
+}
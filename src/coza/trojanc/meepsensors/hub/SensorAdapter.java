@@ -0,0 +1,39 @@
+package coza.trojanc.meepsensors.hub;
+
+import coza.trojanc.meepsensors.sensors.MEEPSensor;
+import coza.trojanc.meepsensors.sensors.data.Position;
+import coza.trojanc.meepsensors.sensors.data.Velocity;
+
+/**
+ * Listener with empty methods, override the ones of interest
+ */
+public abstract class SensorAdapter implements SensorListener {
+
+	@Override
+	public void temperature(MEEPSensor sensor, double celsius) {
+	}
+
+	@Override
+	public void pressure(MEEPSensor sensor, double pressure) {
+	}
+
+	@Override
+	public void humidity(MEEPSensor sensor, double humidity) {
+	}
+
+	@Override
+	public void position(MEEPSensor sensor, Position position) {
+	}
+
+	@Override
+	public void velocity(MEEPSensor sensor, Velocity velocity) {
+	}
+
+	@Override
+	public void failed(MEEPSensor sensor, Exception cause) {
+	}
+
+	@Override
+	public void missedDeadline(MEEPSensor sensor, int missed) {
+	}
+}
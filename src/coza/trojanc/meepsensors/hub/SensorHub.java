@@ -0,0 +1,493 @@
+package coza.trojanc.meepsensors.hub;
+
+import coza.trojanc.meepsensors.Logger;
+import coza.trojanc.meepsensors.sensors.BarometricSensor;
+import coza.trojanc.meepsensors.sensors.GpsSensor;
+import coza.trojanc.meepsensors.sensors.HumiditySensor;
+import coza.trojanc.meepsensors.sensors.MEEPSensor;
+import coza.trojanc.meepsensors.sensors.TemperatureSensor;
+import coza.trojanc.meepsensors.sensors.data.Position;
+import coza.trojanc.meepsensors.sensors.data.Velocity;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples many sensors from a small fixed pool of scheduler threads. Each
+ * registered sensor is sampled at its own rate, reading every quantity the
+ * sensor provides and passing it to the listener of the registration.
+ *
+ * Sensors can be assigned to a bus. Samples on the same bus never overlap and
+ * can be limited to a maximum rate, so sensors sharing a bus don't compete for
+ * it. When a sample starts a full period or more after it was due, the samples
+ * in between are skipped and reported as missed deadlines, so a slow sensor
+ * doesn't fall further and further behind.
+ *
+ * To share one sensor between several consumers, {@link #publish} it and
+ * subscribe to the returned {@link SensorPublisher}. The sensor is then read
+ * once per period and the readings are delivered to every subscriber from a
+ * separate, fixed size pool of delivery threads.
+ */
+public class SensorHub implements AutoCloseable {
+
+	/** A reference to a logger */
+	private static final Logger LOG = Logger.getLogger(SensorHub.class);
+
+	/**
+	 * Number of delivery threads when none is given
+	 */
+	public static final int DEFAULT_DELIVERY_THREADS = 2;
+
+	/**
+	 * Number of subscriptions that can wait for a delivery thread
+	 */
+	private static final int DELIVERY_QUEUE_SIZE = 64;
+
+	/**
+	 * Scheduler running the samples
+	 */
+	private final ScheduledExecutorService scheduler;
+
+	/**
+	 * Threads delivering the readings of published sensors to their subscribers
+	 */
+	private final ThreadPoolExecutor delivery;
+
+	/**
+	 * Buses by name
+	 */
+	private final Map<String, Bus> buses = new HashMap<>();
+
+	/**
+	 * All active registrations
+	 */
+	private final List<Registration> registrations = new ArrayList<>();
+
+	/**
+	 * Create a hub with the default number of delivery threads
+	 *
+	 * @param threads Number of scheduler threads
+	 */
+	public SensorHub(int threads) {
+		this(threads, DEFAULT_DELIVERY_THREADS);
+	}
+
+	/**
+	 * Create a hub
+	 *
+	 * @param threads Number of scheduler threads
+	 * @param deliveryThreads Maximum number of threads delivering to subscribers
+	 */
+	public SensorHub(int threads, int deliveryThreads) {
+		scheduler = new ScheduledThreadPoolExecutor(threads, new NamedThreadFactory("SensorHub-"));
+		// A subscription has at most one delivery task queued or running, so the
+		// queue only fills up with more busy subscriptions than it holds. What
+		// happens then is up to the backpressure policy of each subscription.
+		delivery = new ThreadPoolExecutor(deliveryThreads, deliveryThreads, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(DELIVERY_QUEUE_SIZE), new NamedThreadFactory("SensorHub-delivery-"));
+		delivery.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Limit the rate at which samples are started on a bus
+	 *
+	 * @param bus Name of the bus
+	 * @param maxSamplesPerSecond Maximum samples started per second, 0 for no limit
+	 */
+	public void setBusRateLimit(String bus, double maxSamplesPerSecond) {
+		Bus limits = getBus(bus);
+		synchronized (limits) {
+			limits.minIntervalNanos = maxSamplesPerSecond > 0 ? (long) (1e9 / maxSamplesPerSecond) : 0;
+		}
+	}
+
+	/**
+	 * Register a sensor to be sampled at a fixed rate
+	 *
+	 * @param sensor The sensor
+	 * @param period Time between samples
+	 * @param unit Unit of the period
+	 * @param bus Name of the bus the sensor is on, or null if it doesn't share a bus
+	 * @param listener Listener receiving the readings
+	 * @return The registration, which can be used to cancel sampling
+	 */
+	public Registration register(MEEPSensor sensor, long period, TimeUnit unit, String bus, SensorListener listener) {
+		Registration registration = new Registration(sensor, unit.toNanos(period), bus != null ? getBus(bus) : null, listener);
+		synchronized (registrations) {
+			registrations.add(registration);
+		}
+		registration.scheduleAt(System.nanoTime());
+		return registration;
+	}
+
+	/**
+	 * Sample a sensor at a fixed rate and publish the readings to subscribers
+	 *
+	 * @param sensor The sensor
+	 * @param period Time between samples
+	 * @param unit Unit of the period
+	 * @param bus Name of the bus the sensor is on, or null if it doesn't share a bus
+	 * @return The publisher to subscribe to, closing it stops sampling
+	 */
+	public SensorPublisher publish(MEEPSensor sensor, long period, TimeUnit unit, String bus) {
+		SensorPublisher publisher = new SensorPublisher(sensor, delivery);
+		publisher.setRegistration(register(sensor, period, unit, bus, publisher));
+		return publisher;
+	}
+
+	/**
+	 * Get a snapshot of the active registrations
+	 *
+	 * @return The registrations
+	 */
+	public List<Registration> getRegistrations() {
+		synchronized (registrations) {
+			return new ArrayList<>(registrations);
+		}
+	}
+
+	/**
+	 * Get the total number of missed deadlines over all active registrations
+	 *
+	 * @return The number of skipped samples
+	 */
+	public long getMissedDeadlines() {
+		long missed = 0;
+		for (Registration registration : getRegistrations()) {
+			missed += registration.getMissedDeadlines();
+		}
+		return missed;
+	}
+
+	/**
+	 * Get or create the bus with a name
+	 */
+	private Bus getBus(String name) {
+		synchronized (buses) {
+			Bus bus = buses.get(name);
+			if (bus == null) {
+				bus = new Bus();
+				buses.put(name, bus);
+			}
+			return bus;
+		}
+	}
+
+	/**
+	 * Stop sampling. Samples in progress are completed.
+	 */
+	@Override
+	public void close() {
+		for (Registration registration : getRegistrations()) {
+			registration.cancel();
+		}
+		scheduler.shutdown();
+		delivery.shutdown();
+	}
+
+	/**
+	 * Creates numbered daemon threads
+	 */
+	private static class NamedThreadFactory implements ThreadFactory {
+
+		private final String prefix;
+		private int count;
+
+		NamedThreadFactory(String prefix) {
+			this.prefix = prefix;
+		}
+
+		@Override
+		public synchronized Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, prefix + (++count));
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+
+	/**
+	 * Scheduling state of a bus
+	 */
+	private static class Bus {
+
+		/**
+		 * Minimum time between the start of two samples
+		 */
+		private long minIntervalNanos;
+
+		/**
+		 * Earliest time the next sample may start
+		 */
+		private long nextSlot = System.nanoTime();
+
+		/**
+		 * Held while a sensor on the bus is sampled
+		 */
+		private final Object access = new Object();
+
+		/**
+		 * Reserve the first free slot at or after a time
+		 *
+		 * @param time The time the sample is due
+		 * @return The time the sample may start
+		 */
+		synchronized long reserve(long time) {
+			if (minIntervalNanos == 0) {
+				return time;
+			}
+			long start = nextSlot - time > 0 ? nextSlot : time;
+			nextSlot = start + minIntervalNanos;
+			return start;
+		}
+	}
+
+	/**
+	 * A sensor sampled by the hub
+	 */
+	public class Registration implements Runnable {
+
+		private final MEEPSensor sensor;
+		private final long periodNanos;
+		private final Bus bus;
+		private final SensorListener listener;
+
+		/**
+		 * Time the next sample is due
+		 */
+		private long due;
+
+		private ScheduledFuture<?> future;
+		private volatile boolean cancelled;
+		private volatile long samples;
+		private volatile long failures;
+		private volatile long listenerFailures;
+		private volatile long missedDeadlines;
+		private volatile long lastDurationNanos;
+		private volatile long maxLatenessNanos;
+
+		private Registration(MEEPSensor sensor, long periodNanos, Bus bus, SensorListener listener) {
+			this.sensor = sensor;
+			this.periodNanos = periodNanos;
+			this.bus = bus;
+			this.listener = listener;
+		}
+
+		/**
+		 * Schedule the next sample
+		 *
+		 * @param time The time the sample is due
+		 */
+		private synchronized void scheduleAt(long time) {
+			if (cancelled) {
+				return;
+			}
+			due = time;
+			long start = bus != null ? bus.reserve(time) : time;
+			try {
+				future = scheduler.schedule(this, start - System.nanoTime(), TimeUnit.NANOSECONDS);
+			} catch (RejectedExecutionException e) {
+				cancelled = true;
+			}
+		}
+
+		@Override
+		public void run() {
+			if (cancelled) {
+				return;
+			}
+			long start = System.nanoTime();
+			long lateness = start - due;
+			if (lateness > maxLatenessNanos) {
+				maxLatenessNanos = lateness;
+			}
+
+			// The next sample is always scheduled, whatever the sensor or listener throws
+			try {
+				if (bus != null) {
+					synchronized (bus.access) {
+						sample();
+					}
+				} else {
+					sample();
+				}
+			} catch (Error e) {
+				failures++;
+				LOG.severe("Error while sampling sensor", e);
+				throw e;
+			} finally {
+				long end = System.nanoTime();
+				lastDurationNanos = end - start;
+
+				// Skip the samples we can no longer take in time
+				long next = due + periodNanos;
+				if (end - next >= 0) {
+					int missed = (int) ((end - next) / periodNanos) + 1;
+					missedDeadlines += missed;
+					next += missed * periodNanos;
+					LOG.debug("Sensor {} missed {} samples", sensor.getClass().getName(), missed);
+					try {
+						listener.missedDeadline(sensor, missed);
+					} catch (RuntimeException e) {
+						listenerFailed(e);
+					}
+				}
+				scheduleAt(next);
+			}
+		}
+
+		/**
+		 * Read every quantity the sensor provides. Temperature is read first, since
+		 * some sensors need it to calculate pressure. A listener that throws doesn't
+		 * stop the other quantities from being read and isn't counted as a failure of
+		 * the sensor.
+		 */
+		private void sample() {
+			try {
+				if (sensor instanceof TemperatureSensor) {
+					double temperature = ((TemperatureSensor) sensor).getTemparature();
+					try {
+						listener.temperature(sensor, temperature);
+					} catch (RuntimeException e) {
+						listenerFailed(e);
+					}
+				}
+				if (sensor instanceof BarometricSensor) {
+					double pressure = ((BarometricSensor) sensor).getPressure();
+					try {
+						listener.pressure(sensor, pressure);
+					} catch (RuntimeException e) {
+						listenerFailed(e);
+					}
+				}
+				if (sensor instanceof HumiditySensor) {
+					double humidity = ((HumiditySensor) sensor).getHumidity();
+					try {
+						listener.humidity(sensor, humidity);
+					} catch (RuntimeException e) {
+						listenerFailed(e);
+					}
+				}
+				if (sensor instanceof GpsSensor) {
+					GpsSensor gps = (GpsSensor) sensor;
+					Position position = gps.getPosition();
+					try {
+						listener.position(sensor, position);
+					} catch (RuntimeException e) {
+						listenerFailed(e);
+					}
+					Velocity velocity = gps.getVelocity();
+					try {
+						listener.velocity(sensor, velocity);
+					} catch (RuntimeException e) {
+						listenerFailed(e);
+					}
+				}
+				samples++;
+			} catch (RuntimeException e) {
+				failures++;
+				LOG.warn("Exception while sampling sensor", e);
+				try {
+					listener.failed(sensor, e);
+				} catch (RuntimeException le) {
+					listenerFailed(le);
+				}
+			}
+		}
+
+		/**
+		 * Log an exception thrown by the listener
+		 *
+		 * @param e The exception
+		 */
+		private void listenerFailed(RuntimeException e) {
+			listenerFailures++;
+			LOG.warn("Exception in the listener of sensor " + sensor.getClass().getName(), e);
+		}
+
+		/**
+		 * Stop sampling this sensor
+		 */
+		public synchronized void cancel() {
+			cancelled = true;
+			if (future != null) {
+				future.cancel(false);
+			}
+			synchronized (registrations) {
+				registrations.remove(this);
+			}
+		}
+
+		/**
+		 * Get the sampled sensor
+		 *
+		 * @return The sensor
+		 */
+		public MEEPSensor getSensor() {
+			return sensor;
+		}
+
+		/**
+		 * Get the number of completed samples
+		 *
+		 * @return The sample count
+		 */
+		public long getSamples() {
+			return samples;
+		}
+
+		/**
+		 * Get the number of failed samples
+		 *
+		 * @return The failure count
+		 */
+		public long getFailures() {
+			return failures;
+		}
+
+		/**
+		 * Get the number of exceptions thrown by the listener
+		 *
+		 * @return The listener failure count
+		 */
+		public long getListenerFailures() {
+			return listenerFailures;
+		}
+
+		/**
+		 * Get the number of samples skipped because they could not start in time
+		 *
+		 * @return The missed deadline count
+		 */
+		public long getMissedDeadlines() {
+			return missedDeadlines;
+		}
+
+		/**
+		 * Get the duration of the last sample
+		 *
+		 * @return The duration in nanoseconds
+		 */
+		public long getLastDurationNanos() {
+			return lastDurationNanos;
+		}
+
+		/**
+		 * Get the longest time a sample started after it was due
+		 *
+		 * @return The lateness in nanoseconds
+		 */
+		public long getMaxLatenessNanos() {
+			return maxLatenessNanos;
+		}
+	}
+}
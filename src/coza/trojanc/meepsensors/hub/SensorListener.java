@@ -0,0 +1,70 @@
+package coza.trojanc.meepsensors.hub;
+
+import coza.trojanc.meepsensors.sensors.MEEPSensor;
+import coza.trojanc.meepsensors.sensors.data.Position;
+import coza.trojanc.meepsensors.sensors.data.Velocity;
+
+/**
+ * Receives the readings taken by a {@link SensorHub}. Methods are called on the
+ * hub's scheduler threads and should return quickly. Extend
+ * {@link SensorAdapter} to only handle the readings of interest.
+ */
+public interface SensorListener {
+
+	/**
+	 * A temperature was read
+	 *
+	 * @param sensor The sensor that was sampled
+	 * @param celsius Temperature in Celsius
+	 */
+	public void temperature(MEEPSensor sensor, double celsius);
+
+	/**
+	 * A pressure was read
+	 *
+	 * @param sensor The sensor that was sampled
+	 * @param pressure Pressure in hPa
+	 */
+	public void pressure(MEEPSensor sensor, double pressure);
+
+	/**
+	 * A humidity was read
+	 *
+	 * @param sensor The sensor that was sampled
+	 * @param humidity Relative humidity in percent
+	 */
+	public void humidity(MEEPSensor sensor, double humidity);
+
+	/**
+	 * A position was read
+	 *
+	 * @param sensor The sensor that was sampled
+	 * @param position The position
+	 */
+	public void position(MEEPSensor sensor, Position position);
+
+	/**
+	 * A velocity was read
+	 *
+	 * @param sensor The sensor that was sampled
+	 * @param velocity The velocity
+	 */
+	public void velocity(MEEPSensor sensor, Velocity velocity);
+
+	/**
+	 * Sampling a sensor failed
+	 *
+	 * @param sensor The sensor that was sampled
+	 * @param cause The cause of the failure
+	 */
+	public void failed(MEEPSensor sensor, Exception cause);
+
+	/**
+	 * One or more samples of a sensor were skipped because the previous sample
+	 * started too late
+	 *
+	 * @param sensor The sensor
+	 * @param missed The number of skipped samples
+	 */
+	public void missedDeadline(MEEPSensor sensor, int missed);
+}
@@ -0,0 +1,460 @@
+package coza.trojanc.meepsensors.hub;
+
+import coza.trojanc.meepsensors.Logger;
+import coza.trojanc.meepsensors.sensors.MEEPSensor;
+import coza.trojanc.meepsensors.sensors.data.Position;
+import coza.trojanc.meepsensors.sensors.data.Velocity;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Fans the readings of one acquisition out to any number of subscribers. The
+ * publisher is the listener of a {@link SensorHub} registration, so the sensor
+ * is read once per period however many subscribers there are. Create one with
+ * {@link SensorHub#publish}.
+ *
+ * Every subscription has its own bounded queue and is delivered from an
+ * executor, so a slow subscriber only falls behind itself. A subscription
+ * gives up its thread after a batch of readings to let the others take turns.
+ * What happens when its queue is full is chosen per subscription with a
+ * {@link Backpressure} policy.
+ *
+ * When the executor refuses a delivery because all its threads are busy, the
+ * readings stay queued and the policy applies to them as well: delivery is
+ * retried on the next reading, and for {@link Backpressure#BLOCK} the readings
+ * are delivered on the acquisition thread instead.
+ */
+public class SensorPublisher implements SensorListener, AutoCloseable {
+
+	/** A reference to a logger */
+	private static final Logger LOG = Logger.getLogger(SensorPublisher.class);
+
+	/**
+	 * What to do with a reading when the queue of a subscription is full
+	 */
+	public enum Backpressure {
+		/**
+		 * Drop the oldest queued reading to make room
+		 */
+		DROP_OLDEST,
+		/**
+		 * Keep only the newest reading of each kind, replacing a queued one
+		 */
+		LATEST,
+		/**
+		 * Wait for room. This holds up the acquisition and the other subscribers,
+		 * only use it for subscribers that keep up.
+		 */
+		BLOCK
+	}
+
+	private static final int TEMPERATURE = 0;
+	private static final int PRESSURE = 1;
+	private static final int HUMIDITY = 2;
+	private static final int POSITION = 3;
+	private static final int VELOCITY = 4;
+	private static final int FAILED = 5;
+	private static final int MISSED_DEADLINE = 6;
+	private static final int KINDS = 7;
+
+	/**
+	 * Readings delivered before a subscription gives up its thread
+	 */
+	private static final int DELIVERY_BATCH = 16;
+
+	private final MEEPSensor sensor;
+	private final Executor executor;
+
+	/**
+	 * Active subscriptions, replaced on every change so publishing needs no lock
+	 */
+	private volatile Subscription[] subscriptions = new Subscription[0];
+
+	/**
+	 * The registration acquiring the readings, if any
+	 */
+	private volatile SensorHub.Registration registration;
+
+	/**
+	 * Create a publisher
+	 *
+	 * @param sensor The sensor whose readings are published
+	 * @param executor Executor delivering the readings to the subscribers
+	 */
+	public SensorPublisher(MEEPSensor sensor, Executor executor) {
+		this.sensor = sensor;
+		this.executor = executor;
+	}
+
+	/**
+	 * Set the registration acquiring the readings, cancelled when the publisher closes
+	 */
+	void setRegistration(SensorHub.Registration registration) {
+		this.registration = registration;
+	}
+
+	/**
+	 * Subscribe to the readings
+	 *
+	 * @param listener Listener receiving the readings, called from the executor one reading at a time
+	 * @param policy What to do when the listener falls behind
+	 * @param capacity Number of readings queued for the listener, not used for {@link Backpressure#LATEST}
+	 * @return The subscription
+	 */
+	public synchronized Subscription subscribe(SensorListener listener, Backpressure policy, int capacity) {
+		Subscription subscription = new Subscription(listener, policy, policy == Backpressure.LATEST ? KINDS : capacity);
+		Subscription[] updated = new Subscription[subscriptions.length + 1];
+		System.arraycopy(subscriptions, 0, updated, 0, subscriptions.length);
+		updated[subscriptions.length] = subscription;
+		subscriptions = updated;
+		return subscription;
+	}
+
+	/**
+	 * Remove a subscription from the list
+	 */
+	private synchronized void remove(Subscription subscription) {
+		int index = -1;
+		for (int i = 0; i < subscriptions.length; i++) {
+			if (subscriptions[i] == subscription) {
+				index = i;
+			}
+		}
+		if (index >= 0) {
+			Subscription[] updated = new Subscription[subscriptions.length - 1];
+			System.arraycopy(subscriptions, 0, updated, 0, index);
+			System.arraycopy(subscriptions, index + 1, updated, index, updated.length - index);
+			subscriptions = updated;
+		}
+	}
+
+	/**
+	 * Get the sensor whose readings are published
+	 *
+	 * @return The sensor
+	 */
+	public MEEPSensor getSensor() {
+		return sensor;
+	}
+
+	/**
+	 * Get the number of subscribers
+	 *
+	 * @return The subscriber count
+	 */
+	public int getSubscriberCount() {
+		return subscriptions.length;
+	}
+
+	private void publish(int kind, double value, Object data) {
+		for (Subscription subscription : subscriptions) {
+			subscription.offer(kind, value, data);
+		}
+	}
+
+	@Override
+	public void temperature(MEEPSensor sensor, double celsius) {
+		publish(TEMPERATURE, celsius, null);
+	}
+
+	@Override
+	public void pressure(MEEPSensor sensor, double pressure) {
+		publish(PRESSURE, pressure, null);
+	}
+
+	@Override
+	public void humidity(MEEPSensor sensor, double humidity) {
+		publish(HUMIDITY, humidity, null);
+	}
+
+	@Override
+	public void position(MEEPSensor sensor, Position position) {
+		publish(POSITION, 0, position);
+	}
+
+	@Override
+	public void velocity(MEEPSensor sensor, Velocity velocity) {
+		publish(VELOCITY, 0, velocity);
+	}
+
+	@Override
+	public void failed(MEEPSensor sensor, Exception cause) {
+		publish(FAILED, 0, cause);
+	}
+
+	@Override
+	public void missedDeadline(MEEPSensor sensor, int missed) {
+		publish(MISSED_DEADLINE, missed, null);
+	}
+
+	/**
+	 * Stop acquiring and cancel all subscriptions. The sensor itself is not closed.
+	 */
+	@Override
+	public void close() {
+		SensorHub.Registration current = registration;
+		if (current != null) {
+			current.cancel();
+		}
+		for (Subscription subscription : subscriptions) {
+			subscription.cancel();
+		}
+	}
+
+	/**
+	 * A subscriber and its queue of readings. The queue is a ring of preallocated
+	 * slots, so queuing a reading allocates nothing.
+	 */
+	public class Subscription implements Runnable {
+
+		private final SensorListener listener;
+		private final Backpressure policy;
+		private final int capacity;
+
+		private final int[] kinds;
+		private final double[] values;
+		private final Object[] data;
+
+		/**
+		 * Sequence numbers of the next reading to deliver and the next free slot
+		 */
+		private long head;
+		private long tail;
+
+		/**
+		 * Pending reading of each kind for the LATEST policy
+		 */
+		private final boolean[] pending;
+		private int pendingCount;
+
+		/**
+		 * Set while a delivery task is submitted or running
+		 */
+		private boolean scheduled;
+		private boolean cancelled;
+		private long delivered;
+		private long dropped;
+		private long refused;
+
+		private Subscription(SensorListener listener, Backpressure policy, int capacity) {
+			if (capacity <= 0) {
+				throw new IllegalArgumentException("Capacity must be positive");
+			}
+			this.listener = listener;
+			this.policy = policy;
+			this.capacity = capacity;
+			kinds = new int[capacity];
+			values = new double[capacity];
+			data = new Object[capacity];
+			pending = new boolean[KINDS];
+		}
+
+		/**
+		 * Queue a reading and make sure a delivery task is running
+		 */
+		private void offer(int kind, double value, Object reading) {
+			synchronized (this) {
+				if (cancelled) {
+					return;
+				}
+				if (policy == Backpressure.LATEST) {
+					if (pending[kind]) {
+						dropped++;
+					} else {
+						pending[kind] = true;
+						pendingCount++;
+					}
+					values[kind] = value;
+					data[kind] = reading;
+				} else {
+					if (tail - head == capacity) {
+						if (policy == Backpressure.DROP_OLDEST) {
+							data[(int) (head % capacity)] = null;
+							head++;
+							dropped++;
+						} else {
+							try {
+								while (tail - head == capacity && !cancelled) {
+									wait();
+								}
+							} catch (InterruptedException e) {
+								Thread.currentThread().interrupt();
+							}
+							if (tail - head == capacity || cancelled) {
+								dropped++;
+								return;
+							}
+						}
+					}
+					int slot = (int) (tail % capacity);
+					kinds[slot] = kind;
+					values[slot] = value;
+					data[slot] = reading;
+					tail++;
+				}
+				if (scheduled) {
+					return;
+				}
+				scheduled = true;
+			}
+			try {
+				executor.execute(this);
+			} catch (RejectedExecutionException e) {
+				LOG.debug("Delivery of sensor readings refused, {} queued", getPending());
+				synchronized (this) {
+					refused++;
+					if (policy != Backpressure.BLOCK) {
+						// Retried on the next reading, the queue drops what doesn't fit
+						scheduled = false;
+						return;
+					}
+				}
+				run();
+			}
+		}
+
+		/**
+		 * Deliver the queued readings
+		 */
+		@Override
+		public void run() {
+			int batch = 0;
+			while (true) {
+				if (batch++ == DELIVERY_BATCH) {
+					// Let the other subscriptions have the thread, continue after them
+					try {
+						executor.execute(this);
+						return;
+					} catch (RejectedExecutionException e) {
+						synchronized (this) {
+							refused++;
+							if (policy != Backpressure.BLOCK) {
+								scheduled = false;
+								return;
+							}
+						}
+						batch = 0;
+					}
+				}
+				int kind;
+				double value;
+				Object reading;
+				synchronized (this) {
+					if (cancelled) {
+						scheduled = false;
+						return;
+					}
+					if (policy == Backpressure.LATEST) {
+						if (pendingCount == 0) {
+							scheduled = false;
+							return;
+						}
+						kind = 0;
+						while (!pending[kind]) {
+							kind++;
+						}
+						pending[kind] = false;
+						pendingCount--;
+						value = values[kind];
+						reading = data[kind];
+						data[kind] = null;
+					} else {
+						if (head == tail) {
+							scheduled = false;
+							return;
+						}
+						int slot = (int) (head % capacity);
+						kind = kinds[slot];
+						value = values[slot];
+						reading = data[slot];
+						data[slot] = null;
+						head++;
+						if (policy == Backpressure.BLOCK) {
+							notifyAll();
+						}
+					}
+					delivered++;
+				}
+				try {
+					deliver(kind, value, reading);
+				} catch (RuntimeException e) {
+					LOG.warn("Exception in sensor subscriber", e);
+				}
+			}
+		}
+
+		private void deliver(int kind, double value, Object reading) {
+			switch (kind) {
+				case TEMPERATURE:
+					listener.temperature(sensor, value);
+					break;
+				case PRESSURE:
+					listener.pressure(sensor, value);
+					break;
+				case HUMIDITY:
+					listener.humidity(sensor, value);
+					break;
+				case POSITION:
+					listener.position(sensor, (Position) reading);
+					break;
+				case VELOCITY:
+					listener.velocity(sensor, (Velocity) reading);
+					break;
+				case FAILED:
+					listener.failed(sensor, (Exception) reading);
+					break;
+				default:
+					listener.missedDeadline(sensor, (int) value);
+					break;
+			}
+		}
+
+		/**
+		 * Stop delivering readings. Queued readings are discarded.
+		 */
+		public void cancel() {
+			synchronized (this) {
+				cancelled = true;
+				notifyAll();
+			}
+			remove(this);
+		}
+
+		/**
+		 * Get the number of readings delivered
+		 *
+		 * @return The delivered count
+		 */
+		public synchronized long getDelivered() {
+			return delivered;
+		}
+
+		/**
+		 * Get the number of readings dropped or replaced because the subscriber fell behind
+		 *
+		 * @return The dropped count
+		 */
+		public synchronized long getDropped() {
+			return dropped;
+		}
+
+		/**
+		 * Get the number of times the executor had no room for the deliveries
+		 *
+		 * @return The refused count
+		 */
+		public synchronized long getRefused() {
+			return refused;
+		}
+
+		/**
+		 * Get the number of readings waiting to be delivered
+		 *
+		 * @return The queue depth
+		 */
+		public synchronized int getPending() {
+			return policy == Backpressure.LATEST ? pendingCount : (int) (tail - head);
+		}
+	}
+}
@@ -0,0 +1,181 @@
+package coza.trojanc.meepsensors.i2c;
+
+import coza.trojanc.meepsensors.Logger;
+import coza.trojanc.meepsensors.i2c.BMP180.BMPMode;
+
+/**
+ * Picks the oversampling mode of a {@link BMP180} from the sample rate and
+ * pressure noise wanted, the conversion times of the modes and the current load
+ * of the bus, measured by the recent wait for the bus. A sample takes the
+ * temperature and pressure conversions plus four bus transactions, which take
+ * longer while the bus is busy with other devices.
+ *
+ * With a sample rate the most precise mode that still keeps up is chosen, so
+ * readings are as precise as possible while the bus is quiet and fall back to
+ * faster modes during bursts. With a noise budget the fastest mode within the
+ * budget is chosen. With both, the rate comes first.
+ *
+ * Call {@link #update()} periodically, for example before every sample, to
+ * follow changes in the bus load.
+ */
+public class AdaptiveModePolicy {
+
+	/** A reference to a logger */
+	private static final Logger LOG = Logger.getLogger(AdaptiveModePolicy.class);
+
+	/**
+	 * Bus transactions per sample: start and read the temperature, start and read the pressure
+	 */
+	private static final int TRANSACTIONS_PER_SAMPLE = 4;
+
+	/**
+	 * Default time a transaction takes on the bus, without waiting for it
+	 */
+	public static final long DEFAULT_TRANSACTION_NANOS = 500000;
+
+	/**
+	 * Fraction of the sample period a faster mode has to leave free before a more
+	 * precise one is chosen again, so the mode doesn't flap with small load changes
+	 */
+	private static final double HEADROOM = 0.1;
+
+	private static final BMPMode[] MODES = BMPMode.values();
+
+	private final BMP180 sensor;
+	private final I2CBusArbiter arbiter;
+
+	private volatile double targetRate;
+	private volatile double noiseBudget;
+	private volatile long transactionNanos = DEFAULT_TRANSACTION_NANOS;
+
+	/**
+	 * Create a policy for a sensor
+	 *
+	 * @param sensor The sensor whose mode is set
+	 * @param arbiter The arbiter of the bus the sensor is on, to take the bus load
+	 *                into account, or null to ignore the bus load
+	 */
+	public AdaptiveModePolicy(BMP180 sensor, I2CBusArbiter arbiter) {
+		this.sensor = sensor;
+		this.arbiter = arbiter;
+	}
+
+	/**
+	 * Set the sample rate the sensor has to keep up with
+	 *
+	 * @param samplesPerSecond The rate, or 0 for no rate requirement
+	 */
+	public void setTargetRate(double samplesPerSecond) {
+		if (samplesPerSecond < 0) {
+			throw new IllegalArgumentException("samplesPerSecond < 0");
+		}
+		this.targetRate = samplesPerSecond;
+	}
+
+	/**
+	 * Get the sample rate the sensor has to keep up with
+	 *
+	 * @return The rate, 0 if there is no rate requirement
+	 */
+	public double getTargetRate() {
+		return targetRate;
+	}
+
+	/**
+	 * Set the RMS pressure noise that is acceptable
+	 *
+	 * @param pa The noise in Pa, or 0 for no noise requirement
+	 */
+	public void setNoiseBudget(double pa) {
+		if (pa < 0) {
+			throw new IllegalArgumentException("pa < 0");
+		}
+		this.noiseBudget = pa;
+	}
+
+	/**
+	 * Get the RMS pressure noise that is acceptable
+	 *
+	 * @return The noise in Pa, 0 if there is no noise requirement
+	 */
+	public double getNoiseBudget() {
+		return noiseBudget;
+	}
+
+	/**
+	 * Set the time a transaction takes on the bus, without waiting for it
+	 *
+	 * @param nanos The transaction time in nanoseconds
+	 */
+	public void setTransactionNanos(long nanos) {
+		this.transactionNanos = nanos;
+	}
+
+	/**
+	 * Estimate how long a sample takes in a mode at the current bus load
+	 *
+	 * @param mode The mode
+	 * @return The sample time in nanoseconds
+	 */
+	public long getSampleNanos(BMPMode mode) {
+		long wait = arbiter != null ? arbiter.getRecentWaitNanos() : 0;
+		return (BMP180.TEMP_CONVERSION_MICROS + mode.getConversionMicros()) * 1000L
+				+ TRANSACTIONS_PER_SAMPLE * (transactionNanos + wait);
+	}
+
+	/**
+	 * Choose the mode for the current requirements and bus load, without setting it
+	 *
+	 * @return The mode
+	 */
+	public BMPMode select() {
+		double rate = targetRate;
+		double budget = noiseBudget;
+		BMPMode current = sensor.getMode();
+
+		// The most precise mode that keeps up with the rate, the modes are ordered fastest first
+		int fastest = 0;
+		int precise = MODES.length - 1;
+		if (rate > 0) {
+			long period = (long) (1e9 / rate);
+			precise = -1;
+			for (int i = 0; i < MODES.length; i++) {
+				long needed = getSampleNanos(MODES[i]);
+				if (MODES[i].ordinal() > current.ordinal()) {
+					needed += (long) (period * HEADROOM);
+				}
+				if (needed <= period) {
+					precise = i;
+				}
+			}
+			if (precise < 0) {
+				// Nothing keeps up, go as fast as possible
+				return MODES[fastest];
+			}
+		}
+		if (budget > 0) {
+			for (int i = fastest; i <= precise; i++) {
+				if (MODES[i].getNoisePa() <= budget) {
+					return MODES[i];
+				}
+			}
+		}
+		return MODES[precise];
+	}
+
+	/**
+	 * Choose the mode for the current requirements and bus load and set it on the sensor
+	 *
+	 * @return The mode set
+	 */
+	public BMPMode update() {
+		BMPMode mode = select();
+		if (mode != sensor.getMode()) {
+			if (LOG.isInfoEnabled()) {
+				LOG.info("Switching BMP180 from {} to {}", sensor.getMode(), mode);
+			}
+			sensor.setMode(mode);
+		}
+		return mode;
+	}
+}
@@ -0,0 +1,100 @@
+package coza.trojanc.meepsensors.i2c;
+
+import coza.trojanc.meepsensors.io.DeviceProvider;
+import coza.trojanc.meepsensors.io.DigitalPin;
+import coza.trojanc.meepsensors.io.RegisterDevice;
+import coza.trojanc.meepsensors.io.SerialPort;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Provider attaching every I2C device it opens to the {@link I2CBusArbiter} of
+ * its bus, so all sensors created with it share each bus through one arbiter.
+ * Serial ports and digital pins are opened by the wrapped provider unchanged.
+ *
+ * <pre>
+ * ArbitratedDeviceProvider provider = new ArbitratedDeviceProvider(DioDeviceProvider.getInstance(), I2CBusArbiter.Policy.PRIORITY);
+ * provider.setPriority(1, 0x77, 10);
+ * BMP180 bmp = new BMP180(provider);
+ * double utilization = provider.getArbiter(1).getUtilization();
+ * </pre>
+ */
+public class ArbitratedDeviceProvider implements DeviceProvider {
+
+	private final DeviceProvider provider;
+	private final I2CBusArbiter.Policy policy;
+
+	/**
+	 * Arbiters by bus number
+	 */
+	private final Map<Integer, I2CBusArbiter> arbiters = new HashMap<>();
+
+	/**
+	 * Device priorities keyed by bus and address
+	 */
+	private final Map<Long, Integer> priorities = new HashMap<>();
+
+	/**
+	 * Create a provider
+	 *
+	 * @param provider Provider opening the devices
+	 * @param policy Policy of the arbiters
+	 */
+	public ArbitratedDeviceProvider(DeviceProvider provider, I2CBusArbiter.Policy policy) {
+		this.provider = provider;
+		this.policy = policy;
+	}
+
+	/**
+	 * Set the priority of a device for the {@link I2CBusArbiter.Policy#PRIORITY}
+	 * policy. Only applies to devices opened afterwards, the default is 0.
+	 *
+	 * @param i2cBus Device bus
+	 * @param address Device address
+	 * @param priority Priority, higher goes first
+	 */
+	public synchronized void setPriority(int i2cBus, int address, int priority) {
+		priorities.put(key(i2cBus, address), priority);
+	}
+
+	/**
+	 * Get the arbiter of a bus, creating it if needed
+	 *
+	 * @param i2cBus The bus
+	 * @return The arbiter
+	 */
+	public synchronized I2CBusArbiter getArbiter(int i2cBus) {
+		I2CBusArbiter arbiter = arbiters.get(i2cBus);
+		if (arbiter == null) {
+			arbiter = new I2CBusArbiter(policy);
+			arbiters.put(i2cBus, arbiter);
+		}
+		return arbiter;
+	}
+
+	@Override
+	public RegisterDevice openRegisterDevice(int i2cBus, int address, int addressSizeBits, int serialClock) throws IOException {
+		RegisterDevice device = provider.openRegisterDevice(i2cBus, address, addressSizeBits, serialClock);
+		Integer priority;
+		synchronized (this) {
+			priority = priorities.get(key(i2cBus, address));
+		}
+		return getArbiter(i2cBus).attach(device, priority != null ? priority : 0);
+	}
+
+	@Override
+	public SerialPort openSerialPort(int deviceId) throws IOException {
+		return provider.openSerialPort(deviceId);
+	}
+
+	@Override
+	public DigitalPin openDigitalPin(int controller, int pin) throws IOException {
+		return provider.openDigitalPin(controller, pin);
+	}
+
+	private static Long key(int high, int low) {
+		return ((long) high << 32) | (low & 0xFFFFFFFFL);
+	}
+}
@@ -1,11 +1,22 @@
 package coza.trojanc.meepsensors.i2c;
 
 import coza.trojanc.meepsensors.Logger;
+import coza.trojanc.meepsensors.io.DeviceProvider;
+import coza.trojanc.meepsensors.io.dio.DioDeviceProvider;
+import coza.trojanc.meepsensors.metrics.Counter;
+import coza.trojanc.meepsensors.metrics.Histogram;
+import coza.trojanc.meepsensors.metrics.MetricsRegistry;
 import coza.trojanc.meepsensors.sensors.BarometricSensor;
 import coza.trojanc.meepsensors.sensors.TemperatureSensor;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  *
@@ -16,25 +27,40 @@ public class BMP180 extends I2CSensor implements BarometricSensor, TemperatureSe
 	/** A reference to a logger */
 	private static final Logger LOG = Logger.getLogger(I2CSensor.class);
 
+	/**
+	 * Latency of the blocking reads and of asynchronous samples, and the number
+	 * of asynchronous samples that failed
+	 */
+	private static final Histogram TEMPERATURE_LATENCY = MetricsRegistry.getDefault().histogram("bmp180.temperature");
+	private static final Histogram PRESSURE_LATENCY = MetricsRegistry.getDefault().histogram("bmp180.pressure");
+	private static final Histogram SAMPLE_LATENCY = MetricsRegistry.getDefault().histogram("bmp180.sample");
+	private static final Counter FAILED_SAMPLES = MetricsRegistry.getDefault().counter("bmp180.failed_samples");
+
 	/**
 	 * Device address BMP180 address is 0x77
 	 */
 	private static final int BMP180_ADDR = 0x77;
 
+	/**
+	 * Chip ID register and the ID it holds
+	 */
+	public static final int CHIP_ID_REGISTER = 0xD0;
+	public static final int CHIP_ID = 0x55;
+
+	/**
+	 * The BMP180 for {@link I2CBusScanner}, which is only ever at its fixed address
+	 */
+	public static final I2CBusScanner.Chip CHIP = new I2CBusScanner.Chip("BMP180", CHIP_ID_REGISTER, CHIP_ID, BMP180_ADDR) {
+		@Override
+		public BMP180 create(DeviceProvider provider, int i2cBus, int address) {
+			return new BMP180(provider, i2cBus);
+		}
+	};
+
 	/**
 	 * EEPROM registers - these represent calibration data
  	 */
-	private short AC1;
-	private short AC2;
-	private short AC3;
-	private int AC4;
-	private int AC5;
-	private int AC6;
-	private short B1;
-	private short B2;
-	private short MB;
-	private short MC;
-	private short MD;
+	private BMP180Calibration calibration;
 
 	/**
 	 * Variable common between temperature & pressure calculations
@@ -46,12 +72,6 @@ public class BMP180 extends I2CSensor implements BarometricSensor, TemperatureSe
 	 */
 	private static final int CALIBRATION_BYTES = 22;
 
-	/**
-	 * Address byte length
-	 * Size of each address (in bytes)
-	 */
-	private final int SUB_ADDRESS_BYTES = 1;
-
 	/**
 	 * EEPROM address data
 	 */
@@ -63,12 +83,21 @@ public class BMP180 extends I2CSensor implements BarometricSensor, TemperatureSe
 	private final int CONTROL_REGISTER = 0xF4;
 
 
+	// Start-up time after power on in ms, from the datasheet
+	private static final int STARTUP_DELAY = 10;
+
 	// Temperature read address
 	private static final int TEMP_ADDR = 0xF6;
 
 	// Read temperature command
 	private static final byte GET_TEMP_CMD = (byte) 0x2E;
 
+	// Maximum temperature conversion time in microseconds
+	static final int TEMP_CONVERSION_MICROS = 4500;
+
+	// Delay before reading the temperature in ms, the conversion time rounded up
+	private static final int TEMP_DELAY = 5;
+
 	//Uncompensated Temperature data
 	private int UT;
 
@@ -79,31 +108,149 @@ public class BMP180 extends I2CSensor implements BarometricSensor, TemperatureSe
 	private int UP;
 
 	//Barometer configuration
-	private byte pressureCmd;
-	private int delay;
+	/**
+	 * Mode used for the next pressure conversion
+	 */
+	private volatile BMPMode mode;
+
+	/**
+	 * Oversampling setting of the pressure conversion last started, which the
+	 * uncompensated pressure read back has to be shifted and compensated with
+	 */
 	private int oss;
 
 	// Shared ByteBuffers
 	private ByteBuffer uncompTemp;
+	private ByteBuffer uncompPress;
+
+	/**
+	 * Timer shared by all BMP180 instances for asynchronous sampling
+	 */
+	private static ScheduledExecutorService sharedTimer;
+
+	/**
+	 * Timer used to schedule the register reads of asynchronous samples
+	 */
+	private ScheduledExecutorService conversionTimer;
+
+	/**
+	 * Set while an asynchronous sample is in progress
+	 */
+	private final AtomicBoolean sampling = new AtomicBoolean();
+
+	/**
+	 * Buffer for the register reads of asynchronous samples
+	 */
+	private final ByteBuffer asyncBuffer = ByteBuffer.allocateDirect(3);
+
+	/**
+	 * Callback of the asynchronous sample in progress
+	 */
+	private SampleCallback asyncCallback;
+
+	/**
+	 * Temperature of the asynchronous sample in progress
+	 */
+	private double asyncTemperature;
+
+	/**
+	 * Time the asynchronous sample in progress started, from System.nanoTime()
+	 */
+	private long asyncStarted;
+
+	/**
+	 * Reads the temperature once its conversion completed and starts the pressure conversion
+	 */
+	private final Runnable temperatureReady = new Runnable() {
+		@Override
+		public void run() {
+			onTemperatureReady();
+		}
+	};
+
+	/**
+	 * Reads the pressure once its conversion completed and completes the sample
+	 */
+	private final Runnable pressureReady = new Runnable() {
+		@Override
+		public void run() {
+			onPressureReady();
+		}
+	};
 
 	public BMP180(){
-		super(BMP180_ADDR);
+		this(DioDeviceProvider.getInstance());
+	}
+
+	/**
+	 * Create a BMP180 on the default bus, opened through a provider
+	 *
+	 * @param provider Provider opening the device
+	 */
+	public BMP180(DeviceProvider provider){
+		this(provider, DEFAULT_BUS);
+	}
+
+	/**
+	 * Create a BMP180 on a bus, opened through a provider
+	 *
+	 * @param provider Provider opening the device
+	 * @param i2cBus The bus the sensor is connected to
+	 */
+	public BMP180(DeviceProvider provider, int i2cBus){
+		super(provider, i2cBus, BMP180_ADDR, DEFAULT_ADDRESS_BITS, DEFAULT_CLOCK);
 		uncompTemp = ByteBuffer.allocateDirect(2);
+		uncompPress = ByteBuffer.allocateDirect(3);
 		initDevice(BMPMode.STANDARD);
 	}
 
+	/**
+	 * Get the oversampling mode used for pressure readings
+	 *
+	 * @return The mode
+	 */
+	public BMPMode getMode() {
+		return mode;
+	}
+
+	/**
+	 * Set the oversampling mode used for pressure readings. This can be changed
+	 * at any time, a conversion already started completes in the mode it was
+	 * started with.
+	 *
+	 * @param mode The mode
+	 */
+	public void setMode(BMPMode mode) {
+		if (mode == null) {
+			throw new IllegalArgumentException("mode is null");
+		}
+		this.mode = mode;
+	}
+
+	/**
+	 * Start a pressure conversion in the current mode
+	 *
+	 * @return The mode of the conversion
+	 * @throws IOException If the command could not be written
+	 */
+	private BMPMode startPressureConversion() throws IOException {
+		BMPMode current = mode;
+		oss = current.getOSS();
+		writeByte(CONTROL_REGISTER, current.getCommand());
+		return current;
+	}
+
 
 	/**
 	 * This method read the calibration data common for the Temperature sensor and
 	 * Barometer sensor included in the BMP180
 	 */
 	private void initDevice(BMPMode mode) {
-		pressureCmd = mode.getCommand();
-		delay = mode.getDelay();
+		setMode(mode);
 		oss = mode.getOSS();
 		try {
-			//Small delay before starting
-			Thread.sleep(500);
+			//Start-up time of the sensor after power on
+			Thread.sleep(STARTUP_DELAY);
 			//Getting calibration data
 			gettingCalibration();
 		} catch (IOException | InterruptedException e) {
@@ -121,42 +268,41 @@ public class BMP180 extends I2CSensor implements BarometricSensor, TemperatureSe
 	 */
 	@Override
 	public double getTemparature(){
+		long start = System.nanoTime();
 		try {
 
 		// Write the read temperature command to the command register
-		write(CONTROL_REGISTER, GET_TEMP_CMD);
+		writeByte(CONTROL_REGISTER, GET_TEMP_CMD);
 
 		// Delay before reading the temperature
 		try {
-			Thread.sleep(100);
+			Thread.sleep(TEMP_DELAY);
 		} catch (InterruptedException ex) {
 		}
 
 		//Read uncompressed data
 		uncompTemp.clear();
-		int result = i2cDevice.read(TEMP_ADDR, SUB_ADDRESS_BYTES, uncompTemp);
+		int result = read(TEMP_ADDR, uncompTemp);
 		if (result < 2) {
 			LOG.warn("Not enough data for temperature read");
 		}
 
-		// Get the uncompensated temperature as a signed two byte word
-		uncompTemp.rewind();
-		byte[] data = new byte[2];
-		uncompTemp.get(data);
-		UT = ((data[0] << 8) & 0xFF00) + (data[1] & 0xFF);
-
-		// Calculate the actual temperature
-		int X1 = ((UT - AC6) * AC5) >> 15;
-		int X2 = (MC << 11) / (X1 + MD);
-		B5 = X1 + X2;
-		float celsius = (float) ((B5 + 8) >> 4) / 10;
+		// Get the uncompensated temperature as an unsigned two byte word
+		UT = uncompTemp.getShort(0) & 0xFFFF;
 
-		return celsius;
+		return calculateTemperature(UT);
+		}
+		catch(DeviceUnavailableException e){
+			LOG.debug("Temperature not read: {}", e.getMessage());
+			return -1;
 		}
 		catch(IOException e){
 			e.printStackTrace();
 			return -1;
 		}
+		finally {
+			TEMPERATURE_LATENCY.recordSince(start);
+		}
 	}
 
 	/**
@@ -166,65 +312,218 @@ public class BMP180 extends I2CSensor implements BarometricSensor, TemperatureSe
 	 */
 	@Override
 	public double getPressure(){
+		long start = System.nanoTime();
 		try{
 			// Write the read pressure command to the command register
-			write(CONTROL_REGISTER, pressureCmd);
+			BMPMode current = startPressureConversion();
 
 			// Delay before reading the pressure - use the value determined by the oversampling setting (mode)
 			try {
-				Thread.sleep(delay);
+				Thread.sleep(current.getDelay());
 			} catch (InterruptedException ex) {
 			}
 
 			// Read the uncompensated pressure value
-			ByteBuffer uncompPress = ByteBuffer.allocateDirect(3);
-			int result = i2cDevice.read(PRESS_ADDR, SUB_ADDRESS_BYTES, uncompPress);
+			uncompPress.clear();
+			int result = read(PRESS_ADDR, uncompPress);
 			if (result < 3) {
-				LOG.warn("Couldn't read all bytes, only read = " + result);
+				LOG.warn("Couldn't read all bytes, only read = {}", result);
 				return 0;
 			}
 
 			// Get the uncompensated pressure as a three byte word
-			uncompPress.rewind();
-
-			byte[] data = new byte[3];
-			uncompPress.get(data);
-
-			UP = ((((data[0] << 16) & 0xFF0000) + ((data[1] << 8) & 0xFF00) + (data[2] & 0xFF)) >> (8 - oss));
-
-			// Calculate the true pressure
-			int B6 = B5 - 4000;
-			int X1 = (B2 * (B6 * B6) >> 12) >> 11;
-			int X2 = AC2 * B6 >> 11;
-			int X3 = X1 + X2;
-			int B3 = ((((AC1 * 4) + X3) << oss) + 2) / 4;
-			X1 = AC3 * B6 >> 13;
-			X2 = (B1 * ((B6 * B6) >> 12)) >> 16;
-			X3 = ((X1 + X2) + 2) >> 2;
-			int B4 = (AC4 * (X3 + 32768)) >> 15;
-			int B7 = (UP - B3) * (50000 >> oss);
-
-			int Pa;
-			if (B7 < 0x80000000) {
-				Pa = (B7 * 2) / B4;
-			} else {
-				Pa = (B7 / B4) * 2;
-			}
+			UP = uncompensatedPressure(uncompPress);
 
-			X1 = (Pa >> 8) * (Pa >> 8);
-			X1 = (X1 * 3038) >> 16;
-			X2 = (-7357 * Pa) >> 16;
-
-			Pa += ((X1 + X2 + 3791) >> 4);
-
-			return (Pa) / 100;
+			return calculatePressure(UP) / 100.0;
 
+		}catch (DeviceUnavailableException e){
+			LOG.debug("Pressure not read: {}", e.getMessage());
+			return -1;
 		}catch (IOException e){
 			e.printStackTrace();
 			return -1;
+		}finally{
+			PRESSURE_LATENCY.recordSince(start);
 		}
 	}
 
+	/**
+	 * Get the uncompensated pressure from the three pressure register bytes at the
+	 * start of a buffer
+	 *
+	 * @param data Buffer holding the register bytes
+	 * @return The uncompensated pressure for the current oversampling setting
+	 */
+	private int uncompensatedPressure(ByteBuffer data) {
+		return ((((data.get(0) << 16) & 0xFF0000) + ((data.get(1) << 8) & 0xFF00) + (data.get(2) & 0xFF)) >> (8 - oss));
+	}
+
+	/**
+	 * Calculate the true temperature from the uncompensated temperature. This also
+	 * updates B5, which is needed for the pressure calculation.
+	 *
+	 * @param ut The uncompensated temperature
+	 * @return Temperature in Celsius
+	 */
+	private double calculateTemperature(int ut) {
+		B5 = calibration.b5(ut);
+		return BMP180Calibration.temperature(B5);
+	}
+
+	/**
+	 * Calculate the true pressure from the uncompensated pressure, using B5 from
+	 * the last temperature calculation.
+	 *
+	 * @param up The uncompensated pressure
+	 * @return Pressure in Pa
+	 */
+	private int calculatePressure(int up) {
+		return calibration.pressure(up, B5, oss);
+	}
+
+	/**
+	 * Take a temperature and pressure sample without blocking the calling thread.
+	 * The conversions are started on the device and the register reads are
+	 * scheduled on the conversion timer once the conversion time for the current
+	 * mode has passed, so a single timer thread can drive many sensors. The
+	 * callback is called on the timer thread and should return quickly.
+	 *
+	 * Only one asynchronous sample can be in progress per sensor, and it should not
+	 * be mixed with the blocking getters.
+	 *
+	 * @param callback Callback receiving the sample or the failure
+	 */
+	public void sampleAsync(SampleCallback callback) {
+		if (!sampling.compareAndSet(false, true)) {
+			callback.sampleFailed(new IOException("A conversion is already in progress"));
+			return;
+		}
+		asyncCallback = callback;
+		asyncStarted = System.nanoTime();
+		try {
+			// Write the read temperature command and read it once the conversion is done
+			writeByte(CONTROL_REGISTER, GET_TEMP_CMD);
+			getConversionTimer().schedule(temperatureReady, TEMP_CONVERSION_MICROS, TimeUnit.MICROSECONDS);
+		} catch (IOException e) {
+			failSample(e);
+		} catch (RejectedExecutionException e) {
+			failSample(new IOException("Conversion timer is shut down"));
+		} catch (RuntimeException e) {
+			failSample(new IOException("Sample failed", e));
+		}
+	}
+
+	/**
+	 * Read the converted temperature and start the pressure conversion
+	 */
+	private void onTemperatureReady() {
+		try {
+			asyncBuffer.clear();
+			asyncBuffer.limit(2);
+			int result = read(TEMP_ADDR, asyncBuffer);
+			if (result < 2) {
+				failSample(new IOException("Not enough data for temperature read"));
+				return;
+			}
+			int ut = asyncBuffer.getShort(0) & 0xFFFF;
+			UT = ut;
+			asyncTemperature = calculateTemperature(ut);
+
+			// Write the read pressure command and read it once the conversion is done
+			BMPMode current = startPressureConversion();
+			getConversionTimer().schedule(pressureReady, current.getConversionMicros(), TimeUnit.MICROSECONDS);
+		} catch (IOException e) {
+			failSample(e);
+		} catch (RejectedExecutionException e) {
+			failSample(new IOException("Conversion timer is shut down"));
+		} catch (RuntimeException e) {
+			// Anything escaping would be swallowed by the timer and leave the sample in progress forever
+			failSample(new IOException("Sample failed", e));
+		}
+	}
+
+	/**
+	 * Read the converted pressure and complete the sample
+	 */
+	private void onPressureReady() {
+		double pressure;
+		try {
+			asyncBuffer.clear();
+			int result = read(PRESS_ADDR, asyncBuffer);
+			if (result < 3) {
+				failSample(new IOException("Couldn't read all bytes, only read = " + result));
+				return;
+			}
+			int up = uncompensatedPressure(asyncBuffer);
+			UP = up;
+			pressure = calculatePressure(up) / 100.0;
+		} catch (IOException e) {
+			failSample(e);
+			return;
+		} catch (RuntimeException e) {
+			failSample(new IOException("Sample failed", e));
+			return;
+		}
+
+		SAMPLE_LATENCY.recordSince(asyncStarted);
+		SampleCallback callback = asyncCallback;
+		asyncCallback = null;
+		sampling.set(false);
+		callback.sampleComplete(asyncTemperature, pressure);
+	}
+
+	/**
+	 * End the asynchronous sample in progress with a failure
+	 *
+	 * @param cause The cause of the failure
+	 */
+	private void failSample(IOException cause) {
+		FAILED_SAMPLES.increment();
+		SampleCallback callback = asyncCallback;
+		asyncCallback = null;
+		sampling.set(false);
+		callback.sampleFailed(cause);
+	}
+
+	/**
+	 * Set the timer used to schedule the register reads of asynchronous samples.
+	 * By default a single timer thread is shared by all BMP180 instances.
+	 *
+	 * @param timer The timer to use, or null to use the shared timer
+	 */
+	public void setConversionTimer(ScheduledExecutorService timer) {
+		this.conversionTimer = timer;
+	}
+
+	/**
+	 * Get the timer for asynchronous samples
+	 *
+	 * @return The timer set for this sensor, or the shared timer
+	 */
+	private ScheduledExecutorService getConversionTimer() {
+		ScheduledExecutorService timer = conversionTimer;
+		return timer != null ? timer : getSharedTimer();
+	}
+
+	/**
+	 * Get the timer shared by all BMP180 instances, creating it on first use
+	 *
+	 * @return The shared timer
+	 */
+	private static synchronized ScheduledExecutorService getSharedTimer() {
+		if (sharedTimer == null) {
+			sharedTimer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "BMP180 conversion timer");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return sharedTimer;
+	}
+
 
 	/**
 	 * Method for reading the calibration data. Do not worry too much about this
@@ -235,47 +534,90 @@ public class BMP180 extends I2CSensor implements BarometricSensor, TemperatureSe
 	public void gettingCalibration() throws IOException {
 		// Read all of the calibration data into a byte array
 		ByteBuffer calibData = ByteBuffer.allocateDirect(CALIBRATION_BYTES);
-		int result = i2cDevice.read(EEPROM_start, SUB_ADDRESS_BYTES, calibData);
+		int result = read(EEPROM_start, calibData);
 		if (result < CALIBRATION_BYTES) {
 			LOG.warn("Not all the callibration bytes were read");
 			return;
 		}
-		// Read each of the pairs of data as a signed short
 		calibData.rewind();
-		AC1 = calibData.getShort();
-		AC2 = calibData.getShort();
-		AC3 = calibData.getShort();
-
-		// Unsigned short values
-		byte[] data = new byte[2];
-		calibData.get(data);
-		AC4 = (((data[0] << 8) & 0xFF00) + (data[1] & 0xFF));
-		calibData.get(data);
-		AC5 = (((data[0] << 8) & 0xFF00) + (data[1] & 0xFF));
-		calibData.get(data);
-		AC6 = (((data[0] << 8) & 0xFF00) + (data[1] & 0xFF));
-
-		// Signed sort values
-		B1 = calibData.getShort();
-		B2 = calibData.getShort();
-		MB = calibData.getShort();
-		MC = calibData.getShort();
-		MD = calibData.getShort();
+		calibration = BMP180Calibration.fromBlock(calibData);
 	}
 
 	/**
-	 * Relationship between Oversampling Setting and conversion delay (in ms) for each Oversampling Setting constant
-	 * Ultra low power:        4.5 ms minimum conversion delay
-	 * Standard:               7.5 ms
-	 * High Resolution:       13.5 ms
-	 * Ultra high Resolution: 25.5 ms
+	 * Read the calibration again after the device was reopened, in case the
+	 * sensor was replaced or lost power
+	 *
+	 * @throws IOException If the calibration could not be read
+	 */
+	@Override
+	protected void onReconnect() throws IOException {
+		gettingCalibration();
+	}
+
+	/**
+	 * Get the calibration read from the device, to compensate recorded
+	 * uncompensated readings later
+	 *
+	 * @return The calibration, or null if it could not be read
+	 */
+	public BMP180Calibration getCalibration() {
+		return calibration;
+	}
+
+	/**
+	 * Get the uncompensated temperature of the last temperature reading
+	 *
+	 * @return UT
+	 */
+	public int getUncompensatedTemperature() {
+		return UT;
+	}
+
+	/**
+	 * Get the uncompensated pressure of the last pressure reading, already
+	 * shifted for the oversampling setting
+	 *
+	 * @return UP
+	 */
+	public int getUncompensatedPressure() {
+		return UP;
+	}
+
+	/**
+	 * Receives the result of an asynchronous sample
+	 */
+	public interface SampleCallback {
+
+		/**
+		 * Called when the sample completed
+		 *
+		 * @param temperature Temperature in Celsius
+		 * @param pressure Pressure in hPa
+		 */
+		void sampleComplete(double temperature, double pressure);
+
+		/**
+		 * Called when the sample could not be taken
+		 *
+		 * @param cause The cause of the failure
+		 */
+		void sampleFailed(IOException cause);
+	}
+
+	/**
+	 * Relationship between Oversampling Setting, conversion delay (in ms) and RMS
+	 * pressure noise for each Oversampling Setting constant
+	 * Ultra low power:        4.5 ms minimum conversion delay, 6 Pa noise
+	 * Standard:               7.5 ms                           5 Pa
+	 * High Resolution:       13.5 ms                           4 Pa
+	 * Ultra high Resolution: 25.5 ms                           3 Pa
 	 */
 	public enum BMPMode {
 
-		ULTRA_LOW_POWER(0, 5),
-		STANDARD(1, 8),
-		HIGH_RESOLUTION(2, 14),
-		ULTRA_HIGH_RESOLUTION(3, 26);
+		ULTRA_LOW_POWER(0, 5, 4500, 6),
+		STANDARD(1, 8, 7500, 5),
+		HIGH_RESOLUTION(2, 14, 13500, 4),
+		ULTRA_HIGH_RESOLUTION(3, 26, 25500, 3);
 
 		/**
 		 * Over sample setting value
@@ -287,6 +629,16 @@ public class BMP180 extends I2CSensor implements BarometricSensor, TemperatureSe
 		 */
 		private final int delay;
 
+		/**
+		 * Conversion time in microseconds as given in the datasheet
+		 */
+		private final int conversionMicros;
+
+		/**
+		 * RMS pressure noise in Pa as given in the datasheet
+		 */
+		private final double noisePa;
+
 		/**
 		 * Read pressure command
 		 */
@@ -301,10 +653,14 @@ public class BMP180 extends I2CSensor implements BarometricSensor, TemperatureSe
 		 * Create a new instance of a BMPMode
 		 * @param oss
 		 * @param delay
+		 * @param conversionMicros
+		 * @param noisePa
 		 */
-		BMPMode(int oss, int delay) {
+		BMPMode(int oss, int delay, int conversionMicros, double noisePa) {
 			this.oss = oss;
 			this.delay = delay;
+			this.conversionMicros = conversionMicros;
+			this.noisePa = noisePa;
 			this.cmd = (byte) (GET_PRESSURE_COMMAND + ((oss << 6) & 0xC0));
 		}
 
@@ -318,6 +674,25 @@ public class BMP180 extends I2CSensor implements BarometricSensor, TemperatureSe
 			return delay;
 		}
 
+		/**
+		 * Return the conversion time (in microseconds) associated with this
+		 * oversampling setting
+		 *
+		 * @return conversion time
+		 */
+		public int getConversionMicros() {
+			return conversionMicros;
+		}
+
+		/**
+		 * Return the RMS pressure noise (in Pa) of this oversampling setting
+		 *
+		 * @return noise
+		 */
+		public double getNoisePa() {
+			return noisePa;
+		}
+
 		/**
 		 * Return the command to the control register for this oversampling setting
 		 *
@@ -0,0 +1,234 @@
+package coza.trojanc.meepsensors.i2c;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The calibration block of a BMP180 and the compensation math turning its
+ * uncompensated temperature (UT) and pressure (UP) readings into Celsius and
+ * Pascal. The calibration is immutable and the calculations keep no state, so
+ * one instance can compensate recorded readings in bulk, from any number of
+ * threads, long after they were read from the device.
+ *
+ * The results are identical to those of the {@link BMP180} driver, which uses
+ * this class for its own readings.
+ */
+public final class BMP180Calibration {
+
+	/**
+	 * Size of the calibration block in the EEPROM
+	 */
+	public static final int SIZE = 22;
+
+	private final int ac1;
+	private final int ac2;
+	private final int ac3;
+	private final int ac4;
+	private final int ac5;
+	private final int ac6;
+	private final int b1;
+	private final int b2;
+	private final int mb;
+	private final int mc;
+	private final int md;
+
+	/**
+	 * Create a calibration from the EEPROM values
+	 *
+	 * @param ac1 AC1, signed
+	 * @param ac2 AC2, signed
+	 * @param ac3 AC3, signed
+	 * @param ac4 AC4, unsigned
+	 * @param ac5 AC5, unsigned
+	 * @param ac6 AC6, unsigned
+	 * @param b1 B1, signed
+	 * @param b2 B2, signed
+	 * @param mb MB, signed
+	 * @param mc MC, signed
+	 * @param md MD, signed
+	 */
+	public BMP180Calibration(int ac1, int ac2, int ac3, int ac4, int ac5, int ac6, int b1, int b2, int mb, int mc, int md) {
+		this.ac1 = ac1;
+		this.ac2 = ac2;
+		this.ac3 = ac3;
+		this.ac4 = ac4;
+		this.ac5 = ac5;
+		this.ac6 = ac6;
+		this.b1 = b1;
+		this.b2 = b2;
+		this.mb = mb;
+		this.mc = mc;
+		this.md = md;
+	}
+
+	/**
+	 * Create a calibration from the 22 byte block read from the EEPROM at 0xAA
+	 *
+	 * @param block Buffer holding the block at its position, big endian
+	 * @return The calibration
+	 */
+	public static BMP180Calibration fromBlock(ByteBuffer block) {
+		int p = block.position();
+		return new BMP180Calibration(block.getShort(p), block.getShort(p + 2), block.getShort(p + 4),
+				block.getShort(p + 6) & 0xFFFF, block.getShort(p + 8) & 0xFFFF, block.getShort(p + 10) & 0xFFFF,
+				block.getShort(p + 12), block.getShort(p + 14), block.getShort(p + 16),
+				block.getShort(p + 18), block.getShort(p + 20));
+	}
+
+	/**
+	 * Write the calibration as the 22 byte EEPROM block, to store it with recorded readings
+	 *
+	 * @param block Buffer receiving the block at its position
+	 */
+	public void toBlock(ByteBuffer block) {
+		block.putShort((short) ac1).putShort((short) ac2).putShort((short) ac3)
+				.putShort((short) ac4).putShort((short) ac5).putShort((short) ac6)
+				.putShort((short) b1).putShort((short) b2).putShort((short) mb)
+				.putShort((short) mc).putShort((short) md);
+	}
+
+	/**
+	 * Calculate B5, the temperature term shared by the temperature and pressure
+	 *
+	 * @param ut The uncompensated temperature
+	 * @return B5
+	 */
+	public int b5(int ut) {
+		int x1 = ((ut - ac6) * ac5) >> 15;
+		int x2 = (mc << 11) / (x1 + md);
+		return x1 + x2;
+	}
+
+	/**
+	 * Calculate the temperature in 0.1 Celsius from B5
+	 *
+	 * @param b5 B5 of the temperature reading
+	 * @return Temperature in 0.1 Celsius
+	 */
+	public static int temperatureDeci(int b5) {
+		return (b5 + 8) >> 4;
+	}
+
+	/**
+	 * Calculate the temperature in Celsius from B5, rounded to float precision
+	 * like the driver
+	 *
+	 * @param b5 B5 of the temperature reading
+	 * @return Temperature in Celsius
+	 */
+	public static double temperature(int b5) {
+		return (float) temperatureDeci(b5) / 10;
+	}
+
+	/**
+	 * Calculate the pressure
+	 *
+	 * @param up The uncompensated pressure, already shifted by 8 - oss
+	 * @param b5 B5 of the temperature reading taken with the pressure
+	 * @param oss The oversampling setting the pressure was read with
+	 * @return Pressure in Pa
+	 */
+	public int pressure(int up, int b5, int oss) {
+		int b6 = b5 - 4000;
+		int x1 = (b2 * (b6 * b6) >> 12) >> 11;
+		int x2 = ac2 * b6 >> 11;
+		int x3 = x1 + x2;
+		int b3 = ((((ac1 * 4) + x3) << oss) + 2) / 4;
+		x1 = ac3 * b6 >> 13;
+		x2 = (b1 * ((b6 * b6) >> 12)) >> 16;
+		x3 = ((x1 + x2) + 2) >> 2;
+		int b4 = (ac4 * (x3 + 32768)) >> 15;
+		int b7 = (up - b3) * (50000 >> oss);
+
+		// The driver always divided first, keep its results
+		int pa = (b7 / b4) * 2;
+
+		x1 = (pa >> 8) * (pa >> 8);
+		x1 = (x1 * 3038) >> 16;
+		x2 = (-7357 * pa) >> 16;
+		return pa + ((x1 + x2 + 3791) >> 4);
+	}
+
+	/**
+	 * Compensate a range of readings to fixed point
+	 *
+	 * @param ut Uncompensated temperatures
+	 * @param up Uncompensated pressures, each read with the temperature at the same index
+	 * @param oss The oversampling setting the pressures were read with
+	 * @param offset Index of the first reading
+	 * @param length Number of readings
+	 * @param temperatureDeci Receives the temperatures in 0.1 Celsius at the same indexes
+	 * @param pressurePa Receives the pressures in Pa at the same indexes
+	 */
+	public void compensate(int[] ut, int[] up, int oss, int offset, int length, int[] temperatureDeci, int[] pressurePa) {
+		int end = offset + length;
+		for (int i = offset; i < end; i++) {
+			int b5 = b5(ut[i]);
+			temperatureDeci[i] = (b5 + 8) >> 4;
+			pressurePa[i] = pressure(up[i], b5, oss);
+		}
+	}
+
+	/**
+	 * Compensate a range of readings
+	 *
+	 * @param ut Uncompensated temperatures
+	 * @param up Uncompensated pressures, each read with the temperature at the same index
+	 * @param oss The oversampling setting the pressures were read with
+	 * @param offset Index of the first reading
+	 * @param length Number of readings
+	 * @param celsius Receives the temperatures in Celsius at the same indexes
+	 * @param hPa Receives the pressures in hPa at the same indexes
+	 */
+	public void compensate(int[] ut, int[] up, int oss, int offset, int length, double[] celsius, double[] hPa) {
+		int end = offset + length;
+		for (int i = offset; i < end; i++) {
+			int b5 = b5(ut[i]);
+			celsius[i] = (float) ((b5 + 8) >> 4) / 10;
+			hPa[i] = pressure(up[i], b5, oss) / 100.0;
+		}
+	}
+
+	/**
+	 * Compensate all readings, split into chunks run on an executor. Returns when
+	 * every chunk is done. An exception thrown by a chunk is thrown again here.
+	 *
+	 * @param ut Uncompensated temperatures
+	 * @param up Uncompensated pressures, each read with the temperature at the same index
+	 * @param oss The oversampling setting the pressures were read with
+	 * @param celsius Receives the temperatures in Celsius
+	 * @param hPa Receives the pressures in hPa
+	 * @param executor Executor running the chunks
+	 * @param chunks Number of chunks, usually the number of threads of the executor
+	 * @throws InterruptedException If interrupted while waiting for the chunks
+	 */
+	public void compensate(final int[] ut, final int[] up, final int oss, final double[] celsius, final double[] hPa,
+			Executor executor, int chunks) throws InterruptedException {
+		int length = ut.length;
+		chunks = Math.max(1, Math.min(chunks, length));
+		final CountDownLatch done = new CountDownLatch(chunks);
+		final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+		for (int chunk = 0; chunk < chunks; chunk++) {
+			final int from = (int) ((long) length * chunk / chunks);
+			final int to = (int) ((long) length * (chunk + 1) / chunks);
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						compensate(ut, up, oss, from, to - from, celsius, hPa);
+					} catch (RuntimeException e) {
+						failure.compareAndSet(null, e);
+					} finally {
+						done.countDown();
+					}
+				}
+			});
+		}
+		done.await();
+		if (failure.get() != null) {
+			throw failure.get();
+		}
+	}
+}
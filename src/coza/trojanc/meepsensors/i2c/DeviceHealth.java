@@ -0,0 +1,165 @@
+package coza.trojanc.meepsensors.i2c;
+
+import coza.trojanc.meepsensors.metrics.Counter;
+import coza.trojanc.meepsensors.metrics.MetricsRegistry;
+
+/**
+ * Health of a device on a shared bus, with a circuit breaker. After a number of
+ * consecutive failures the breaker opens and transfers fail fast, so a device
+ * that is down doesn't hold up the bus with timeouts. Once the backoff has
+ * passed a single trial is let through: if it succeeds the breaker closes,
+ * otherwise it opens again with the backoff doubled, up to a maximum.
+ *
+ * <pre>
+ * CLOSED     transfers go through, failures are counted
+ * OPEN       transfers fail fast until the backoff has passed
+ * HALF_OPEN  one trial is in progress, other transfers fail fast
+ * </pre>
+ *
+ * Instances are thread safe.
+ */
+public class DeviceHealth {
+
+	/**
+	 * Breaker states
+	 */
+	public enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	private static final Counter OPENED = MetricsRegistry.getDefault().counter("i2c.breaker.opened");
+	private static final Counter REJECTED = MetricsRegistry.getDefault().counter("i2c.breaker.rejected");
+
+	private int failureThreshold = 3;
+	private long initialBackoffMillis = 100;
+	private long maxBackoffMillis = 30000;
+
+	private State state = State.CLOSED;
+	private int consecutiveFailures;
+	private long backoffMillis;
+	private long retryAt;
+
+	/**
+	 * Set the number of consecutive failures that open the breaker
+	 *
+	 * @param failureThreshold Failures, 1 or more
+	 */
+	public synchronized void setFailureThreshold(int failureThreshold) {
+		if (failureThreshold < 1) {
+			throw new IllegalArgumentException("failureThreshold must be 1 or more");
+		}
+		this.failureThreshold = failureThreshold;
+	}
+
+	/**
+	 * Set the time the breaker stays open, doubling after every failed trial
+	 *
+	 * @param initialBackoffMillis Backoff after the breaker first opens in milliseconds
+	 * @param maxBackoffMillis Longest backoff in milliseconds
+	 */
+	public synchronized void setBackoff(long initialBackoffMillis, long maxBackoffMillis) {
+		if (initialBackoffMillis <= 0 || maxBackoffMillis < initialBackoffMillis) {
+			throw new IllegalArgumentException("Backoff must be positive and the maximum at least the initial backoff");
+		}
+		this.initialBackoffMillis = initialBackoffMillis;
+		this.maxBackoffMillis = maxBackoffMillis;
+	}
+
+	/**
+	 * Check if a transfer may go to the device. While the breaker is open this
+	 * returns false until the backoff has passed, and then true once for the trial.
+	 *
+	 * @return true if the transfer may go ahead
+	 */
+	public synchronized boolean allowRequest() {
+		switch (state) {
+			case CLOSED:
+				return true;
+			case OPEN:
+				if (System.currentTimeMillis() >= retryAt) {
+					state = State.HALF_OPEN;
+					return true;
+				}
+				break;
+			default:
+				break;
+		}
+		REJECTED.increment();
+		return false;
+	}
+
+	/**
+	 * Record a transfer that succeeded, closing the breaker
+	 *
+	 * @return true if the breaker was open or half open, so the device recovered
+	 */
+	public synchronized boolean success() {
+		boolean recovered = state != State.CLOSED;
+		state = State.CLOSED;
+		consecutiveFailures = 0;
+		backoffMillis = 0;
+		return recovered;
+	}
+
+	/**
+	 * Record a transfer that failed
+	 *
+	 * @return true if the breaker opened because of this failure
+	 */
+	public synchronized boolean failure() {
+		consecutiveFailures++;
+		if (state == State.HALF_OPEN) {
+			open(Math.min(backoffMillis * 2, maxBackoffMillis));
+			return true;
+		}
+		if (state == State.CLOSED && consecutiveFailures >= failureThreshold) {
+			open(initialBackoffMillis);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Open the breaker straight away, for example when the device could not be opened
+	 */
+	public synchronized void trip() {
+		consecutiveFailures++;
+		if (state != State.OPEN) {
+			open(state == State.HALF_OPEN ? Math.min(backoffMillis * 2, maxBackoffMillis) : initialBackoffMillis);
+		}
+	}
+
+	private void open(long backoff) {
+		state = State.OPEN;
+		backoffMillis = backoff;
+		retryAt = System.currentTimeMillis() + backoff;
+		OPENED.increment();
+	}
+
+	/**
+	 * Get the breaker state
+	 *
+	 * @return The state
+	 */
+	public synchronized State getState() {
+		return state;
+	}
+
+	/**
+	 * Get the number of failures since the last success
+	 *
+	 * @return The failure count
+	 */
+	public synchronized int getConsecutiveFailures() {
+		return consecutiveFailures;
+	}
+
+	/**
+	 * Get the time until the next trial
+	 *
+	 * @return Milliseconds until the next trial, 0 if the breaker isn't open
+	 */
+	public synchronized long getRetryDelay() {
+		return state == State.OPEN ? Math.max(0, retryAt - System.currentTimeMillis()) : 0;
+	}
+}
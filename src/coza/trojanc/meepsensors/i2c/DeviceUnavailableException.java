@@ -0,0 +1,31 @@
+package coza.trojanc.meepsensors.i2c;
+
+import java.io.IOException;
+
+/**
+ * Thrown without touching the bus while the circuit breaker of a device is open
+ * because the device kept failing
+ */
+public class DeviceUnavailableException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Constructor
+	 *
+	 * @param message The detail message
+	 */
+	public DeviceUnavailableException(String message) {
+		super(message);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param message The detail message
+	 * @param cause The failure that made the device unavailable
+	 */
+	public DeviceUnavailableException(String message, Throwable cause) {
+		super(message, cause);
+	}
+}
@@ -0,0 +1,418 @@
+package coza.trojanc.meepsensors.i2c;
+
+import coza.trojanc.meepsensors.io.RegisterDevice;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Owns access to one I2C bus. Every transaction of the attached devices has to
+ * be granted the bus first. Transactions that arrive while the bus is in use are
+ * queued, and when a transaction completes the bus is handed directly to the
+ * next queued transaction chosen by the policy, so queued transactions run back
+ * to back. The arbiter keeps statistics on utilization, queue depth and waiting
+ * time so a saturated bus can be recognised.
+ *
+ * Transactions run on the calling thread, so a device is always used by one
+ * thread at a time and each device has at most one queued transaction.
+ */
+public class I2CBusArbiter {
+
+	/**
+	 * How the next transaction is chosen from the queue
+	 */
+	public enum Policy {
+		/**
+		 * In the order the transactions were queued
+		 */
+		FIFO,
+		/**
+		 * Highest device priority first, in queue order for equal priorities
+		 */
+		PRIORITY,
+		/**
+		 * Devices take turns in the order they were attached
+		 */
+		ROUND_ROBIN
+	}
+
+	/**
+	 * Guards the arbitration state, waited on by queued transactions
+	 */
+	private final Object lock = new Object();
+
+	private final Policy policy;
+
+	/**
+	 * Attached devices, in the order they were attached
+	 */
+	private ArbitratedDevice[] devices = new ArbitratedDevice[0];
+
+	/**
+	 * Device currently granted the bus, or null if the bus is free
+	 */
+	private ArbitratedDevice owner;
+
+	/**
+	 * Device that was granted the bus last, for round robin
+	 */
+	private int lastOwnerIndex = -1;
+
+	private int queueDepth;
+	private long nextTicket;
+	private long grantedAt;
+
+	/**
+	 * Time constant of the recent wait, in nanoseconds
+	 */
+	public static final long RECENT_WAIT_WINDOW_NANOS = 1000000000L;
+
+	/**
+	 * Wait of the recent transactions, decaying with time so it follows bursts
+	 * however long the statistics have been collected, and when it was updated
+	 */
+	private double recentWaitNanos;
+	private long recentWaitUpdated = System.nanoTime();
+
+	private long statisticsStart = System.nanoTime();
+	private long transactions;
+	private long busyNanos;
+	private long waitNanos;
+	private long maxWaitNanos;
+	private int maxQueueDepth;
+
+	/**
+	 * Create an arbiter
+	 *
+	 * @param policy Policy choosing the next queued transaction
+	 */
+	public I2CBusArbiter(Policy policy) {
+		this.policy = policy;
+	}
+
+	/**
+	 * Attach a device to the bus. All transactions on the returned device are
+	 * arbitrated, and closing it detaches it again.
+	 *
+	 * @param device The device
+	 * @param priority Priority of the device for the {@link Policy#PRIORITY} policy, higher goes first
+	 * @return The arbitrated device
+	 */
+	public RegisterDevice attach(RegisterDevice device, int priority) {
+		synchronized (lock) {
+			ArbitratedDevice arbitrated = new ArbitratedDevice(device, priority, devices.length);
+			ArbitratedDevice[] updated = new ArbitratedDevice[devices.length + 1];
+			System.arraycopy(devices, 0, updated, 0, devices.length);
+			updated[devices.length] = arbitrated;
+			devices = updated;
+			return arbitrated;
+		}
+	}
+
+	/**
+	 * Remove a closed device, which is neither queued nor owning the bus
+	 */
+	private void detach(ArbitratedDevice device) {
+		synchronized (lock) {
+			int index = device.index;
+			if (index >= devices.length || devices[index] != device) {
+				return;
+			}
+			ArbitratedDevice[] updated = new ArbitratedDevice[devices.length - 1];
+			System.arraycopy(devices, 0, updated, 0, index);
+			System.arraycopy(devices, index + 1, updated, index, updated.length - index);
+			for (int i = index; i < updated.length; i++) {
+				updated[i].index = i;
+			}
+			devices = updated;
+			// Round robin carries on after the device that had the bus last
+			if (lastOwnerIndex >= index) {
+				lastOwnerIndex--;
+			}
+		}
+	}
+
+	/**
+	 * Wait until the bus is granted to a device
+	 */
+	private void acquire(ArbitratedDevice device) throws InterruptedIOException {
+		synchronized (lock) {
+			long now = System.nanoTime();
+			if (owner == null && queueDepth == 0) {
+				grant(device, now, now);
+				return;
+			}
+			device.ticket = nextTicket++;
+			device.queuedAt = now;
+			device.queued = true;
+			queueDepth++;
+			if (queueDepth > maxQueueDepth) {
+				maxQueueDepth = queueDepth;
+			}
+			try {
+				while (owner != device) {
+					lock.wait();
+				}
+			} catch (InterruptedException e) {
+				if (owner == device) {
+					// Granted meanwhile, pass the bus on
+					release(device);
+				} else {
+					device.queued = false;
+					queueDepth--;
+				}
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for the I2C bus");
+			}
+		}
+	}
+
+	/**
+	 * Release the bus and grant it to the next queued device
+	 */
+	private void release(ArbitratedDevice device) {
+		synchronized (lock) {
+			long now = System.nanoTime();
+			busyNanos += now - grantedAt;
+			transactions++;
+			owner = null;
+			if (queueDepth > 0) {
+				ArbitratedDevice next = selectNext();
+				next.queued = false;
+				queueDepth--;
+				grant(next, next.queuedAt, now);
+				lock.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Grant the bus to a device
+	 */
+	private void grant(ArbitratedDevice device, long queuedAt, long now) {
+		long waited = now - queuedAt;
+		waitNanos += waited;
+		if (waited > maxWaitNanos) {
+			maxWaitNanos = waited;
+		}
+		// The longer since the last grant, the more this wait counts
+		double weight = 1 - Math.exp(-(double) (now - recentWaitUpdated) / RECENT_WAIT_WINDOW_NANOS);
+		recentWaitNanos += weight * (waited - recentWaitNanos);
+		recentWaitUpdated = now;
+		owner = device;
+		lastOwnerIndex = device.index;
+		grantedAt = now;
+	}
+
+	/**
+	 * Choose the next queued device according to the policy
+	 */
+	private ArbitratedDevice selectNext() {
+		ArbitratedDevice next = null;
+		if (policy == Policy.ROUND_ROBIN) {
+			for (int i = 1; i <= devices.length; i++) {
+				ArbitratedDevice candidate = devices[(lastOwnerIndex + i) % devices.length];
+				if (candidate.queued) {
+					return candidate;
+				}
+			}
+		}
+		for (ArbitratedDevice candidate : devices) {
+			if (!candidate.queued) {
+				continue;
+			}
+			if (next == null
+					|| (policy == Policy.PRIORITY && candidate.priority > next.priority)
+					|| ((policy != Policy.PRIORITY || candidate.priority == next.priority) && candidate.ticket < next.ticket)) {
+				next = candidate;
+			}
+		}
+		return next;
+	}
+
+	/**
+	 * Get the number of transactions completed since the statistics were reset
+	 *
+	 * @return The transaction count
+	 */
+	public long getTransactions() {
+		synchronized (lock) {
+			return transactions;
+		}
+	}
+
+	/**
+	 * Get the fraction of time the bus was in use since the statistics were reset
+	 *
+	 * @return The utilization between 0 and 1
+	 */
+	public double getUtilization() {
+		synchronized (lock) {
+			long now = System.nanoTime();
+			long busy = busyNanos + (owner != null ? now - grantedAt : 0);
+			long elapsed = now - statisticsStart;
+			return elapsed > 0 ? (double) busy / elapsed : 0;
+		}
+	}
+
+	/**
+	 * Get the number of transactions currently waiting for the bus
+	 *
+	 * @return The queue depth
+	 */
+	public int getQueueDepth() {
+		synchronized (lock) {
+			return queueDepth;
+		}
+	}
+
+	/**
+	 * Get the largest number of transactions that waited for the bus at once
+	 *
+	 * @return The maximum queue depth
+	 */
+	public int getMaxQueueDepth() {
+		synchronized (lock) {
+			return maxQueueDepth;
+		}
+	}
+
+	/**
+	 * Get the average time transactions waited for the bus
+	 *
+	 * @return The average wait in nanoseconds
+	 */
+	public long getAverageWaitNanos() {
+		synchronized (lock) {
+			long granted = transactions + (owner != null ? 1 : 0);
+			return granted > 0 ? waitNanos / granted : 0;
+		}
+	}
+
+	/**
+	 * Get the time recent transactions waited for the bus, an average weighted
+	 * towards the last second that isn't affected by resetting the statistics
+	 *
+	 * @return The recent wait in nanoseconds
+	 */
+	public long getRecentWaitNanos() {
+		synchronized (lock) {
+			return (long) recentWaitNanos;
+		}
+	}
+
+	/**
+	 * Get the longest time a transaction waited for the bus
+	 *
+	 * @return The maximum wait in nanoseconds
+	 */
+	public long getMaxWaitNanos() {
+		synchronized (lock) {
+			return maxWaitNanos;
+		}
+	}
+
+	/**
+	 * Start collecting the statistics from scratch
+	 */
+	public void resetStatistics() {
+		synchronized (lock) {
+			long now = System.nanoTime();
+			statisticsStart = now;
+			if (owner != null) {
+				grantedAt = now;
+			}
+			transactions = 0;
+			busyNanos = 0;
+			waitNanos = 0;
+			maxWaitNanos = 0;
+			maxQueueDepth = queueDepth;
+		}
+	}
+
+	/**
+	 * A device whose transactions are arbitrated
+	 */
+	private class ArbitratedDevice implements RegisterDevice {
+
+		private final RegisterDevice device;
+		private final int priority;
+
+		/**
+		 * Position in the attached devices, guarded by the arbiter lock
+		 */
+		private int index;
+
+		/**
+		 * Set once the device is closed and detached
+		 */
+		private boolean closed;
+
+		/**
+		 * Queue state, guarded by the arbiter lock
+		 */
+		private boolean queued;
+		private long ticket;
+		private long queuedAt;
+
+		ArbitratedDevice(RegisterDevice device, int priority, int index) {
+			this.device = device;
+			this.priority = priority;
+			this.index = index;
+		}
+
+		@Override
+		public synchronized int read(int register, int registerSize, ByteBuffer dst) throws IOException {
+			checkOpen();
+			acquire(this);
+			try {
+				return device.read(register, registerSize, dst);
+			} finally {
+				release(this);
+			}
+		}
+
+		@Override
+		public synchronized int write(int register, int registerSize, ByteBuffer src) throws IOException {
+			checkOpen();
+			acquire(this);
+			try {
+				return device.write(register, registerSize, src);
+			} finally {
+				release(this);
+			}
+		}
+
+		@Override
+		public synchronized int transfer(ByteBuffer src, ByteBuffer dst) throws IOException {
+			checkOpen();
+			acquire(this);
+			try {
+				return device.transfer(src, dst);
+			} finally {
+				release(this);
+			}
+		}
+
+		/**
+		 * Closing waits for the transaction in progress, if any, since transactions
+		 * hold the device monitor
+		 */
+		@Override
+		public synchronized void close() throws IOException {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			detach(this);
+			device.close();
+		}
+
+		private void checkOpen() throws IOException {
+			if (closed) {
+				throw new IOException("Device is closed");
+			}
+		}
+	}
+}
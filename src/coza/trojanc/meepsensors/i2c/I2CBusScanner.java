@@ -0,0 +1,369 @@
+package coza.trojanc.meepsensors.i2c;
+
+import coza.trojanc.meepsensors.Logger;
+import coza.trojanc.meepsensors.io.DeviceProvider;
+import coza.trojanc.meepsensors.io.RegisterDevice;
+import coza.trojanc.meepsensors.sensors.MEEPSensor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finds the sensors connected to I2C buses without any configuration. The
+ * addresses known chips can be at are probed, and the devices that answer are
+ * identified by reading the chip ID register. The drivers of the identified chips
+ * are then created, so they are connected and initialised when they are returned.
+ *
+ * Other addresses are never probed. A register read first writes the register
+ * number, and a write-only device such as an I/O expander takes that as data.
+ *
+ * Each bus is scanned and its drivers created on a thread of its own, so a node
+ * with several buses starts up in the time of its slowest bus.
+ *
+ * <pre>
+ * I2CBusScanner scanner = new I2CBusScanner(DioDeviceProvider.getInstance());
+ * List&lt;MEEPSensor&gt; sensors = scanner.discover(1, 2);
+ * </pre>
+ */
+public class I2CBusScanner {
+
+	private static final Logger LOG = Logger.getLogger(I2CBusScanner.class);
+
+	/**
+	 * First and last address of the 7 bit range, the addresses outside are reserved
+	 */
+	public static final int FIRST_ADDRESS = 0x08;
+	public static final int LAST_ADDRESS = 0x77;
+
+	/**
+	 * Clock speed used while probing, which every device supports
+	 */
+	public static final int PROBE_CLOCK = 100000;
+
+	/**
+	 * A chip that can be identified on the bus and the driver it is used with
+	 */
+	public static abstract class Chip {
+
+		private final String name;
+		private final int idRegister;
+		private final int chipId;
+		private final int[] addresses;
+
+		/**
+		 * Create a chip
+		 *
+		 * @param name Name of the chip
+		 * @param idRegister Register holding the chip ID
+		 * @param chipId Value of the chip ID register
+		 * @param addresses Addresses the chip can be configured to
+		 */
+		public Chip(String name, int idRegister, int chipId, int... addresses) {
+			this.name = name;
+			this.idRegister = idRegister;
+			this.chipId = chipId;
+			this.addresses = addresses.clone();
+		}
+
+		/**
+		 * Get the name of the chip
+		 *
+		 * @return The name
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Get the register holding the chip ID
+		 *
+		 * @return The register
+		 */
+		public int getIdRegister() {
+			return idRegister;
+		}
+
+		/**
+		 * Get the value of the chip ID register
+		 *
+		 * @return The chip ID
+		 */
+		public int getChipId() {
+			return chipId;
+		}
+
+		/**
+		 * Check if the chip can be at an address
+		 *
+		 * @param address The address
+		 * @return true if the chip can be configured to the address
+		 */
+		public boolean hasAddress(int address) {
+			for (int candidate : addresses) {
+				if (candidate == address) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Create the driver of a chip found on a bus
+		 *
+		 * @param provider Provider opening the device
+		 * @param i2cBus Bus the chip was found on
+		 * @param address Address the chip was found at
+		 * @return The driver
+		 * @throws IOException If the driver could not be created
+		 */
+		public abstract MEEPSensor create(DeviceProvider provider, int i2cBus, int address) throws IOException;
+
+		@Override
+		public String toString() {
+			return name;
+		}
+	}
+
+	/**
+	 * A device that answered on a bus
+	 */
+	public static final class Device {
+
+		private final int i2cBus;
+		private final int address;
+		private final Chip chip;
+
+		Device(int i2cBus, int address, Chip chip) {
+			this.i2cBus = i2cBus;
+			this.address = address;
+			this.chip = chip;
+		}
+
+		/**
+		 * Get the bus the device is on
+		 *
+		 * @return The bus
+		 */
+		public int getBus() {
+			return i2cBus;
+		}
+
+		/**
+		 * Get the address of the device
+		 *
+		 * @return The address
+		 */
+		public int getAddress() {
+			return address;
+		}
+
+		/**
+		 * Get the chip the device was identified as
+		 *
+		 * @return The chip, or null if it isn't a known chip
+		 */
+		public Chip getChip() {
+			return chip;
+		}
+
+		@Override
+		public String toString() {
+			return (chip == null ? "unknown device" : chip.getName()) + " at 0x" + Integer.toHexString(address) + " on bus " + i2cBus;
+		}
+	}
+
+	private final DeviceProvider provider;
+
+	/**
+	 * Chips identified by the scanner
+	 */
+	private final List<Chip> chips = new CopyOnWriteArrayList<>();
+
+	/**
+	 * Create a scanner identifying the chips supported by this library
+	 *
+	 * @param provider Provider opening the devices, also used by the drivers created
+	 */
+	public I2CBusScanner(DeviceProvider provider) {
+		this.provider = provider;
+		chips.add(BMP180.CHIP);
+	}
+
+	/**
+	 * Add a chip to identify. Chips are tried in the order they were added, the
+	 * chips of this library first.
+	 *
+	 * @param chip The chip
+	 */
+	public void addChip(Chip chip) {
+		chips.add(chip);
+	}
+
+	/**
+	 * Probe the addresses of the known chips on a bus and identify the devices
+	 * that answer
+	 *
+	 * @param i2cBus The bus
+	 * @return The devices found, by address
+	 */
+	public List<Device> scan(int i2cBus) {
+		long started = System.nanoTime();
+		List<Device> found = new ArrayList<>();
+		ByteBuffer id = ByteBuffer.allocateDirect(1);
+		for (int address = FIRST_ADDRESS; address <= LAST_ADDRESS; address++) {
+			if (!isChipAddress(address)) {
+				continue;
+			}
+			RegisterDevice device;
+			try {
+				device = provider.openRegisterDevice(i2cBus, address, I2CSensor.DEFAULT_ADDRESS_BITS, PROBE_CLOCK);
+			} catch (IOException e) {
+				continue;
+			}
+			try {
+				Device probed = probe(device, i2cBus, address, id);
+				if (probed != null) {
+					found.add(probed);
+				}
+			} finally {
+				try {
+					device.close();
+				} catch (IOException e) {
+					LOG.debug("Failed to close the probe of address {}: {}", address, e.getMessage());
+				}
+			}
+		}
+		LOG.info("Scanned bus {}, found {}", i2cBus, found);
+		LOG.debug("Scanning bus {} took {} ms", i2cBus, (System.nanoTime() - started) / 1000000);
+		return found;
+	}
+
+	/**
+	 * Check if a known chip can be at an address
+	 */
+	private boolean isChipAddress(int address) {
+		for (Chip chip : chips) {
+			if (chip.hasAddress(address)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Read the ID register of every chip that can be at the address, to find out
+	 * if the device is there and what it is
+	 */
+	private Device probe(RegisterDevice device, int i2cBus, int address, ByteBuffer id) {
+		boolean answered = false;
+		for (Chip chip : chips) {
+			if (!chip.hasAddress(address)) {
+				continue;
+			}
+			int value = readByte(device, chip.getIdRegister(), id);
+			if (value == chip.getChipId()) {
+				return new Device(i2cBus, address, chip);
+			}
+			answered |= value >= 0;
+		}
+		return answered ? new Device(i2cBus, address, null) : null;
+	}
+
+	/**
+	 * Read one register
+	 *
+	 * @return The value, or -1 if the device didn't answer
+	 */
+	private static int readByte(RegisterDevice device, int register, ByteBuffer dst) {
+		dst.clear();
+		try {
+			if (device.read(register, 1, dst) < 1) {
+				return -1;
+			}
+		} catch (IOException e) {
+			return -1;
+		}
+		return dst.get(0) & 0xFF;
+	}
+
+	/**
+	 * Scan buses and create the drivers of the chips found. Each bus is handled
+	 * on a thread of its own. Devices that aren't a known chip and drivers that
+	 * fail to be created are logged and left out.
+	 *
+	 * @param buses The buses to scan
+	 * @return The drivers created, by bus and address
+	 * @throws InterruptedException If interrupted while waiting for the buses
+	 */
+	public List<MEEPSensor> discover(int... buses) throws InterruptedException {
+		if (buses.length == 0) {
+			return Collections.emptyList();
+		}
+		long started = System.nanoTime();
+		ExecutorService executor = Executors.newFixedThreadPool(buses.length, new ThreadFactory() {
+			private int count;
+
+			@Override
+			public synchronized Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "I2CBusScanner-" + count++);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		try {
+			List<Future<List<MEEPSensor>>> results = new ArrayList<>(buses.length);
+			for (final int i2cBus : buses) {
+				results.add(executor.submit(new Callable<List<MEEPSensor>>() {
+					@Override
+					public List<MEEPSensor> call() {
+						return createSensors(scan(i2cBus));
+					}
+				}));
+			}
+			List<MEEPSensor> sensors = new ArrayList<>();
+			for (Future<List<MEEPSensor>> result : results) {
+				try {
+					sensors.addAll(result.get());
+				} catch (ExecutionException e) {
+					LOG.severe("Failed to scan a bus", e.getCause());
+				}
+			}
+			LOG.info("Discovered {} sensors in {} ms", sensors.size(), (System.nanoTime() - started) / 1000000);
+			return sensors;
+		} finally {
+			executor.shutdownNow();
+			executor.awaitTermination(1, TimeUnit.SECONDS);
+		}
+	}
+
+	/**
+	 * Create the drivers of the known chips among the devices of a bus
+	 */
+	private List<MEEPSensor> createSensors(List<Device> devices) {
+		List<MEEPSensor> sensors = new ArrayList<>(devices.size());
+		for (Device device : devices) {
+			if (device.getChip() == null) {
+				LOG.info("Found {}", device);
+				continue;
+			}
+			try {
+				sensors.add(device.getChip().create(provider, device.getBus(), device.getAddress()));
+				LOG.info("Created driver for {}", device);
+			} catch (IOException | RuntimeException e) {
+				LOG.warn("Failed to create driver for " + device, e);
+			}
+		}
+		return sensors;
+	}
+}
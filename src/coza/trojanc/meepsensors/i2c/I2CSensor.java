@@ -1,9 +1,11 @@
 package coza.trojanc.meepsensors.i2c;
 
 import coza.trojanc.meepsensors.Logger;
-import jdk.dio.DeviceManager;
-import jdk.dio.i2cbus.I2CDevice;
-import jdk.dio.i2cbus.I2CDeviceConfig;
+import coza.trojanc.meepsensors.io.DeviceProvider;
+import coza.trojanc.meepsensors.io.RegisterDevice;
+import coza.trojanc.meepsensors.io.dio.DioDeviceProvider;
+import coza.trojanc.meepsensors.metrics.Counter;
+import coza.trojanc.meepsensors.metrics.MetricsRegistry;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -16,9 +18,48 @@ public abstract class I2CSensor {
 	private static final Logger LOG = Logger.getLogger(I2CSensor.class);
 
 	/**
-	 * Reference to the I2C device
+	 * Transfers that failed with an exception, and reads that returned fewer
+	 * bytes than asked for
 	 */
-	protected I2CDevice i2cDevice = null;             // I2C device
+	private static final Counter READ_ERRORS = MetricsRegistry.getDefault().counter("i2c.read.errors");
+	private static final Counter WRITE_ERRORS = MetricsRegistry.getDefault().counter("i2c.write.errors");
+	private static final Counter SHORT_READS = MetricsRegistry.getDefault().counter("i2c.read.short");
+	private static final Counter RECONNECTS = MetricsRegistry.getDefault().counter("i2c.reconnects");
+
+	/**
+	 * Reference to the I2C device, null while it is disconnected
+	 */
+	protected volatile RegisterDevice i2cDevice = null;             // I2C device
+
+	/**
+	 * Provider and settings the device was opened with, to open it again
+	 */
+	private DeviceProvider provider;
+	private int i2cBus;
+	private int address;
+	private int addressSizeBits;
+	private int serialClock;
+
+	/**
+	 * Health of the device, failing transfers fast while it is down
+	 */
+	private final DeviceHealth health = new DeviceHealth();
+
+	/**
+	 * Guards opening and closing the device
+	 */
+	private final Object deviceLock = new Object();
+
+	/**
+	 * Thread restoring the device state after it was opened again, its
+	 * transfers bypass the circuit breaker
+	 */
+	private volatile Thread reconnecting;
+
+	/**
+	 * Set once the sensor is closed, after which the device isn't opened again
+	 */
+	private volatile boolean closed;
 
 	/**
 	 * Default I2C Bus
@@ -70,25 +111,177 @@ public abstract class I2CSensor {
 	 * @param serialClock Clock speed
 	 */
 	public I2CSensor(int i2cBus, int address, int addressSizeBits, int serialClock) {
-		connectToDevice(i2cBus, address, addressSizeBits, serialClock);
+		this(DioDeviceProvider.getInstance(), i2cBus, address, addressSizeBits, serialClock);
+	}
+
+	/**
+	 * Constructor for the I2C sensor, opening the device through a provider.
+	 *
+	 * @param provider Provider opening the device
+	 * @param i2cBus Device bus.
+	 * @param address Device address
+	 * @param addressSizeBits I2C normally uses 7 bits addresses
+	 * @param serialClock Clock speed
+	 */
+	public I2CSensor(DeviceProvider provider, int i2cBus, int address, int addressSizeBits, int serialClock) {
+		connectToDevice(provider, i2cBus, address, addressSizeBits, serialClock);
 	}
 
 	/**
 	 * This method tries to connect to the I2C device, initializing i2cDevice
-	 * variable
+	 * variable. If the device can't be opened the circuit breaker opens and the
+	 * device is opened again once the backoff has passed.
 	 */
-	private void connectToDevice(int i2cBus, int address, int addressSizeBits, int serialClock) {
+	private void connectToDevice(DeviceProvider provider, int i2cBus, int address, int addressSizeBits, int serialClock) {
+		this.provider = provider;
+		this.i2cBus = i2cBus;
+		this.address = address;
+		this.addressSizeBits = addressSizeBits;
+		this.serialClock = serialClock;
 		bufferOut = ByteBuffer.allocateDirect(registrySize);
 		bufferIn = ByteBuffer.allocateDirect(1);
 		try {
-			I2CDeviceConfig config = new I2CDeviceConfig(i2cBus, address, addressSizeBits, serialClock);
-			i2cDevice = DeviceManager.open(config);
+			i2cDevice = provider.openRegisterDevice(i2cBus, address, addressSizeBits, serialClock);
 			LOG.info("Connected to the device OK.");
 		} catch (IOException e) {
+			health.trip();
 			LOG.warn("Exception trying to connect to device.", e);
 		}
 	}
 
+	/**
+	 * Get the health of the device
+	 *
+	 * @return The health, which also allows tuning the circuit breaker
+	 */
+	public DeviceHealth getHealth() {
+		return health;
+	}
+
+	/**
+	 * Called after the device was opened again following a failure, before the
+	 * transfer that opened it. Sensors restore the state the device lost here,
+	 * for example by reading the calibration again. Transfers made from this
+	 * method bypass the circuit breaker.
+	 *
+	 * @throws IOException If the state could not be restored
+	 */
+	protected void onReconnect() throws IOException {
+	}
+
+	/**
+	 * Get the device for a transfer, opening it again if it was disconnected
+	 *
+	 * @return The device
+	 * @throws IOException If the device is down or could not be opened
+	 */
+	private RegisterDevice device() throws IOException {
+		if (closed) {
+			throw new IOException("Device is closed");
+		}
+		RegisterDevice device = i2cDevice;
+		if (reconnecting == Thread.currentThread()) {
+			if (device == null) {
+				throw new DeviceUnavailableException(describe() + " was lost while reconnecting");
+			}
+			return device;
+		}
+		if (!health.allowRequest()) {
+			throw new DeviceUnavailableException(describe() + " is down, next retry in " + health.getRetryDelay() + " ms");
+		}
+		return device != null ? device : reconnect();
+	}
+
+	/**
+	 * Open the device again and restore its state
+	 *
+	 * @return The device
+	 * @throws IOException If the device could not be opened or restored
+	 */
+	private RegisterDevice reconnect() throws IOException {
+		synchronized (deviceLock) {
+			RegisterDevice device = i2cDevice;
+			if (device != null) {
+				return device;
+			}
+			try {
+				device = provider.openRegisterDevice(i2cBus, address, addressSizeBits, serialClock);
+			} catch (IOException e) {
+				health.trip();
+				throw new DeviceUnavailableException("Could not open " + describe() + ", next retry in "
+						+ health.getRetryDelay() + " ms", e);
+			}
+			i2cDevice = device;
+			reconnecting = Thread.currentThread();
+			try {
+				onReconnect();
+			} catch (IOException e) {
+				if (health.getState() == DeviceHealth.State.HALF_OPEN) {
+					health.failure();
+				}
+				disconnect(device);
+				throw e;
+			} finally {
+				reconnecting = null;
+			}
+			if (i2cDevice != device) {
+				throw new DeviceUnavailableException(describe() + " failed while reconnecting");
+			}
+			RECONNECTS.increment();
+			LOG.info("Reconnected to {}", describe());
+			return device;
+		}
+	}
+
+	/**
+	 * Record a transfer that succeeded
+	 */
+	private void succeeded() {
+		if (health.success()) {
+			LOG.info("{} recovered", describe());
+		}
+	}
+
+	/**
+	 * Record a transfer that failed, disconnecting the device if the circuit breaker opened
+	 *
+	 * @param device The device the transfer went to
+	 */
+	private void failed(RegisterDevice device) {
+		if (health.failure()) {
+			LOG.warn("{} is down, failing fast for {} ms", describe(), health.getRetryDelay());
+			disconnect(device);
+		}
+	}
+
+	/**
+	 * Close a device that failed, so it is opened again on the next trial
+	 *
+	 * @param device The device
+	 */
+	private void disconnect(RegisterDevice device) {
+		synchronized (deviceLock) {
+			if (i2cDevice != device) {
+				return;
+			}
+			i2cDevice = null;
+		}
+		try {
+			device.close();
+		} catch (IOException e) {
+			LOG.debug("Exception closing {}: {}", describe(), e.getMessage());
+		}
+	}
+
+	/**
+	 * Describe the device for log messages
+	 *
+	 * @return The address and bus
+	 */
+	private String describe() {
+		return "device 0x" + Integer.toHexString(address) + " on bus " + i2cBus;
+	}
+
 	/**
 	 * Writes a singe byte to a registry
 	 *
@@ -96,17 +289,30 @@ public abstract class I2CSensor {
 	 * @param byteToWrite Byte to be written
 	 */
 	public void write(int registry, byte byteToWrite) {
-		bufferOut.clear();
-		bufferOut.put(byteToWrite);
-		bufferOut.rewind();
 		try {
-			i2cDevice.write(registry, registrySize, bufferOut);
+			writeByte(registry, byteToWrite);
+		} catch (DeviceUnavailableException e) {
+			LOG.debug("Not writing registry: {}", e.getMessage());
 		} catch (IOException e) {
 			LOG.warn("Error writing registry", e);
 		}
 
 	}
 
+	/**
+	 * Writes a single byte to a registry, reporting a failure to the caller
+	 *
+	 * @param registry Registry to write
+	 * @param byteToWrite Byte to be written
+	 * @throws IOException If the byte could not be written or the device is down
+	 */
+	public void writeByte(int registry, byte byteToWrite) throws IOException {
+		bufferOut.clear();
+		bufferOut.put(byteToWrite);
+		bufferOut.rewind();
+		write(registry, bufferOut);
+	}
+
 	/**
 	 * This method reads one byte from a specified registry address. The method
 	 * checks that the byte is actually read, otherwise it'll show some messages
@@ -119,7 +325,10 @@ public abstract class I2CSensor {
 		bufferIn.clear();
 		int result = -1;
 		try {
-			result = i2cDevice.read(registry, registrySize, bufferIn);
+			result = read(registry, bufferIn);
+		} catch (DeviceUnavailableException e) {
+			LOG.debug("Not reading byte: {}", e.getMessage());
+			return 0;
 		} catch (IOException e) {
 			LOG.warn("Error reading byte", e);
 		}
@@ -132,9 +341,101 @@ public abstract class I2CSensor {
 		return 0;
 	}
 
+	/**
+	 * Reads consecutive registers in a single burst, starting at a registry
+	 * address, into a buffer supplied by the caller. Up to the remaining bytes of
+	 * the buffer are read and its position is advanced past them.
+	 *
+	 * @param registry First registry to be read
+	 * @param dst Buffer receiving the data
+	 * @return The number of bytes read
+	 * @throws IOException If there is an IO error reading the device
+	 */
+	public int read(int registry, ByteBuffer dst) throws IOException {
+		RegisterDevice device = device();
+		int wanted = dst.remaining();
+		int result;
+		try {
+			result = device.read(registry, registrySize, dst);
+		} catch (IOException e) {
+			READ_ERRORS.increment();
+			failed(device);
+			throw e;
+		}
+		if (result < wanted) {
+			SHORT_READS.increment();
+			failed(device);
+		} else {
+			succeeded();
+		}
+		return result;
+	}
+
+	/**
+	 * Writes the remaining bytes of a buffer to consecutive registers in a single
+	 * burst, starting at a registry address.
+	 *
+	 * @param registry First registry to write
+	 * @param src Buffer with the data
+	 * @return The number of bytes written
+	 * @throws IOException If there is an IO error writing the device
+	 */
+	public int write(int registry, ByteBuffer src) throws IOException {
+		RegisterDevice device = device();
+		int result;
+		try {
+			result = device.write(registry, registrySize, src);
+		} catch (IOException e) {
+			WRITE_ERRORS.increment();
+			failed(device);
+			throw e;
+		}
+		succeeded();
+		return result;
+	}
+
+	/**
+	 * Writes the remaining bytes of one buffer and reads the response into another
+	 * as a single bus operation, with a repeated start between the write and the
+	 * read.
+	 *
+	 * @param src Buffer with the data to write
+	 * @param dst Buffer receiving the response
+	 * @return The number of bytes read
+	 * @throws IOException If there is an IO error
+	 */
+	public int writeRead(ByteBuffer src, ByteBuffer dst) throws IOException {
+		RegisterDevice device = device();
+		int wanted = dst.remaining();
+		int result;
+		try {
+			result = device.transfer(src, dst);
+		} catch (IOException e) {
+			READ_ERRORS.increment();
+			failed(device);
+			throw e;
+		}
+		if (result < wanted) {
+			SHORT_READS.increment();
+			failed(device);
+		} else {
+			succeeded();
+		}
+		return result;
+	}
+
 	public void close(){
+		closed = true;
+		RegisterDevice device;
+		synchronized (deviceLock) {
+			device = i2cDevice;
+			i2cDevice = null;
+		}
+		if (device == null) {
+			return;
+		}
 		try {
-			i2cDevice.close();
+			device.close();
 		} catch (IOException e) {
 			LOG.warn("Exception trying to close I2C device");
 		}
@@ -0,0 +1,42 @@
+package coza.trojanc.meepsensors.io;
+
+import java.io.IOException;
+
+/**
+ * Opens the transports used by the sensor drivers. The default provider opens
+ * the real hardware through Device I/O, other providers can supply simulated
+ * devices so the drivers can run on any machine.
+ */
+public interface DeviceProvider {
+
+	/**
+	 * Open a device on an I2C bus
+	 *
+	 * @param i2cBus Device bus
+	 * @param address Device address
+	 * @param addressSizeBits Size of the address in bits
+	 * @param serialClock Clock speed
+	 * @return The opened device
+	 * @throws IOException If the device could not be opened
+	 */
+	public RegisterDevice openRegisterDevice(int i2cBus, int address, int addressSizeBits, int serialClock) throws IOException;
+
+	/**
+	 * Open a serial port
+	 *
+	 * @param deviceId ID of the serial device
+	 * @return The opened port
+	 * @throws IOException If the port could not be opened
+	 */
+	public SerialPort openSerialPort(int deviceId) throws IOException;
+
+	/**
+	 * Open a digital pin. The pin starts as an input.
+	 *
+	 * @param controller The GPIO controller number
+	 * @param pin The pin number
+	 * @return The opened pin
+	 * @throws IOException If the pin could not be opened
+	 */
+	public DigitalPin openDigitalPin(int controller, int pin) throws IOException;
+}
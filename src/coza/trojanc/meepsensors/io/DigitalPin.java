@@ -0,0 +1,53 @@
+package coza.trojanc.meepsensors.io;
+
+import java.io.IOException;
+
+/**
+ * A digital pin that can be switched between input and output. Timing of the
+ * signals on the pin is up to the caller, so implementations must respond to
+ * changes as soon as they are made.
+ */
+public interface DigitalPin extends AutoCloseable {
+
+	/**
+	 * Direction for reading the pin
+	 */
+	public static final int INPUT = 0;
+
+	/**
+	 * Direction for driving the pin
+	 */
+	public static final int OUTPUT = 1;
+
+	/**
+	 * Get the current level of the pin
+	 *
+	 * @return true if the pin is high
+	 * @throws IOException If there is an IO error
+	 */
+	public boolean getValue() throws IOException;
+
+	/**
+	 * Drive the pin to a level. The pin must be an output.
+	 *
+	 * @param value true to drive the pin high
+	 * @throws IOException If there is an IO error
+	 */
+	public void setValue(boolean value) throws IOException;
+
+	/**
+	 * Set the direction of the pin
+	 *
+	 * @param direction {@link #INPUT} or {@link #OUTPUT}
+	 * @throws IOException If there is an IO error
+	 */
+	public void setDirection(int direction) throws IOException;
+
+	/**
+	 * Close the pin
+	 *
+	 * @throws IOException If there is an IO error
+	 */
+	@Override
+	public void close() throws IOException;
+}
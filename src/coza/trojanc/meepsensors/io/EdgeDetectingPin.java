@@ -0,0 +1,33 @@
+package coza.trojanc.meepsensors.io;
+
+import java.io.IOException;
+
+/**
+ * A digital pin that reports level changes on its input as they happen, with
+ * the time the platform detected them. Drivers timing a waveform should use
+ * this when the pin supports it rather than polling the level.
+ */
+public interface EdgeDetectingPin extends DigitalPin {
+
+	/**
+	 * Receives the level changes of a pin
+	 */
+	public interface EdgeListener {
+
+		/**
+		 * The level of the pin changed
+		 *
+		 * @param level The new level, true for high
+		 * @param timestampNanos Time of the change in nanoseconds, only meaningful relative to other changes
+		 */
+		public void edge(boolean level, long timestampNanos);
+	}
+
+	/**
+	 * Set the listener receiving level changes while the pin is an input
+	 *
+	 * @param listener The listener, or null to stop listening
+	 * @throws IOException If there is an IO error
+	 */
+	public void setEdgeListener(EdgeListener listener) throws IOException;
+}
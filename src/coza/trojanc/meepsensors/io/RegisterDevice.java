@@ -0,0 +1,54 @@
+package coza.trojanc.meepsensors.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A device with addressable registers, such as an I2C slave. Reads and writes
+ * address a register (sub-address) on the device and transfer the remaining
+ * bytes of the given buffer.
+ */
+public interface RegisterDevice extends AutoCloseable {
+
+	/**
+	 * Read from the device starting at a register
+	 *
+	 * @param register The register to start reading at
+	 * @param registerSize Size of the register address in bytes
+	 * @param dst Buffer receiving the data, up to its remaining bytes are read
+	 * @return The number of bytes read
+	 * @throws IOException If there is an IO error
+	 */
+	public int read(int register, int registerSize, ByteBuffer dst) throws IOException;
+
+	/**
+	 * Write to the device starting at a register
+	 *
+	 * @param register The register to start writing at
+	 * @param registerSize Size of the register address in bytes
+	 * @param src Buffer with the data, all its remaining bytes are written
+	 * @return The number of bytes written
+	 * @throws IOException If there is an IO error
+	 */
+	public int write(int register, int registerSize, ByteBuffer src) throws IOException;
+
+	/**
+	 * Write to the device and read the response in a single bus transaction,
+	 * using a repeated start between the write and the read, so no other
+	 * transfer can come in between.
+	 *
+	 * @param src Buffer with the data to write, all its remaining bytes are written
+	 * @param dst Buffer receiving the response, up to its remaining bytes are read
+	 * @return The number of bytes read
+	 * @throws IOException If there is an IO error
+	 */
+	public int transfer(ByteBuffer src, ByteBuffer dst) throws IOException;
+
+	/**
+	 * Close the device
+	 *
+	 * @throws IOException If there is an IO error
+	 */
+	@Override
+	public void close() throws IOException;
+}
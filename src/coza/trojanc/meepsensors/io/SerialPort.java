@@ -0,0 +1,26 @@
+package coza.trojanc.meepsensors.io;
+
+import java.io.IOException;
+import java.nio.channels.ByteChannel;
+
+/**
+ * A byte stream serial port, such as a UART
+ */
+public interface SerialPort extends ByteChannel {
+
+	/**
+	 * Get the current baud rate
+	 *
+	 * @return The baud rate
+	 * @throws IOException If there is an IO error
+	 */
+	public int getBaudRate() throws IOException;
+
+	/**
+	 * Set the baud rate
+	 *
+	 * @param baudRate The new baud rate
+	 * @throws IOException If there is an IO error
+	 */
+	public void setBaudRate(int baudRate) throws IOException;
+}
@@ -0,0 +1,59 @@
+package coza.trojanc.meepsensors.io.dio;
+
+import coza.trojanc.meepsensors.io.DeviceProvider;
+import coza.trojanc.meepsensors.io.DigitalPin;
+import coza.trojanc.meepsensors.io.RegisterDevice;
+import coza.trojanc.meepsensors.io.SerialPort;
+import jdk.dio.DeviceManager;
+import jdk.dio.gpio.GPIOPin;
+import jdk.dio.gpio.GPIOPinConfig;
+import jdk.dio.i2cbus.I2CDevice;
+import jdk.dio.i2cbus.I2CDeviceConfig;
+import jdk.dio.uart.UART;
+
+import java.io.IOException;
+
+/**
+ * Opens the hardware through Device I/O
+ */
+public class DioDeviceProvider implements DeviceProvider {
+
+	/**
+	 * The shared instance
+	 */
+	private static final DioDeviceProvider INSTANCE = new DioDeviceProvider();
+
+	/**
+	 * Use {@link #getInstance()}
+	 */
+	private DioDeviceProvider() {
+	}
+
+	/**
+	 * Get the Device I/O provider
+	 *
+	 * @return The provider
+	 */
+	public static DioDeviceProvider getInstance() {
+		return INSTANCE;
+	}
+
+	@Override
+	public RegisterDevice openRegisterDevice(int i2cBus, int address, int addressSizeBits, int serialClock) throws IOException {
+		I2CDeviceConfig config = new I2CDeviceConfig(i2cBus, address, addressSizeBits, serialClock);
+		I2CDevice device = DeviceManager.open(config);
+		return new DioRegisterDevice(device);
+	}
+
+	@Override
+	public SerialPort openSerialPort(int deviceId) throws IOException {
+		UART uart = DeviceManager.open(deviceId);
+		return new DioSerialPort(uart);
+	}
+
+	@Override
+	public DigitalPin openDigitalPin(int controller, int pin) throws IOException {
+		GPIOPin gpioPin = DeviceManager.open(new GPIOPinConfig(controller, pin, GPIOPinConfig.DIR_BOTH_INIT_INPUT, GPIOPinConfig.DEFAULT, GPIOPinConfig.TRIGGER_BOTH_EDGES, false));
+		return new DioDigitalPin(gpioPin);
+	}
+}
@@ -0,0 +1,63 @@
+package coza.trojanc.meepsensors.io.dio;
+
+import coza.trojanc.meepsensors.io.EdgeDetectingPin;
+import jdk.dio.gpio.GPIOPin;
+import jdk.dio.gpio.PinEvent;
+import jdk.dio.gpio.PinListener;
+
+import java.io.IOException;
+
+/**
+ * Digital pin backed by a Device I/O GPIO pin. Edges are reported through a
+ * pin listener, so the pin has to be opened with a trigger on both edges.
+ */
+public class DioDigitalPin implements EdgeDetectingPin {
+
+	/**
+	 * Reference to the GPIO pin
+	 */
+	private final GPIOPin pin;
+
+	/**
+	 * Create a digital pin for an opened GPIO pin
+	 *
+	 * @param pin The GPIO pin
+	 */
+	public DioDigitalPin(GPIOPin pin) {
+		this.pin = pin;
+	}
+
+	@Override
+	public boolean getValue() throws IOException {
+		return pin.getValue();
+	}
+
+	@Override
+	public void setValue(boolean value) throws IOException {
+		pin.setValue(value);
+	}
+
+	@Override
+	public void setDirection(int direction) throws IOException {
+		pin.setDirection(direction == OUTPUT ? GPIOPin.OUTPUT : GPIOPin.INPUT);
+	}
+
+	@Override
+	public void setEdgeListener(final EdgeListener listener) throws IOException {
+		if (listener == null) {
+			pin.setInputListener(null);
+			return;
+		}
+		pin.setInputListener(new PinListener() {
+			@Override
+			public void valueChanged(PinEvent event) {
+				listener.edge(event.getValue(), event.getTimeStamp() * 1000000L + event.getTimeStampMicros() * 1000L);
+			}
+		});
+	}
+
+	@Override
+	public void close() throws IOException {
+		pin.close();
+	}
+}
@@ -0,0 +1,61 @@
+package coza.trojanc.meepsensors.io.dio;
+
+import coza.trojanc.meepsensors.io.RegisterDevice;
+import jdk.dio.i2cbus.I2CCombinedMessage;
+import jdk.dio.i2cbus.I2CDevice;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Register device backed by a Device I/O I2C device
+ */
+public class DioRegisterDevice implements RegisterDevice {
+
+	/**
+	 * Reference to the I2C device
+	 */
+	private final I2CDevice device;
+
+	/**
+	 * Create a register device for an opened I2C device
+	 *
+	 * @param device The I2C device
+	 */
+	public DioRegisterDevice(I2CDevice device) {
+		this.device = device;
+	}
+
+	/**
+	 * Get the underlying I2C device
+	 *
+	 * @return The I2C device
+	 */
+	public I2CDevice getDevice() {
+		return device;
+	}
+
+	@Override
+	public int read(int register, int registerSize, ByteBuffer dst) throws IOException {
+		return device.read(register, registerSize, dst);
+	}
+
+	@Override
+	public int write(int register, int registerSize, ByteBuffer src) throws IOException {
+		return device.write(register, registerSize, src);
+	}
+
+	@Override
+	public int transfer(ByteBuffer src, ByteBuffer dst) throws IOException {
+		I2CCombinedMessage message = device.getBus().createCombinedMessage();
+		message.appendWrite(device, src);
+		message.appendRead(device, dst);
+		int[] transferred = message.transfer();
+		return transferred[1];
+	}
+
+	@Override
+	public void close() throws IOException {
+		device.close();
+	}
+}
@@ -0,0 +1,57 @@
+package coza.trojanc.meepsensors.io.dio;
+
+import coza.trojanc.meepsensors.io.SerialPort;
+import jdk.dio.uart.UART;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Serial port backed by a Device I/O UART
+ */
+public class DioSerialPort implements SerialPort {
+
+	/**
+	 * Reference to the UART
+	 */
+	private final UART uart;
+
+	/**
+	 * Create a serial port for an opened UART
+	 *
+	 * @param uart The UART
+	 */
+	public DioSerialPort(UART uart) {
+		this.uart = uart;
+	}
+
+	@Override
+	public int getBaudRate() throws IOException {
+		return uart.getBaudRate();
+	}
+
+	@Override
+	public void setBaudRate(int baudRate) throws IOException {
+		uart.setBaudRate(baudRate);
+	}
+
+	@Override
+	public int read(ByteBuffer dst) throws IOException {
+		return uart.read(dst);
+	}
+
+	@Override
+	public int write(ByteBuffer src) throws IOException {
+		return uart.write(src);
+	}
+
+	@Override
+	public boolean isOpen() {
+		return uart.isOpen();
+	}
+
+	@Override
+	public void close() throws IOException {
+		uart.close();
+	}
+}
@@ -0,0 +1,243 @@
+package coza.trojanc.meepsensors.io.sim;
+
+import coza.trojanc.meepsensors.io.RegisterDevice;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Register map model of a BMP180. The calibration EEPROM holds the example values
+ * from the datasheet, and a temperature or pressure command written to the
+ * control register loads the uncompensated value into the output registers.
+ * With the default values the driver should calculate 15.0 C and about 699.6 hPa.
+ *
+ * Reads of the output registers before the conversion time has passed are
+ * counted, so load tests can check that the driver waits long enough.
+ *
+ * The sensor can be unplugged to test recovery: transfers then fail, and once
+ * closed the device can only be opened again after it is plugged back in.
+ */
+public class SimulatedBMP180 implements RegisterDevice, SimulatedDevice {
+
+	/**
+	 * Value of the chip ID register
+	 */
+	public static final int CHIP_ID = 0x55;
+
+	/**
+	 * Address of the chip ID register
+	 */
+	public static final int CHIP_ID_REGISTER = 0xD0;
+
+	/**
+	 * Datasheet example uncompensated temperature
+	 */
+	public static final int DATASHEET_UT = 27898;
+
+	/**
+	 * Datasheet example uncompensated pressure (oversampling setting 0)
+	 */
+	public static final int DATASHEET_UP = 23843;
+
+	private static final int EEPROM_START = 0xAA;
+	private static final int CONTROL_REGISTER = 0xF4;
+	private static final int OUT_MSB = 0xF6;
+	private static final int OUT_XLSB = 0xF8;
+	private static final int TEMP_CMD = 0x2E;
+	private static final int PRESSURE_CMD = 0x34;
+	private static final int TEMP_CONVERSION_NANOS = 4500000;
+	private static final int[] PRESSURE_CONVERSION_NANOS = {4500000, 7500000, 13500000, 25500000};
+
+	/**
+	 * Datasheet example calibration values AC1..MD
+	 */
+	private static final int[] CALIBRATION = {408, -72, -14383, 32741, 32757, 23153, 6190, 4, -32768, -8711, 2868};
+
+	/**
+	 * The register map
+	 */
+	private final byte[] registers = new byte[256];
+
+	/**
+	 * Uncompensated temperature loaded by a temperature conversion
+	 */
+	private int uncompensatedTemperature = DATASHEET_UT;
+
+	/**
+	 * Uncompensated pressure at oversampling setting 0, loaded by a pressure conversion
+	 */
+	private int uncompensatedPressure = DATASHEET_UP;
+
+	/**
+	 * Time (System.nanoTime) the current conversion completes
+	 */
+	private long conversionDone;
+
+	private long reads;
+	private long writes;
+	private long earlyReads;
+	private boolean closed;
+	private boolean connected = true;
+
+	/**
+	 * Create a simulated BMP180 with the datasheet calibration values
+	 */
+	public SimulatedBMP180() {
+		for (int i = 0; i < CALIBRATION.length; i++) {
+			registers[EEPROM_START + i * 2] = (byte) (CALIBRATION[i] >> 8);
+			registers[EEPROM_START + i * 2 + 1] = (byte) CALIBRATION[i];
+		}
+		registers[CHIP_ID_REGISTER] = (byte) CHIP_ID;
+	}
+
+	/**
+	 * Set the uncompensated temperature returned by the next temperature conversion
+	 *
+	 * @param ut The uncompensated temperature
+	 */
+	public synchronized void setUncompensatedTemperature(int ut) {
+		this.uncompensatedTemperature = ut;
+	}
+
+	/**
+	 * Set the uncompensated pressure returned by the next pressure conversion
+	 *
+	 * @param up The uncompensated pressure at oversampling setting 0
+	 */
+	public synchronized void setUncompensatedPressure(int up) {
+		this.uncompensatedPressure = up;
+	}
+
+	@Override
+	public synchronized int read(int register, int registerSize, ByteBuffer dst) throws IOException {
+		checkOpen();
+		reads++;
+		if (register <= OUT_XLSB && register + dst.remaining() > OUT_MSB && System.nanoTime() < conversionDone) {
+			earlyReads++;
+		}
+		int count = 0;
+		while (dst.hasRemaining() && register + count < registers.length) {
+			dst.put(registers[register + count]);
+			count++;
+		}
+		return count;
+	}
+
+	@Override
+	public synchronized int write(int register, int registerSize, ByteBuffer src) throws IOException {
+		checkOpen();
+		writes++;
+		int count = 0;
+		while (src.hasRemaining() && register + count < registers.length) {
+			byte value = src.get();
+			registers[register + count] = value;
+			if (register + count == CONTROL_REGISTER) {
+				startConversion(value & 0xFF);
+			}
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * The first byte written selects the register, any further bytes are written
+	 * from there, and the response is read from the selected register.
+	 */
+	@Override
+	public synchronized int transfer(ByteBuffer src, ByteBuffer dst) throws IOException {
+		checkOpen();
+		if (!src.hasRemaining()) {
+			throw new IOException("No register selected");
+		}
+		int register = src.get() & 0xFF;
+		if (src.hasRemaining()) {
+			write(register, 1, src);
+		}
+		return read(register, 1, dst);
+	}
+
+	/**
+	 * Load the output registers for a command written to the control register
+	 *
+	 * @param command The command
+	 */
+	private void startConversion(int command) {
+		if (command == TEMP_CMD) {
+			registers[OUT_MSB] = (byte) (uncompensatedTemperature >> 8);
+			registers[OUT_MSB + 1] = (byte) uncompensatedTemperature;
+			conversionDone = System.nanoTime() + TEMP_CONVERSION_NANOS;
+		} else if ((command & 0x3F) == PRESSURE_CMD) {
+			int oss = (command >> 6) & 0x03;
+			// The driver shifts the 24 bit value right by (8 - oss)
+			int raw = uncompensatedPressure << 8;
+			registers[OUT_MSB] = (byte) (raw >> 16);
+			registers[OUT_MSB + 1] = (byte) (raw >> 8);
+			registers[OUT_XLSB] = (byte) raw;
+			conversionDone = System.nanoTime() + PRESSURE_CONVERSION_NANOS[oss];
+		}
+	}
+
+	private void checkOpen() throws IOException {
+		if (closed) {
+			throw new IOException("Device is closed");
+		}
+		if (!connected) {
+			throw new IOException("Device not responding");
+		}
+	}
+
+	/**
+	 * Unplug or plug the sensor back in. While unplugged every transfer fails
+	 * and the device can't be opened.
+	 *
+	 * @param connected false to unplug the sensor
+	 */
+	public synchronized void setConnected(boolean connected) {
+		this.connected = connected;
+	}
+
+	/**
+	 * Open the device again after it was closed
+	 *
+	 * @throws IOException If the sensor is unplugged
+	 */
+	@Override
+	public synchronized void open() throws IOException {
+		if (!connected) {
+			throw new IOException("Device not responding");
+		}
+		closed = false;
+	}
+
+	/**
+	 * Get the number of register reads
+	 *
+	 * @return The read count
+	 */
+	public synchronized long getReads() {
+		return reads;
+	}
+
+	/**
+	 * Get the number of register writes
+	 *
+	 * @return The write count
+	 */
+	public synchronized long getWrites() {
+		return writes;
+	}
+
+	/**
+	 * Get the number of reads of the output registers before the conversion completed
+	 *
+	 * @return The early read count
+	 */
+	public synchronized long getEarlyReads() {
+		return earlyReads;
+	}
+
+	@Override
+	public synchronized void close() {
+		closed = true;
+	}
+}
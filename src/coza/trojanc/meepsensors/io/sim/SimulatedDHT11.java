@@ -0,0 +1,172 @@
+package coza.trojanc.meepsensors.io.sim;
+
+import coza.trojanc.meepsensors.io.DigitalPin;
+
+import java.io.IOException;
+
+/**
+ * Digital pin producing the single wire waveform of a DHT11. When the host holds
+ * the line low for at least 18ms, releases it and switches the pin to input, the
+ * level read from the pin follows the datasheet timing: an 80us low and 80us high
+ * response, then 40 bits each made of a 50us low followed by a 27us (0) or 70us
+ * (1) high, and a final 50us low. The level is calculated from the time elapsed
+ * since the line was released, so the waveform runs in real time however fast
+ * or slow the driver polls the pin.
+ */
+public class SimulatedDHT11 implements DigitalPin, SimulatedDevice {
+
+	private static final long START_SIGNAL_NANOS = 18000000L;
+	private static final long RESPONSE_DELAY_NANOS = 30000L;
+	private static final long RESPONSE_NANOS = 80000L;
+	private static final long BIT_LOW_NANOS = 50000L;
+	private static final long ZERO_HIGH_NANOS = 27000L;
+	private static final long ONE_HIGH_NANOS = 70000L;
+
+	/**
+	 * Times of the level changes relative to the release of the line. The line
+	 * is high when released and toggles at every edge.
+	 */
+	private final long[] edges = new long[84];
+
+	private int humidity = 45;
+	private int temperature = 22;
+	private boolean corruptChecksum;
+
+	private int direction = INPUT;
+	private boolean hostValue = true;
+	private long lowSince = -1;
+	private boolean startSignal;
+	private boolean transmitting;
+	private long releasedAt;
+	private int nextEdge;
+	private boolean level = true;
+	private long transmissions;
+
+	/**
+	 * Set the humidity sent in the next frame
+	 *
+	 * @param humidity Relative humidity in percent
+	 */
+	public synchronized void setHumidity(int humidity) {
+		this.humidity = humidity;
+	}
+
+	/**
+	 * Set the temperature sent in the next frame
+	 *
+	 * @param temperature Temperature in Celsius
+	 */
+	public synchronized void setTemperature(int temperature) {
+		this.temperature = temperature;
+	}
+
+	/**
+	 * Send frames with a wrong checksum
+	 *
+	 * @param corruptChecksum true to corrupt the checksum
+	 */
+	public synchronized void setCorruptChecksum(boolean corruptChecksum) {
+		this.corruptChecksum = corruptChecksum;
+	}
+
+	@Override
+	public synchronized boolean getValue() throws IOException {
+		if (direction == OUTPUT) {
+			return hostValue;
+		}
+		if (!transmitting) {
+			// Pulled up while idle
+			return true;
+		}
+		long elapsed = System.nanoTime() - releasedAt;
+		while (nextEdge < edges.length && edges[nextEdge] <= elapsed) {
+			level = !level;
+			nextEdge++;
+		}
+		if (nextEdge == edges.length) {
+			transmitting = false;
+		}
+		return level;
+	}
+
+	@Override
+	public synchronized void setValue(boolean value) throws IOException {
+		if (direction != OUTPUT) {
+			throw new IOException("Pin is not an output");
+		}
+		long now = System.nanoTime();
+		if (!value && hostValue) {
+			lowSince = now;
+		} else if (value && !hostValue) {
+			startSignal = lowSince >= 0 && now - lowSince >= START_SIGNAL_NANOS;
+			lowSince = -1;
+		}
+		hostValue = value;
+	}
+
+	@Override
+	public synchronized void setDirection(int direction) throws IOException {
+		if (direction == INPUT && this.direction == OUTPUT && startSignal) {
+			startTransmission();
+		}
+		if (direction == OUTPUT) {
+			transmitting = false;
+			hostValue = true;
+		}
+		startSignal = false;
+		this.direction = direction;
+	}
+
+	/**
+	 * Calculate the edges of a frame and start sending it
+	 */
+	private void startTransmission() {
+		int[] bytes = new int[5];
+		bytes[0] = humidity & 0xFF;
+		bytes[2] = temperature & 0xFF;
+		bytes[4] = (bytes[0] + bytes[2] + (corruptChecksum ? 1 : 0)) & 0xFF;
+
+		int edge = 0;
+		long t = RESPONSE_DELAY_NANOS;
+		edges[edge++] = t;
+		t += RESPONSE_NANOS;
+		edges[edge++] = t;
+		t += RESPONSE_NANOS;
+		edges[edge++] = t;
+		for (int i = 0; i < 40; i++) {
+			boolean one = (bytes[i / 8] & (0x80 >> (i % 8))) != 0;
+			t += BIT_LOW_NANOS;
+			edges[edge++] = t;
+			t += one ? ONE_HIGH_NANOS : ZERO_HIGH_NANOS;
+			edges[edge++] = t;
+		}
+		t += BIT_LOW_NANOS;
+		edges[edge] = t;
+
+		releasedAt = System.nanoTime();
+		nextEdge = 0;
+		level = true;
+		transmitting = true;
+		transmissions++;
+	}
+
+	/**
+	 * Get the number of frames sent
+	 *
+	 * @return The frame count
+	 */
+	public synchronized long getTransmissions() {
+		return transmissions;
+	}
+
+	/**
+	 * The pin keeps no state between opens
+	 */
+	@Override
+	public void open() {
+	}
+
+	@Override
+	public void close() {
+	}
+}
@@ -0,0 +1,18 @@
+package coza.trojanc.meepsensors.io.sim;
+
+import java.io.IOException;
+
+/**
+ * A simulated device handed out by {@link SimulatedDeviceProvider}. The same
+ * instance is handed out every time it is opened, so a device that was closed
+ * can be opened again, or refuse to be, like real hardware.
+ */
+public interface SimulatedDevice {
+
+	/**
+	 * Open the device, called by the provider every time it hands the device out
+	 *
+	 * @throws IOException If the device can't be opened
+	 */
+	public void open() throws IOException;
+}
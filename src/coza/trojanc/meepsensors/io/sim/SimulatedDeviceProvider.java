@@ -0,0 +1,111 @@
+package coza.trojanc.meepsensors.io.sim;
+
+import coza.trojanc.meepsensors.io.DeviceProvider;
+import coza.trojanc.meepsensors.io.DigitalPin;
+import coza.trojanc.meepsensors.io.RegisterDevice;
+import coza.trojanc.meepsensors.io.SerialPort;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Provider handing out simulated devices. Devices are added at the same bus and
+ * address, device ID or pin the drivers would open on real hardware. Devices
+ * implementing {@link SimulatedDevice} are opened every time they are handed out.
+ */
+public class SimulatedDeviceProvider implements DeviceProvider {
+
+	/**
+	 * Register devices keyed by bus and address
+	 */
+	private final Map<Long, RegisterDevice> registerDevices = new HashMap<>();
+
+	/**
+	 * Serial ports keyed by device ID
+	 */
+	private final Map<Integer, SerialPort> serialPorts = new HashMap<>();
+
+	/**
+	 * Digital pins keyed by controller and pin number
+	 */
+	private final Map<Long, DigitalPin> digitalPins = new HashMap<>();
+
+	/**
+	 * Add a register device at an address on a bus
+	 *
+	 * @param i2cBus The bus
+	 * @param address The device address
+	 * @param device The simulated device
+	 */
+	public synchronized void addRegisterDevice(int i2cBus, int address, RegisterDevice device) {
+		registerDevices.put(key(i2cBus, address), device);
+	}
+
+	/**
+	 * Add a serial port
+	 *
+	 * @param deviceId ID of the serial device
+	 * @param port The simulated port
+	 */
+	public synchronized void addSerialPort(int deviceId, SerialPort port) {
+		serialPorts.put(deviceId, port);
+	}
+
+	/**
+	 * Add a digital pin
+	 *
+	 * @param controller The GPIO controller number
+	 * @param pin The pin number
+	 * @param digitalPin The simulated pin
+	 */
+	public synchronized void addDigitalPin(int controller, int pin, DigitalPin digitalPin) {
+		digitalPins.put(key(controller, pin), digitalPin);
+	}
+
+	@Override
+	public synchronized RegisterDevice openRegisterDevice(int i2cBus, int address, int addressSizeBits, int serialClock) throws IOException {
+		RegisterDevice device = registerDevices.get(key(i2cBus, address));
+		if (device == null) {
+			throw new IOException("No device at address " + address + " on bus " + i2cBus);
+		}
+		open(device);
+		return device;
+	}
+
+	@Override
+	public synchronized SerialPort openSerialPort(int deviceId) throws IOException {
+		SerialPort port = serialPorts.get(deviceId);
+		if (port == null) {
+			throw new IOException("No serial device " + deviceId);
+		}
+		open(port);
+		return port;
+	}
+
+	@Override
+	public synchronized DigitalPin openDigitalPin(int controller, int pin) throws IOException {
+		DigitalPin digitalPin = digitalPins.get(key(controller, pin));
+		if (digitalPin == null) {
+			throw new IOException("No pin " + pin + " on controller " + controller);
+		}
+		open(digitalPin);
+		return digitalPin;
+	}
+
+	/**
+	 * Open a device that is being handed out, if it is a simulated device
+	 */
+	private static void open(Object device) throws IOException {
+		if (device instanceof SimulatedDevice) {
+			((SimulatedDevice) device).open();
+		}
+	}
+
+	/**
+	 * Combine two numbers into a map key
+	 */
+	private static Long key(int high, int low) {
+		return ((long) high << 32) | (low & 0xFFFFFFFFL);
+	}
+}
@@ -0,0 +1,582 @@
+package coza.trojanc.meepsensors.io.sim;
+
+import coza.trojanc.meepsensors.io.SerialPort;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Serial port producing NMEA sentences like an Adafruit GPS receiver. Every fix
+ * (epoch) produces GGA, GSA, RMC and VTG sentences and a sequence of three GSV
+ * sentences for a receiver moving along a straight track while climbing and
+ * descending, with ten satellites in view of which eight are used. The
+ * sentences are generated once when the receiver is created or reconfigured
+ * and then repeated, so reading from the simulator does not create garbage of
+ * its own.
+ *
+ * In real time mode each epoch is released at the update rate, otherwise the
+ * sentences are produced as fast as they are read. In real time mode an epoch
+ * that doesn't fit in the time between fixes at the baud rate is cut short,
+ * like a real receiver that can't keep up.
+ *
+ * The PMTK commands for the fix interval (220), the baud rate (251) and the
+ * sentence output (314) are acknowledged with PMTK001 and applied. While the
+ * port and the receiver are at different baud rates only garbage is read.
+ *
+ * The sentences are formatted by hand, since String.format and String.split
+ * aren't available on Java ME.
+ */
+public class SimulatedGpsReceiver implements SerialPort, SimulatedDevice {
+
+	/**
+	 * Number of epochs generated before the track repeats
+	 */
+	private static final int EPOCHS = 100;
+
+	/**
+	 * Satellites in view as PRN, elevation and azimuth, the first eight are used for the fix
+	 */
+	private static final int[][] SATELLITES = {
+		{4, 62, 210}, {5, 40, 75}, {9, 23, 310}, {12, 71, 15}, {17, 35, 140},
+		{24, 48, 260}, {28, 18, 95}, {30, 55, 330}, {2, 8, 180}, {19, 5, 40}
+	};
+
+	/**
+	 * Satellites used for the fix
+	 */
+	private static final int USED_SATELLITES = 8;
+
+	/**
+	 * Date of every fix, ddmmyy
+	 */
+	private static final String DATE = "280614";
+
+	private static final String HEX_DIGITS = "0123456789ABCDEF";
+
+	/**
+	 * Sentence output rates of PMTK314 that are simulated, in field order
+	 */
+	private static final int OUTPUT_RMC = 1;
+	private static final int OUTPUT_VTG = 2;
+	private static final int OUTPUT_GGA = 3;
+	private static final int OUTPUT_GSA = 4;
+	private static final int OUTPUT_GSV = 5;
+
+	/**
+	 * Number of output rate fields in PMTK314
+	 */
+	private static final int OUTPUT_FIELDS = 19;
+
+	/**
+	 * The generated sentences for all epochs
+	 */
+	private byte[] data;
+
+	/**
+	 * Offset of each epoch in data, with the end of the data as the last entry
+	 */
+	private final int[] epochOffsets = new int[EPOCHS + 1];
+
+	/**
+	 * Fixes per second
+	 */
+	private int updateRate;
+
+	/**
+	 * Output rate of each sentence in fixes, 0 for off, indexed by PMTK314 field
+	 */
+	private final int[] outputRates = new int[OUTPUT_FIELDS];
+
+	/**
+	 * Baud rate the receiver sends at
+	 */
+	private int receiverBaudRate = 9600;
+
+	/**
+	 * Acknowledgements waiting to be sent before the next epoch
+	 */
+	private final StringBuilder acknowledgements = new StringBuilder();
+	private final StringBuilder command = new StringBuilder();
+	private byte[] pending;
+	private int pendingPosition;
+
+	/**
+	 * If set, epochs are released at the update rate
+	 */
+	private volatile boolean realTime;
+
+	private int baudRate = 9600;
+	private int epoch = -1;
+	private int position;
+	private int end;
+	private long epochsRead;
+	private long rateEpochs;
+	private long startTime;
+	private long truncatedEpochs;
+	private long bytesWritten;
+	private volatile boolean open = true;
+
+	/**
+	 * Create a receiver producing fixes as fast as they are read
+	 */
+	public SimulatedGpsReceiver() {
+		this(1, false);
+	}
+
+	/**
+	 * Create a receiver
+	 *
+	 * @param updateRate Fixes per second
+	 * @param realTime true to release the fixes at the update rate
+	 */
+	public SimulatedGpsReceiver(int updateRate, boolean realTime) {
+		this.updateRate = updateRate;
+		this.realTime = realTime;
+		outputRates[OUTPUT_RMC] = 1;
+		outputRates[OUTPUT_VTG] = 1;
+		outputRates[OUTPUT_GGA] = 1;
+		outputRates[OUTPUT_GSA] = 1;
+		outputRates[OUTPUT_GSV] = 1;
+		generate();
+	}
+
+	/**
+	 * Generate the sentences of all epochs for the current update rate and output
+	 */
+	private void generate() {
+		StringBuilder sentences = new StringBuilder();
+		for (int i = 0; i < EPOCHS; i++) {
+			epochOffsets[i] = sentences.length();
+			appendEpoch(sentences, i);
+		}
+		epochOffsets[EPOCHS] = sentences.length();
+		data = sentences.toString().getBytes(StandardCharsets.US_ASCII);
+		// Continue with the next epoch
+		position = 0;
+		end = 0;
+	}
+
+	/**
+	 * Check if a sentence is sent in an epoch
+	 */
+	private boolean sends(int output, int index) {
+		int rate = outputRates[output];
+		return rate > 0 && index % rate == 0;
+	}
+
+	/**
+	 * Generate the sentences for one epoch
+	 */
+	private void appendEpoch(StringBuilder out, int index) {
+		double seconds = (double) index / updateRate;
+		int secondOfDay = 12 * 3600 + (int) seconds;
+		int time = (secondOfDay / 3600) * 10000 + (secondOfDay / 60 % 60) * 100 + secondOfDay % 60;
+		double latitudeMinutes = 55.444 + seconds * 0.001;
+		double longitudeMinutes = 25.890 + seconds * 0.0005;
+		double altitude = 545.4 + 10 * Math.sin(seconds / 10);
+		double track = 54.7;
+		double speed = 10.2 + Math.sin(seconds);
+
+		int hundredths = (index % updateRate) * 100 / updateRate;
+
+		if (sends(OUTPUT_GGA, index)) {
+			StringBuilder gga = new StringBuilder("GPGGA,");
+			appendTime(gga, time, hundredths);
+			appendFixed(gga.append(",33"), latitudeMinutes, 7, 4);
+			appendFixed(gga.append(",S,018"), longitudeMinutes, 7, 4);
+			appendFixed(gga.append(",E,1,08,0.9,"), altitude, 0, 1);
+			appendSentence(out, gga.append(",M,46.9,M,,").toString());
+		}
+		if (sends(OUTPUT_GSA, index)) {
+			appendFixStatus(out);
+		}
+		if (sends(OUTPUT_GSV, index)) {
+			appendSatellites(out, index);
+		}
+		if (sends(OUTPUT_RMC, index)) {
+			StringBuilder rmc = new StringBuilder("GPRMC,");
+			appendTime(rmc, time, hundredths);
+			appendFixed(rmc.append(",A,33"), latitudeMinutes, 7, 4);
+			appendFixed(rmc.append(",S,018"), longitudeMinutes, 7, 4);
+			appendFixed(rmc.append(",E,"), speed / 1.852, 5, 1);
+			appendFixed(rmc.append(','), track, 5, 1);
+			appendSentence(out, rmc.append(',').append(DATE).append(",,,A").toString());
+		}
+		if (sends(OUTPUT_VTG, index)) {
+			StringBuilder vtg = new StringBuilder("GPVTG,");
+			appendFixed(vtg, track, 5, 1);
+			appendFixed(vtg.append(",T,"), track - 20.3, 5, 1);
+			appendFixed(vtg.append(",M,"), speed / 1.852, 5, 1);
+			appendFixed(vtg.append(",N,"), speed, 5, 1);
+			appendSentence(out, vtg.append(",K").toString());
+		}
+	}
+
+	/**
+	 * Generate the GSA sentence, the same for every epoch
+	 */
+	private void appendFixStatus(StringBuilder out) {
+		StringBuilder gsa = new StringBuilder("GPGSA,A,3");
+		for (int i = 0; i < 12; i++) {
+			gsa.append(',');
+			if (i < USED_SATELLITES) {
+				appendPadded(gsa, SATELLITES[i][0], 2);
+			}
+		}
+		gsa.append(",1.6,0.9,1.3");
+		appendSentence(out, gsa.toString());
+	}
+
+	/**
+	 * Generate the GSV sequence for an epoch
+	 */
+	private void appendSatellites(StringBuilder out, int index) {
+		int messages = (SATELLITES.length + 3) / 4;
+		for (int message = 0; message < messages; message++) {
+			StringBuilder gsv = new StringBuilder();
+			gsv.append("GPGSV,").append(messages).append(',').append(message + 1).append(',');
+			appendPadded(gsv, SATELLITES.length, 2);
+			for (int i = message * 4; i < Math.min(SATELLITES.length, message * 4 + 4); i++) {
+				appendPadded(gsv.append(','), SATELLITES[i][0], 2);
+				appendPadded(gsv.append(','), SATELLITES[i][1], 2);
+				appendPadded(gsv.append(','), SATELLITES[i][2], 3);
+				gsv.append(',');
+				// Satellites low on the horizon aren't tracked
+				if (SATELLITES[i][1] > 10) {
+					appendPadded(gsv, 30 + SATELLITES[i][1] / 5 + (index + i) % 3, 2);
+				}
+			}
+			appendSentence(out, gsv.toString());
+		}
+	}
+
+	/**
+	 * Add the '$', checksum and line terminator to a sentence
+	 *
+	 * @param out Buffer for the sentence
+	 * @param body The sentence between the '$' and the '*'
+	 */
+	static void appendSentence(StringBuilder out, String body) {
+		int checksum = 0;
+		for (int i = 0; i < body.length(); i++) {
+			checksum ^= body.charAt(i);
+		}
+		out.append('$').append(body).append('*').append(hex(checksum)).append("\r\n");
+	}
+
+	/**
+	 * Append a time of day as hhmmss.ss
+	 */
+	private static void appendTime(StringBuilder out, int time, int hundredths) {
+		appendPadded(out, time, 6);
+		appendPadded(out.append('.'), hundredths, 2);
+	}
+
+	/**
+	 * Append a number padded with leading zeros to a width
+	 */
+	private static void appendPadded(StringBuilder out, long value, int width) {
+		String digits = Long.toString(value);
+		for (int i = digits.length(); i < width; i++) {
+			out.append('0');
+		}
+		out.append(digits);
+	}
+
+	/**
+	 * Append a positive number rounded to a number of decimals and padded with
+	 * leading zeros to a width, including the decimal point
+	 */
+	private static void appendFixed(StringBuilder out, double value, int width, int decimals) {
+		long scale = 1;
+		for (int i = 0; i < decimals; i++) {
+			scale *= 10;
+		}
+		long scaled = Math.round(value * scale);
+		appendPadded(out, scaled / scale, width - decimals - 1);
+		appendPadded(out.append('.'), scaled % scale, decimals);
+	}
+
+	/**
+	 * Format a checksum as two upper case hex digits
+	 */
+	private static String hex(int checksum) {
+		return new StringBuilder(2).append(HEX_DIGITS.charAt(checksum >> 4 & 0xF)).append(HEX_DIGITS.charAt(checksum & 0xF)).toString();
+	}
+
+	/**
+	 * Split a sentence at the commas, keeping empty fields
+	 */
+	private static String[] split(String sentence) {
+		int count = 1;
+		for (int i = 0; i < sentence.length(); i++) {
+			if (sentence.charAt(i) == ',') {
+				count++;
+			}
+		}
+		String[] fields = new String[count];
+		int start = 0;
+		for (int i = 0; i < count; i++) {
+			int end = sentence.indexOf(',', start);
+			if (end < 0) {
+				end = sentence.length();
+			}
+			fields[i] = sentence.substring(start, end);
+			start = end + 1;
+		}
+		return fields;
+	}
+
+	/**
+	 * Set if the epochs are released at the update rate
+	 *
+	 * @param realTime true for real time, false to produce fixes as fast as they are read
+	 */
+	public void setRealTime(boolean realTime) {
+		this.realTime = realTime;
+	}
+
+	@Override
+	public synchronized int read(ByteBuffer dst) throws IOException {
+		if (!open) {
+			throw new ClosedChannelException();
+		}
+		if (pending != null) {
+			int count = Math.min(dst.remaining(), pending.length - pendingPosition);
+			put(dst, pending, pendingPosition, count);
+			pendingPosition += count;
+			if (pendingPosition == pending.length) {
+				pending = null;
+			}
+			return count;
+		}
+		if (position == end) {
+			nextEpoch();
+			if (acknowledgements.length() > 0) {
+				pending = acknowledgements.toString().getBytes(StandardCharsets.US_ASCII);
+				pendingPosition = 0;
+				acknowledgements.setLength(0);
+				return read(dst);
+			}
+		}
+		int count = Math.min(dst.remaining(), end - position);
+		put(dst, data, position, count);
+		position += count;
+		return count;
+	}
+
+	/**
+	 * Copy bytes to the reader, garbled if the port and the receiver are at different baud rates
+	 */
+	private void put(ByteBuffer dst, byte[] bytes, int offset, int count) {
+		if (baudRate == receiverBaudRate) {
+			dst.put(bytes, offset, count);
+			return;
+		}
+		for (int i = offset; i < offset + count; i++) {
+			dst.put((byte) (bytes[i] ^ 0x55));
+		}
+	}
+
+	/**
+	 * Move to the next epoch, waiting for it if running in real time
+	 */
+	private void nextEpoch() throws IOException {
+		if (realTime) {
+			if (startTime == 0) {
+				startTime = System.currentTimeMillis();
+			}
+			long due = startTime + rateEpochs * 1000 / updateRate;
+			long wait = due - System.currentTimeMillis();
+			try {
+				while (wait > 0 && open) {
+					wait(wait);
+					wait = due - System.currentTimeMillis();
+				}
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException("Interrupted while waiting for the next fix");
+			}
+			if (!open) {
+				throw new ClosedChannelException();
+			}
+		}
+		epoch = (epoch + 1) % EPOCHS;
+		epochsRead++;
+		rateEpochs++;
+		position = epochOffsets[epoch];
+		end = epochOffsets[epoch + 1];
+		if (realTime) {
+			// Bytes the receiver can send between fixes, with 10 bits per byte on the wire
+			int budget = receiverBaudRate / 10 / updateRate;
+			if (end - position > budget) {
+				end = position + budget;
+				truncatedEpochs++;
+			}
+		}
+	}
+
+	@Override
+	public synchronized int write(ByteBuffer src) throws IOException {
+		if (!open) {
+			throw new ClosedChannelException();
+		}
+		int count = src.remaining();
+		while (src.hasRemaining()) {
+			char c = (char) (src.get() & 0xFF);
+			if (c == '$') {
+				command.setLength(0);
+			} else if (c == '\r' || c == '\n') {
+				if (command.length() > 0) {
+					receive(command.toString());
+					command.setLength(0);
+				}
+			} else {
+				command.append(c);
+			}
+		}
+		bytesWritten += count;
+		return count;
+	}
+
+	/**
+	 * Handle a command written to the receiver
+	 *
+	 * @param sentence The sentence between the '$' and the line terminator
+	 */
+	private void receive(String sentence) {
+		int star = sentence.indexOf('*');
+		if (!sentence.startsWith("PMTK") || star < 0) {
+			return;
+		}
+		int checksum = 0;
+		for (int i = 0; i < star; i++) {
+			checksum ^= sentence.charAt(i);
+		}
+		String[] fields = split(sentence.substring(0, star));
+		String type = fields[0].substring(4);
+		if (!sentence.substring(star + 1).equalsIgnoreCase(hex(checksum))) {
+			acknowledge(type, 0);
+			return;
+		}
+		try {
+			switch (type) {
+				case "220": {
+					int interval = Integer.parseInt(fields[1]);
+					if (interval < 100 || interval > 10000 || 1000 % interval != 0) {
+						acknowledge(type, 2);
+						return;
+					}
+					updateRate = 1000 / interval;
+					rateEpochs = 0;
+					startTime = 0;
+					generate();
+					acknowledge(type, 3);
+					return;
+				}
+				case "251":
+					// The receiver switches straight away without acknowledging
+					receiverBaudRate = Integer.parseInt(fields[1]);
+					return;
+				case "314":
+					if (fields.length != OUTPUT_FIELDS + 1) {
+						acknowledge(type, 0);
+						return;
+					}
+					for (int i = 0; i < OUTPUT_FIELDS; i++) {
+						outputRates[i] = Integer.parseInt(fields[i + 1]);
+					}
+					generate();
+					acknowledge(type, 3);
+					return;
+				default:
+					acknowledge(type, 1);
+			}
+		} catch (NumberFormatException e) {
+			acknowledge(type, 0);
+		}
+	}
+
+	/**
+	 * Queue a PMTK001 acknowledgement
+	 */
+	private void acknowledge(String type, int flag) {
+		appendSentence(acknowledgements, "PMTK001," + type + "," + flag);
+	}
+
+	/**
+	 * Get the number of epochs cut short because they didn't fit the baud rate
+	 *
+	 * @return The truncated epoch count
+	 */
+	public synchronized long getTruncatedEpochs() {
+		return truncatedEpochs;
+	}
+
+	/**
+	 * Get the baud rate the receiver sends at
+	 *
+	 * @return The baud rate
+	 */
+	public synchronized int getReceiverBaudRate() {
+		return receiverBaudRate;
+	}
+
+	/**
+	 * Get the number of fixes per second
+	 *
+	 * @return The update rate
+	 */
+	public synchronized int getUpdateRate() {
+		return updateRate;
+	}
+
+	/**
+	 * Get the number of fixes produced
+	 *
+	 * @return The number of epochs read
+	 */
+	public synchronized long getEpochsRead() {
+		return epochsRead;
+	}
+
+	/**
+	 * Get the number of bytes written to the receiver
+	 *
+	 * @return The byte count
+	 */
+	public synchronized long getBytesWritten() {
+		return bytesWritten;
+	}
+
+	@Override
+	public synchronized int getBaudRate() {
+		return baudRate;
+	}
+
+	@Override
+	public synchronized void setBaudRate(int baudRate) {
+		this.baudRate = baudRate;
+	}
+
+	/**
+	 * Open the port again after it was closed
+	 */
+	@Override
+	public synchronized void open() {
+		open = true;
+	}
+
+	@Override
+	public boolean isOpen() {
+		return open;
+	}
+
+	@Override
+	public synchronized void close() {
+		open = false;
+		notifyAll();
+	}
+}
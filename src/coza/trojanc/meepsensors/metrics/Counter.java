@@ -0,0 +1,56 @@
+package coza.trojanc.meepsensors.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A count that only goes up, such as the number of failed reads. Counters are
+ * created by a {@link MetricsRegistry} and are safe to increment from any thread.
+ */
+public class Counter {
+
+	private final String name;
+	private final AtomicLong count = new AtomicLong();
+
+	/**
+	 * Constructor
+	 *
+	 * @param name Name of the counter
+	 */
+	Counter(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Get the name of the counter
+	 *
+	 * @return The name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Add one to the count
+	 */
+	public void increment() {
+		count.incrementAndGet();
+	}
+
+	/**
+	 * Add to the count
+	 *
+	 * @param delta Amount to add
+	 */
+	public void add(long delta) {
+		count.addAndGet(delta);
+	}
+
+	/**
+	 * Get the count
+	 *
+	 * @return The count
+	 */
+	public long get() {
+		return count.get();
+	}
+}
@@ -0,0 +1,177 @@
+package coza.trojanc.meepsensors.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Distribution of durations in nanoseconds, such as the latency of a sensor
+ * read. Values are counted in log-linear buckets: every power of two is split
+ * into 8 buckets, so a percentile is within 12.5% of the recorded value. The
+ * buckets are fixed, so recording a value takes two atomic additions and
+ * doesn't allocate. The count is the sum of the buckets, worked out when it is
+ * read.
+ *
+ * Histograms are created by a {@link MetricsRegistry} and are safe to record to
+ * from any thread. The values read while other threads record are not an
+ * atomic snapshot, which is fine for monitoring.
+ */
+public class Histogram {
+
+	/**
+	 * Sub buckets per power of two, as a number of bits
+	 */
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	/**
+	 * Values below this each have their own bucket
+	 */
+	private static final int LINEAR_LIMIT = SUB_BUCKETS << 1;
+
+	private static final int BUCKETS = LINEAR_LIMIT + (63 - (SUB_BUCKET_BITS + 1)) * SUB_BUCKETS;
+
+	private final String name;
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Constructor
+	 *
+	 * @param name Name of the histogram
+	 */
+	Histogram(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Get the name of the histogram
+	 *
+	 * @return The name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Record a duration
+	 *
+	 * @param nanos The duration in nanoseconds, negative values are recorded as 0
+	 */
+	public void record(long nanos) {
+		long value = Math.max(nanos, 0);
+		buckets.incrementAndGet(bucket(value));
+		sum.addAndGet(value);
+		long current;
+		while (value > (current = max.get())) {
+			if (max.compareAndSet(current, value)) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Record the time passed since a start time
+	 *
+	 * @param startNanos Start time from {@link System#nanoTime()}
+	 */
+	public void recordSince(long startNanos) {
+		record(System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * Get the number of recorded values
+	 *
+	 * @return The count
+	 */
+	public long getCount() {
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			total += buckets.get(i);
+		}
+		return total;
+	}
+
+	/**
+	 * Get the sum of the recorded values
+	 *
+	 * @return The sum in nanoseconds
+	 */
+	public long getSum() {
+		return sum.get();
+	}
+
+	/**
+	 * Get the largest recorded value
+	 *
+	 * @return The maximum in nanoseconds, 0 if nothing was recorded
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Get the mean of the recorded values
+	 *
+	 * @return The mean in nanoseconds, 0 if nothing was recorded
+	 */
+	public double getMean() {
+		long n = getCount();
+		return n > 0 ? (double) sum.get() / n : 0;
+	}
+
+	/**
+	 * Get the value below which a percentage of the recorded values fall
+	 *
+	 * @param percentile The percentage, for example 99 for the 99th percentile
+	 * @return The highest value of the bucket holding the percentile in
+	 *         nanoseconds, 0 if nothing was recorded
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long total = getCount();
+		if (total == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(total * Math.min(percentile, 100) / 100));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += buckets.get(i);
+			if (seen >= rank) {
+				return Math.min(highestValue(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	/**
+	 * Get the bucket of a value
+	 *
+	 * @param value A value of 0 or more
+	 * @return The bucket index
+	 */
+	static int bucket(long value) {
+		if (value < LINEAR_LIMIT) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int shift = exponent - SUB_BUCKET_BITS;
+		int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+		return LINEAR_LIMIT + (shift - 1) * SUB_BUCKETS + subBucket;
+	}
+
+	/**
+	 * Get the highest value counted in a bucket
+	 *
+	 * @param bucket The bucket index
+	 * @return The highest value
+	 */
+	static long highestValue(int bucket) {
+		if (bucket < LINEAR_LIMIT) {
+			return bucket;
+		}
+		int shift = (bucket - LINEAR_LIMIT) / SUB_BUCKETS + 1;
+		long subBucket = SUB_BUCKETS + (bucket - LINEAR_LIMIT) % SUB_BUCKETS;
+		long lowest = subBucket << shift;
+		return lowest + (1L << shift) - 1;
+	}
+}
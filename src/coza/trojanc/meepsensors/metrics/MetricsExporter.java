@@ -0,0 +1,138 @@
+package coza.trojanc.meepsensors.metrics;
+
+import coza.trojanc.meepsensors.Logger;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes the metrics of a registry as text, once or periodically. Each dump
+ * starts with a comment holding the time and has one line per metric:
+ *
+ * <pre>
+ * # metrics 1403964000000
+ * counter i2c.read.short 3
+ * histogram bmp180.pressure count=120 mean=5412 p50=5119 p90=6143 p99=8020 max=8020
+ * </pre>
+ *
+ * Histogram values are in nanoseconds. The values are cumulative, so the rate
+ * of a counter is the difference between two dumps.
+ */
+public class MetricsExporter implements Closeable {
+
+	/**
+	 * A reference to a logger
+	 */
+	private static final Logger LOG = Logger.getLogger(MetricsExporter.class);
+
+	private final MetricsRegistry registry;
+	private final Appendable out;
+	private ScheduledExecutorService timer;
+	private ScheduledFuture<?> task;
+
+	/**
+	 * Create an exporter for the default registry
+	 *
+	 * @param out Destination of the dumps, for example System.out or a FileWriter
+	 */
+	public MetricsExporter(Appendable out) {
+		this(MetricsRegistry.getDefault(), out);
+	}
+
+	/**
+	 * Create an exporter
+	 *
+	 * @param registry Registry to export
+	 * @param out Destination of the dumps
+	 */
+	public MetricsExporter(MetricsRegistry registry, Appendable out) {
+		this.registry = registry;
+		this.out = out;
+	}
+
+	/**
+	 * Write the current metrics
+	 *
+	 * @throws IOException If the destination can't be written
+	 */
+	public synchronized void export() throws IOException {
+		StringBuilder dump = new StringBuilder();
+		dump.append("# metrics ").append(System.currentTimeMillis()).append('\n');
+		for (Counter counter : registry.getCounters().values()) {
+			dump.append("counter ").append(counter.getName()).append(' ').append(counter.get()).append('\n');
+		}
+		for (Histogram histogram : registry.getHistograms().values()) {
+			dump.append("histogram ").append(histogram.getName())
+					.append(" count=").append(histogram.getCount())
+					.append(" mean=").append(Math.round(histogram.getMean()))
+					.append(" p50=").append(histogram.getValueAtPercentile(50))
+					.append(" p90=").append(histogram.getValueAtPercentile(90))
+					.append(" p99=").append(histogram.getValueAtPercentile(99))
+					.append(" max=").append(histogram.getMax()).append('\n');
+		}
+		out.append(dump);
+		if (out instanceof Flushable) {
+			((Flushable) out).flush();
+		}
+	}
+
+	/**
+	 * Start writing the metrics periodically on a background thread
+	 *
+	 * @param period Time between dumps
+	 * @param unit Unit of the period
+	 */
+	public synchronized void start(long period, TimeUnit unit) {
+		if (task != null) {
+			return;
+		}
+		if (timer == null) {
+			timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "MetricsExporter");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		task = timer.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					export();
+				} catch (IOException e) {
+					LOG.warn("Exception while exporting metrics", e);
+				}
+			}
+		}, period, period, unit);
+	}
+
+	/**
+	 * Stop writing the metrics periodically
+	 */
+	public synchronized void stop() {
+		if (task != null) {
+			task.cancel(false);
+			task = null;
+		}
+	}
+
+	/**
+	 * Stop the exporter and its background thread
+	 */
+	@Override
+	public synchronized void close() {
+		stop();
+		if (timer != null) {
+			timer.shutdown();
+			timer = null;
+		}
+	}
+}
@@ -0,0 +1,87 @@
+package coza.trojanc.meepsensors.metrics;
+
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Holds the counters and latency histograms of the library by name. The
+ * drivers record to the default registry, and nothing is pushed anywhere: an
+ * exporter such as {@link MetricsExporter} pulls the current values when it
+ * wants them.
+ *
+ * Metrics are looked up once, typically into a static field, and then updated
+ * without going through the registry. All instances of a driver share its
+ * metrics, for example every BMP180 records to <code>bmp180.pressure</code>.
+ */
+public class MetricsRegistry {
+
+	private static final MetricsRegistry DEFAULT = new MetricsRegistry();
+
+	private final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+	/**
+	 * Get the registry the drivers record to
+	 *
+	 * @return The default registry
+	 */
+	public static MetricsRegistry getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * Get a counter, creating it if it doesn't exist
+	 *
+	 * @param name Name of the counter
+	 * @return The counter
+	 */
+	public Counter counter(String name) {
+		Counter counter = counters.get(name);
+		if (counter == null) {
+			Counter created = new Counter(name);
+			counter = counters.putIfAbsent(name, created);
+			if (counter == null) {
+				counter = created;
+			}
+		}
+		return counter;
+	}
+
+	/**
+	 * Get a histogram, creating it if it doesn't exist
+	 *
+	 * @param name Name of the histogram
+	 * @return The histogram
+	 */
+	public Histogram histogram(String name) {
+		Histogram histogram = histograms.get(name);
+		if (histogram == null) {
+			Histogram created = new Histogram(name);
+			histogram = histograms.putIfAbsent(name, created);
+			if (histogram == null) {
+				histogram = created;
+			}
+		}
+		return histogram;
+	}
+
+	/**
+	 * Get all counters
+	 *
+	 * @return The counters sorted by name
+	 */
+	public SortedMap<String, Counter> getCounters() {
+		return new TreeMap<>(counters);
+	}
+
+	/**
+	 * Get all histograms
+	 *
+	 * @return The histograms sorted by name
+	 */
+	public SortedMap<String, Histogram> getHistograms() {
+		return new TreeMap<>(histograms);
+	}
+}
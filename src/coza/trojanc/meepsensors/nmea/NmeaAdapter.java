@@ -0,0 +1,33 @@
+package coza.trojanc.meepsensors.nmea;
+
+import coza.trojanc.meepsensors.sensors.data.FixStatus;
+import coza.trojanc.meepsensors.sensors.data.FixTime;
+import coza.trojanc.meepsensors.sensors.data.ReadablePosition;
+import coza.trojanc.meepsensors.sensors.data.ReadableVelocity;
+import coza.trojanc.meepsensors.sensors.data.SatellitesInView;
+
+/**
+ * Listener with empty methods, override the ones of interest
+ */
+public abstract class NmeaAdapter implements NmeaListener {
+
+	@Override
+	public void position(ReadablePosition position) {
+	}
+
+	@Override
+	public void velocity(ReadableVelocity velocity) {
+	}
+
+	@Override
+	public void fixTime(FixTime fixTime) {
+	}
+
+	@Override
+	public void fixStatus(FixStatus fixStatus) {
+	}
+
+	@Override
+	public void satellites(SatellitesInView satellites) {
+	}
+}
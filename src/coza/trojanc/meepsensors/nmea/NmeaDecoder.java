@@ -0,0 +1,231 @@
+package coza.trojanc.meepsensors.nmea;
+
+import coza.trojanc.meepsensors.Logger;
+import coza.trojanc.meepsensors.sensors.data.FixStatus;
+import coza.trojanc.meepsensors.sensors.data.FixTime;
+import coza.trojanc.meepsensors.sensors.data.MutablePosition;
+import coza.trojanc.meepsensors.sensors.data.MutableVelocity;
+import coza.trojanc.meepsensors.sensors.data.Position;
+import coza.trojanc.meepsensors.sensors.data.Velocity;
+
+/**
+ * Decodes the sentences of a GPS receiver from the current sentence of a
+ * {@link NmeaParser}. Shared by the live sensor and the replay of recorded
+ * captures, so both produce the same readings. The GSV satellites span several
+ * sentences and are collected by {@link NmeaDispatcher}.
+ */
+public final class NmeaDecoder {
+
+	/**
+	 * A reference to a logger
+	 */
+	private static final Logger LOG = Logger.getLogger(NmeaDecoder.class);
+
+	/**
+	 * ID for the Position response
+	 */
+	public static final byte[] POSITION_TAG = NmeaParser.tag("GPGGA");
+
+	/**
+	 * ID for the velocity response
+	 */
+	public static final byte[] VELOCITY_TAG = NmeaParser.tag("GPVTG");
+
+	private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+	/**
+	 * Number of satellite fields in a GSA sentence
+	 */
+	private static final int GSA_SATELLITES = 12;
+
+	private NmeaDecoder() {
+	}
+
+	/**
+	 * Decode the position from the current GGA sentence in the parser
+	 *
+	 * @param parser Parser positioned on a GGA sentence
+	 * @param timeStamp Time stamp for the reading, in seconds from the epoch
+	 * @return The position, or null if the sentence is not valid
+	 */
+	public static Position decodePosition(NmeaParser parser, long timeStamp) {
+		MutablePosition position = new MutablePosition();
+		return decodePosition(parser, timeStamp, position) ? position.toPosition() : null;
+	}
+
+	/**
+	 * Decode the position from the current GGA sentence in the parser into a
+	 * holder, without creating any objects
+	 *
+	 * @param parser Parser positioned on a GGA sentence
+	 * @param timeStamp Time stamp for the reading, in seconds from the epoch
+	 * @param into Holder to fill, left unchanged if the sentence is not valid
+	 * @return true if the sentence is valid
+	 */
+	public static boolean decodePosition(NmeaParser parser, long timeStamp, MutablePosition into) {
+		/*
+		 * The position data must have 10 fields to it to be valid, so reject the
+		 * data if we don't have the correct number
+		 */
+		if (parser.getFieldCount() < 10) {
+			LOG.warn("Incorrect position field count");
+			return false;
+		}
+
+		/*
+		 * Parse the relevant fields into values that we can use to fill the
+		 * position.
+		 */
+		double latitude = parser.getDouble(1) / 100;
+		char latitudeDirection = parser.getChar(2);
+		if (Double.isNaN(latitude)) {
+			LOG.warn("Badly formatted latitude number");
+			return false;
+		}
+
+		double longitude = parser.getDouble(3) / 100;
+		char longitudeDirection = parser.getChar(4);
+		if (Double.isNaN(longitude)) {
+			LOG.warn("Badly formatted longitude number");
+			return false;
+		}
+
+		double altitude = parser.getDouble(8);
+		if (Double.isNaN(altitude)) {
+			LOG.warn("Badly formatted altitude number");
+			return false;
+		}
+
+		into.set(timeStamp, latitude, latitudeDirection, longitude, longitudeDirection, altitude);
+		return true;
+	}
+
+	/**
+	 * Decode the velocity from the current VTG sentence in the parser
+	 *
+	 * @param parser Parser positioned on a VTG sentence
+	 * @param timeStamp Time stamp for the reading, in seconds from the epoch
+	 * @return The velocity, or null if the sentence is not valid
+	 */
+	public static Velocity decodeVelocity(NmeaParser parser, long timeStamp) {
+		MutableVelocity velocity = new MutableVelocity();
+		return decodeVelocity(parser, timeStamp, velocity) ? velocity.toVelocity() : null;
+	}
+
+	/**
+	 * Decode the velocity from the current VTG sentence in the parser into a
+	 * holder, without creating any objects
+	 *
+	 * @param parser Parser positioned on a VTG sentence
+	 * @param timeStamp Time stamp for the reading, in seconds from the epoch
+	 * @param into Holder to fill, left unchanged if the sentence is not valid
+	 * @return true if the sentence is valid
+	 */
+	public static boolean decodeVelocity(NmeaParser parser, long timeStamp, MutableVelocity into) {
+		int fieldCount = parser.getFieldCount();
+
+		if (fieldCount < 8) {
+			LOG.warn("Incorrect velocity field count, expected 8 got {}", fieldCount);
+			return false;
+		}
+
+		// Extract the track and velocity of the GPS receiver
+		double track = parser.getDouble(0);
+		if (Double.isNaN(track)) {
+			LOG.warn("Badly formatted track number");
+			return false;
+		}
+
+		double speed = parser.getDouble(6);
+		if (Double.isNaN(speed)) {
+			LOG.warn("Badly formatted speed number");
+			return false;
+		}
+
+		into.set(timeStamp, track, speed);
+		return true;
+	}
+
+	/**
+	 * Decode the UTC date and time from the current RMC sentence in the parser
+	 *
+	 * @param parser Parser positioned on an RMC sentence
+	 * @param timeStamp Time stamp for the reading, in seconds from the epoch
+	 * @return The fix time, or null if the sentence is not valid
+	 */
+	public static FixTime decodeFixTime(NmeaParser parser, long timeStamp) {
+		if (parser.getFieldCount() < 9) {
+			LOG.warn("Incorrect RMC field count");
+			return null;
+		}
+		int timeOfDay = parser.getTimeOfDay(0);
+		if (timeOfDay < 0) {
+			LOG.warn("Badly formatted RMC time");
+			return null;
+		}
+		// The date is ddmmyy
+		int date = parser.getInt(8, -1);
+		int day = date / 10000;
+		int month = date / 100 % 100;
+		int year = date % 100;
+		if (date < 0 || day < 1 || day > 31 || month < 1 || month > 12) {
+			LOG.warn("Badly formatted RMC date");
+			return null;
+		}
+		year += year < 80 ? 2000 : 1900;
+		long utcMillis = daysFromEpoch(year, month, day) * MILLIS_PER_DAY + timeOfDay;
+		return new FixTime(timeStamp, utcMillis, parser.getChar(1) == 'A');
+	}
+
+	/**
+	 * Decode the fix type, dilution of precision and satellites used from the
+	 * current GSA sentence in the parser
+	 *
+	 * @param parser Parser positioned on a GSA sentence
+	 * @param timeStamp Time stamp for the reading, in seconds from the epoch
+	 * @return The fix status, or null if the sentence is not valid
+	 */
+	public static FixStatus decodeFixStatus(NmeaParser parser, long timeStamp) {
+		if (parser.getFieldCount() < 3 + GSA_SATELLITES + 2) {
+			LOG.warn("Incorrect GSA field count");
+			return null;
+		}
+		int fixType = parser.getInt(1, -1);
+		if (fixType < FixStatus.FIX_NONE || fixType > FixStatus.FIX_3D) {
+			LOG.warn("Badly formatted fix type");
+			return null;
+		}
+		int used = 0;
+		for (int i = 2; i < 2 + GSA_SATELLITES; i++) {
+			if (!parser.isEmpty(i)) {
+				used++;
+			}
+		}
+		int[] satellites = new int[used];
+		used = 0;
+		for (int i = 2; i < 2 + GSA_SATELLITES; i++) {
+			if (!parser.isEmpty(i)) {
+				satellites[used++] = parser.getInt(i, 0);
+			}
+		}
+		return new FixStatus(timeStamp, fixType, satellites, parser.getDouble(14), parser.getDouble(15), parser.getDouble(16));
+	}
+
+	/**
+	 * Number of days from 1970-01-01 to a date in the proleptic Gregorian calendar
+	 *
+	 * @param year The year
+	 * @param month The month, 1 to 12
+	 * @param day The day of the month
+	 * @return The day number
+	 */
+	static long daysFromEpoch(int year, int month, int day) {
+		// Count from March so the leap day is the last day of the year
+		int y = month <= 2 ? year - 1 : year;
+		int era = y / 400;
+		int yearOfEra = y - era * 400;
+		int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+		int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		return era * 146097L + dayOfEra - 719468;
+	}
+}
@@ -0,0 +1,198 @@
+package coza.trojanc.meepsensors.nmea;
+
+import coza.trojanc.meepsensors.Logger;
+import coza.trojanc.meepsensors.sensors.data.FixStatus;
+import coza.trojanc.meepsensors.sensors.data.FixTime;
+import coza.trojanc.meepsensors.sensors.data.MutablePosition;
+import coza.trojanc.meepsensors.sensors.data.MutableVelocity;
+import coza.trojanc.meepsensors.sensors.data.SatellitesInView;
+
+/**
+ * Routes every sentence of an NMEA stream to the decoder for its type in a
+ * single pass, so one read of the receiver yields all the data it sent:
+ *
+ * <pre>
+ * GGA  position
+ * VTG  velocity
+ * RMC  UTC date and time
+ * GSA  fix type, dilution of precision and satellites used
+ * GSV  satellites in view, collected over the sentences of a sequence
+ * </pre>
+ *
+ * Sentences are matched on their type from any talker, so a multi-constellation
+ * receiver sending GNGGA is handled like GPGGA. Other sentences are counted and
+ * skipped.
+ *
+ * Positions and velocities are decoded into holders owned by the dispatcher,
+ * so the GGA and VTG sentences are decoded without creating any objects.
+ *
+ * Instances are not thread safe.
+ */
+public class NmeaDispatcher {
+
+	/**
+	 * A reference to a logger
+	 */
+	private static final Logger LOG = Logger.getLogger(NmeaDispatcher.class);
+
+	private static final int GGA = 'G' << 16 | 'G' << 8 | 'A';
+	private static final int VTG = 'V' << 16 | 'T' << 8 | 'G';
+	private static final int RMC = 'R' << 16 | 'M' << 8 | 'C';
+	private static final int GSA = 'G' << 16 | 'S' << 8 | 'A';
+	private static final int GSV = 'G' << 16 | 'S' << 8 | 'V';
+
+	/**
+	 * Most satellites collected from a GSV sequence
+	 */
+	public static final int MAX_SATELLITES = 64;
+
+	private final NmeaListener listener;
+
+	// Reused for every GGA and VTG sentence
+	private final MutablePosition position = new MutablePosition();
+	private final MutableVelocity velocity = new MutableVelocity();
+
+	// GSV sequence being collected
+	private final int[] prn = new int[MAX_SATELLITES];
+	private final int[] elevation = new int[MAX_SATELLITES];
+	private final int[] azimuth = new int[MAX_SATELLITES];
+	private final int[] snr = new int[MAX_SATELLITES];
+	private int satelliteCount;
+	private int nextMessage = -1;
+	private int sequenceTalker;
+
+	private long dispatched;
+	private long skipped;
+	private long invalid;
+
+	/**
+	 * Create a dispatcher
+	 *
+	 * @param listener Listener receiving the decoded data
+	 */
+	public NmeaDispatcher(NmeaListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Decode the current sentence of a parser and pass the result to the listener
+	 *
+	 * @param parser Parser positioned on a sentence
+	 * @param timeStamp Time stamp for the readings, in seconds from the epoch
+	 * @return true if the sentence type is handled
+	 */
+	public boolean dispatch(NmeaParser parser, long timeStamp) {
+		switch (parser.getSentenceType()) {
+			case GGA:
+				if (NmeaDecoder.decodePosition(parser, timeStamp, position)) {
+					listener.position(position);
+				} else {
+					invalid++;
+				}
+				break;
+			case VTG:
+				if (NmeaDecoder.decodeVelocity(parser, timeStamp, velocity)) {
+					listener.velocity(velocity);
+				} else {
+					invalid++;
+				}
+				break;
+			case RMC: {
+				FixTime fixTime = NmeaDecoder.decodeFixTime(parser, timeStamp);
+				if (fixTime != null) {
+					listener.fixTime(fixTime);
+				} else {
+					invalid++;
+				}
+				break;
+			}
+			case GSA: {
+				FixStatus fixStatus = NmeaDecoder.decodeFixStatus(parser, timeStamp);
+				if (fixStatus != null) {
+					listener.fixStatus(fixStatus);
+				} else {
+					invalid++;
+				}
+				break;
+			}
+			case GSV:
+				collectSatellites(parser, timeStamp);
+				break;
+			default:
+				skipped++;
+				return false;
+		}
+		dispatched++;
+		return true;
+	}
+
+	/**
+	 * Add the satellites of a GSV sentence to the sequence, passing them on after
+	 * the last sentence. A sequence with a missing sentence is dropped.
+	 */
+	private void collectSatellites(NmeaParser parser, long timeStamp) {
+		int total = parser.getInt(0, -1);
+		int message = parser.getInt(1, -1);
+		if (total < 1 || message < 1 || message > total) {
+			LOG.warn("Badly formatted GSV sequence numbers");
+			invalid++;
+			nextMessage = -1;
+			return;
+		}
+		if (message == 1) {
+			satelliteCount = 0;
+			sequenceTalker = parser.getTalker();
+		} else if (message != nextMessage || parser.getTalker() != sequenceTalker) {
+			// Lost a sentence of the sequence, wait for the next one to start
+			invalid++;
+			nextMessage = -1;
+			return;
+		}
+
+		// Groups of PRN, elevation, azimuth and SNR follow the satellite count
+		for (int field = 3; field + 3 < parser.getFieldCount() && satelliteCount < MAX_SATELLITES; field += 4) {
+			if (parser.isEmpty(field)) {
+				continue;
+			}
+			prn[satelliteCount] = parser.getInt(field, 0);
+			elevation[satelliteCount] = parser.getInt(field + 1, -1);
+			azimuth[satelliteCount] = parser.getInt(field + 2, -1);
+			snr[satelliteCount] = parser.getInt(field + 3, -1);
+			satelliteCount++;
+		}
+
+		if (message == total) {
+			nextMessage = -1;
+			listener.satellites(new SatellitesInView(timeStamp, satelliteCount, prn, elevation, azimuth, snr));
+		} else {
+			nextMessage = message + 1;
+		}
+	}
+
+	/**
+	 * Get the number of sentences of a handled type
+	 *
+	 * @return The dispatched count
+	 */
+	public long getDispatched() {
+		return dispatched;
+	}
+
+	/**
+	 * Get the number of sentences of a type that isn't handled
+	 *
+	 * @return The skipped count
+	 */
+	public long getSkipped() {
+		return skipped;
+	}
+
+	/**
+	 * Get the number of handled sentences that could not be decoded
+	 *
+	 * @return The invalid count
+	 */
+	public long getInvalid() {
+		return invalid;
+	}
+}
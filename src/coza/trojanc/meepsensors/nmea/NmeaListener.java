@@ -0,0 +1,54 @@
+package coza.trojanc.meepsensors.nmea;
+
+import coza.trojanc.meepsensors.sensors.data.FixStatus;
+import coza.trojanc.meepsensors.sensors.data.FixTime;
+import coza.trojanc.meepsensors.sensors.data.ReadablePosition;
+import coza.trojanc.meepsensors.sensors.data.ReadableVelocity;
+import coza.trojanc.meepsensors.sensors.data.SatellitesInView;
+
+/**
+ * Receives the data decoded from an NMEA stream by a {@link NmeaDispatcher}.
+ * Extend {@link NmeaAdapter} to only handle the data of interest.
+ *
+ * The position and velocity are held by the dispatcher and reused for the next
+ * sentence, so they are only valid during the call. Copy them with
+ * {@link coza.trojanc.meepsensors.sensors.data.MutablePosition#set(ReadablePosition)}
+ * or keep an immutable copy to use them later.
+ */
+public interface NmeaListener {
+
+	/**
+	 * A GGA sentence was decoded
+	 *
+	 * @param position The position, only valid during the call
+	 */
+	public void position(ReadablePosition position);
+
+	/**
+	 * A VTG sentence was decoded
+	 *
+	 * @param velocity The velocity, only valid during the call
+	 */
+	public void velocity(ReadableVelocity velocity);
+
+	/**
+	 * An RMC sentence was decoded
+	 *
+	 * @param fixTime The UTC date and time of the fix
+	 */
+	public void fixTime(FixTime fixTime);
+
+	/**
+	 * A GSA sentence was decoded
+	 *
+	 * @param fixStatus The fix type, dilution of precision and satellites used
+	 */
+	public void fixStatus(FixStatus fixStatus);
+
+	/**
+	 * The last GSV sentence of a sequence was decoded
+	 *
+	 * @param satellites The satellites in view
+	 */
+	public void satellites(SatellitesInView satellites);
+}
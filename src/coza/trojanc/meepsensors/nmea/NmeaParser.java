@@ -0,0 +1,726 @@
+package coza.trojanc.meepsensors.nmea;
+
+import coza.trojanc.meepsensors.metrics.Counter;
+import coza.trojanc.meepsensors.metrics.MetricsRegistry;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Streaming NMEA 0183 sentence parser that works directly on the bytes read from
+ * the receiver. Bytes are read into a reused buffer, each sentence is copied into
+ * a fixed sentence buffer, its <code>*hh</code> checksum is verified and the field
+ * boundaries are recorded in place. Numbers are parsed straight from the bytes, so
+ * stepping through sentences does not create any garbage.
+ *
+ * Field indexes are zero based and start after the sentence tag, so for
+ * <code>$GPGGA,123519,4807.038,N,...</code> field 0 is the time and field 1 is the
+ * latitude.
+ *
+ * The bytes can also come from a buffer holding a whole capture, for example a
+ * memory mapped file, in which case they are parsed straight from the buffer.
+ *
+ * A parser reading a live receiver can be given a metrics registry, to count
+ * the sentences it rejects in <code>nmea.checksum_errors</code> and
+ * <code>nmea.malformed_sentences</code>. Parsers replaying a capture are not,
+ * so they don't change the health metrics of the receiver.
+ *
+ * Instances are not thread safe.
+ */
+public class NmeaParser {
+
+	/**
+	 * Largest sentence we accept. The standard limits a sentence to 82 characters,
+	 * but some receivers send longer proprietary sentences.
+	 */
+	public static final int MAX_SENTENCE_LENGTH = 128;
+
+	/**
+	 * Maximum number of data fields recorded for a sentence
+	 */
+	public static final int MAX_FIELDS = 32;
+
+	/**
+	 * Default size of the read buffer
+	 */
+	private static final int DEFAULT_BUFFER_SIZE = 256;
+
+	/**
+	 * Largest number of significant digits we parse into a long without overflowing
+	 */
+	private static final int MAX_DIGITS = 18;
+
+	/**
+	 * Powers of ten that can be represented exactly as doubles
+	 */
+	private static final double[] POWERS_OF_TEN = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9,
+		1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18
+	};
+
+	/**
+	 * Channel the raw bytes are read from, null when parsing from a buffer
+	 */
+	private final ReadableByteChannel channel;
+
+	/**
+	 * Reused buffer for reading from the channel, or the buffer being parsed
+	 */
+	private final ByteBuffer readBuffer;
+
+	/**
+	 * The current sentence, without the leading '$' and the line terminator
+	 */
+	private final byte[] sentence = new byte[MAX_SENTENCE_LENGTH];
+
+	/**
+	 * Number of bytes in the current sentence
+	 */
+	private int length;
+
+	/**
+	 * End of the tag (exclusive) in the current sentence
+	 */
+	private int tagEnd;
+
+	/**
+	 * Start offsets of the data fields in the current sentence
+	 */
+	private final int[] fieldStart = new int[MAX_FIELDS];
+
+	/**
+	 * End offsets (exclusive) of the data fields in the current sentence
+	 */
+	private final int[] fieldEnd = new int[MAX_FIELDS];
+
+	/**
+	 * Number of data fields in the current sentence
+	 */
+	private int fieldCount;
+
+	/**
+	 * Counters the rejected sentences are published to, null if they aren't
+	 */
+	private final Counter checksumErrorCounter;
+	private final Counter malformedSentenceCounter;
+
+	/**
+	 * Number of valid sentences parsed
+	 */
+	private long sentenceCount;
+
+	/**
+	 * Number of sentences rejected because of a checksum mismatch
+	 */
+	private long checksumErrors;
+
+	/**
+	 * Number of sentences rejected because they were truncated, too long or malformed
+	 */
+	private long malformedSentences;
+
+	/**
+	 * Total number of bytes read from the channel
+	 */
+	private long bytesRead;
+
+	/**
+	 * Time (in milliseconds from the epoch) at which reading from the channel
+	 * gives up, Long.MAX_VALUE for no limit
+	 */
+	private long deadline = Long.MAX_VALUE;
+
+	/**
+	 * Create a new parser reading from a channel
+	 *
+	 * @param channel The channel to read NMEA data from
+	 */
+	public NmeaParser(ReadableByteChannel channel) {
+		this(channel, DEFAULT_BUFFER_SIZE, null);
+	}
+
+	/**
+	 * Create a new parser reading from a receiver, counting the rejected sentences
+	 *
+	 * @param channel The channel to read NMEA data from
+	 * @param metrics Registry the rejected sentences are counted in, or null to not count them
+	 */
+	public NmeaParser(ReadableByteChannel channel, MetricsRegistry metrics) {
+		this(channel, DEFAULT_BUFFER_SIZE, metrics);
+	}
+
+	/**
+	 * Create a new parser reading from a channel
+	 *
+	 * @param channel The channel to read NMEA data from
+	 * @param bufferSize Size of the read buffer in bytes
+	 * @param metrics Registry the rejected sentences are counted in, or null to not count them
+	 */
+	public NmeaParser(ReadableByteChannel channel, int bufferSize, MetricsRegistry metrics) {
+		this.channel = channel;
+		this.readBuffer = ByteBuffer.allocate(bufferSize);
+		// Start with an empty buffer
+		this.readBuffer.flip();
+		if (metrics != null) {
+			checksumErrorCounter = metrics.counter("nmea.checksum_errors");
+			malformedSentenceCounter = metrics.counter("nmea.malformed_sentences");
+		} else {
+			checksumErrorCounter = null;
+			malformedSentenceCounter = null;
+		}
+	}
+
+	/**
+	 * Create a new parser reading the bytes between the position and the limit of
+	 * a buffer. The buffer itself is not modified.
+	 *
+	 * @param source Buffer holding the NMEA data
+	 */
+	public NmeaParser(ByteBuffer source) {
+		this.channel = null;
+		this.readBuffer = source.slice();
+		this.checksumErrorCounter = null;
+		this.malformedSentenceCounter = null;
+	}
+
+	/**
+	 * Start parsing a buffer source from the beginning again, with the counters reset
+	 */
+	public void rewind() {
+		if (channel != null) {
+			throw new IllegalStateException("Can't rewind a channel");
+		}
+		readBuffer.rewind();
+		length = 0;
+		sentenceCount = 0;
+		checksumErrors = 0;
+		malformedSentences = 0;
+		tagEnd = 0;
+		fieldCount = 0;
+	}
+
+	/**
+	 * Drop the bytes read from the channel that weren't parsed yet, for example
+	 * because they were received before the channel changed baud rate
+	 */
+	public void discardBuffered() {
+		if (channel == null) {
+			throw new IllegalStateException("Can't discard a buffer source");
+		}
+		readBuffer.clear();
+		readBuffer.flip();
+	}
+
+	/**
+	 * Convert a sentence tag such as "GPGGA" to the byte form used by
+	 * {@link #isSentence(byte[])}. Intended for constants.
+	 *
+	 * @param tag The sentence tag
+	 * @return The tag as ASCII bytes
+	 */
+	public static byte[] tag(String tag) {
+		byte[] bytes = new byte[tag.length()];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) tag.charAt(i);
+		}
+		return bytes;
+	}
+
+	/**
+	 * Advance to the next valid sentence. Sentences with a bad checksum or that
+	 * are malformed are skipped.
+	 *
+	 * @return true if a sentence is available, false if the end of the stream was reached
+	 * @throws InterruptedIOException If the thread was interrupted while waiting for data
+	 * @throws IOException If there is an IO error reading the channel
+	 */
+	public boolean next() throws IOException {
+		while (readSentence()) {
+			if (tokenize()) {
+				sentenceCount++;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Advance to the next valid sentence, giving up at a deadline. The deadline is
+	 * checked before every read from the channel, so a read that blocks on a
+	 * silent channel without a receive timeout still delays it.
+	 *
+	 * @param deadline Time in milliseconds from the epoch
+	 * @return true if a sentence is available, false if the deadline or the end of the stream was reached
+	 * @throws InterruptedIOException If the thread was interrupted while waiting for data
+	 * @throws IOException If there is an IO error reading the channel
+	 */
+	public boolean next(long deadline) throws IOException {
+		this.deadline = deadline;
+		try {
+			return next();
+		} finally {
+			this.deadline = Long.MAX_VALUE;
+		}
+	}
+
+	/**
+	 * Read the next '$' delimited line into the sentence buffer
+	 *
+	 * @return false if the end of the stream was reached
+	 * @throws IOException If there is an IO error reading the channel
+	 */
+	private boolean readSentence() throws IOException {
+		boolean inSentence = false;
+		length = 0;
+		while (true) {
+			if (!readBuffer.hasRemaining() && !fill()) {
+				return false;
+			}
+			byte b = readBuffer.get();
+			if (b == '$') {
+				// A new start character in the middle of a sentence means we lost bytes
+				if (inSentence) {
+					malformed();
+				}
+				inSentence = true;
+				length = 0;
+			} else if (!inSentence) {
+				// Skip everything until the start of a sentence
+			} else if (b == '\r' || b == '\n') {
+				return true;
+			} else if (length == MAX_SENTENCE_LENGTH) {
+				// Too long, drop it and wait for the next start character
+				malformed();
+				inSentence = false;
+			} else {
+				sentence[length++] = b;
+			}
+		}
+	}
+
+	/**
+	 * Refill the read buffer from the channel. A UART with a receive timeout
+	 * returns nothing while the receiver is silent, so the thread is checked for
+	 * an interrupt between reads.
+	 *
+	 * @return false if the end of the stream or the deadline was reached
+	 * @throws InterruptedIOException If the thread was interrupted while waiting for data
+	 * @throws IOException If there is an IO error reading the channel
+	 */
+	private boolean fill() throws IOException {
+		if (channel == null) {
+			return false;
+		}
+		readBuffer.clear();
+		int read = 0;
+		try {
+			while (read == 0) {
+				if (Thread.currentThread().isInterrupted()) {
+					throw new InterruptedIOException("Interrupted while waiting for NMEA data");
+				}
+				if (deadline != Long.MAX_VALUE && System.currentTimeMillis() >= deadline) {
+					return false;
+				}
+				read = channel.read(readBuffer);
+			}
+		} finally {
+			// Leave the buffer readable, and empty if nothing was read
+			readBuffer.flip();
+		}
+		if (read < 0) {
+			return false;
+		}
+		bytesRead += read;
+		return true;
+	}
+
+	/**
+	 * Verify the checksum of the current sentence and record its field boundaries
+	 *
+	 * @return true if the sentence is valid
+	 */
+	private boolean tokenize() {
+		int end = length;
+		int checksum = 0;
+		int star = -1;
+		for (int i = 0; i < length; i++) {
+			byte b = sentence[i];
+			if (b == '*') {
+				star = i;
+				break;
+			}
+			checksum ^= b;
+		}
+
+		if (star >= 0) {
+			if (star + 3 != length) {
+				malformed();
+				return false;
+			}
+			int high = hexValue(sentence[star + 1]);
+			int low = hexValue(sentence[star + 2]);
+			if (high < 0 || low < 0) {
+				malformed();
+				return false;
+			}
+			if (((high << 4) | low) != checksum) {
+				checksumErrors++;
+				if (checksumErrorCounter != null) {
+					checksumErrorCounter.increment();
+				}
+				return false;
+			}
+			end = star;
+		}
+
+		// The tag runs up to the first comma
+		tagEnd = 0;
+		while (tagEnd < end && sentence[tagEnd] != ',') {
+			tagEnd++;
+		}
+		if (tagEnd == 0) {
+			malformed();
+			return false;
+		}
+
+		fieldCount = 0;
+		int start = tagEnd + 1;
+		for (int i = start; i <= end; i++) {
+			if (i == end || sentence[i] == ',') {
+				if (fieldCount == MAX_FIELDS) {
+					break;
+				}
+				fieldStart[fieldCount] = start;
+				fieldEnd[fieldCount] = i;
+				fieldCount++;
+				start = i + 1;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Value of a hexadecimal digit
+	 *
+	 * @param b The ASCII digit
+	 * @return The value, or -1 if it is not a hexadecimal digit
+	 */
+	private static int hexValue(byte b) {
+		if (b >= '0' && b <= '9') {
+			return b - '0';
+		}
+		if (b >= 'A' && b <= 'F') {
+			return b - 'A' + 10;
+		}
+		if (b >= 'a' && b <= 'f') {
+			return b - 'a' + 10;
+		}
+		return -1;
+	}
+
+	/**
+	 * Check if the current sentence has the given tag
+	 *
+	 * @param tag The tag as created by {@link #tag(String)}
+	 * @return true if the current sentence has this tag
+	 */
+	public boolean isSentence(byte[] tag) {
+		if (tag.length != tagEnd) {
+			return false;
+		}
+		for (int i = 0; i < tagEnd; i++) {
+			if (sentence[i] != tag[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Check if the current sentence has the given tag
+	 *
+	 * @param tag The tag, for example "GPGGA"
+	 * @return true if the current sentence has this tag
+	 */
+	public boolean isSentence(String tag) {
+		if (tag.length() != tagEnd) {
+			return false;
+		}
+		for (int i = 0; i < tagEnd; i++) {
+			if (sentence[i] != tag.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Get the type of the current sentence, the last three characters of a five
+	 * character tag, so the same type from any talker ("GPGGA", "GNGGA") has the
+	 * same value. Compare with {@link #type(String)} or switch on constants
+	 * such as <code>'G' &lt;&lt; 16 | 'G' &lt;&lt; 8 | 'A'</code>.
+	 *
+	 * @return The type as three ASCII characters in the lowest 24 bits, or 0 if the tag is not five characters long
+	 */
+	public int getSentenceType() {
+		if (tagEnd != 5) {
+			return 0;
+		}
+		return (sentence[2] & 0xFF) << 16 | (sentence[3] & 0xFF) << 8 | (sentence[4] & 0xFF);
+	}
+
+	/**
+	 * Convert a sentence type such as "GGA" to the value returned by
+	 * {@link #getSentenceType()}
+	 *
+	 * @param type The three character sentence type
+	 * @return The type value
+	 */
+	public static int type(String type) {
+		return type.charAt(0) << 16 | type.charAt(1) << 8 | type.charAt(2);
+	}
+
+	/**
+	 * Get the talker of the current sentence, the first two characters of the tag
+	 *
+	 * @return The talker as two ASCII characters in the lowest 16 bits, for example 'G' &lt;&lt; 8 | 'P' for GPS
+	 */
+	public int getTalker() {
+		if (tagEnd < 2) {
+			return 0;
+		}
+		return (sentence[0] & 0xFF) << 8 | (sentence[1] & 0xFF);
+	}
+
+	/**
+	 * Get the number of data fields in the current sentence
+	 *
+	 * @return The number of fields after the tag
+	 */
+	public int getFieldCount() {
+		return fieldCount;
+	}
+
+	/**
+	 * Check if a field is empty or missing
+	 *
+	 * @param field The field index
+	 * @return true if the field has no data
+	 */
+	public boolean isEmpty(int field) {
+		return field >= fieldCount || fieldStart[field] == fieldEnd[field];
+	}
+
+	/**
+	 * Get the first character of a field
+	 *
+	 * @param field The field index
+	 * @return The first character, or 0 if the field is empty
+	 */
+	public char getChar(int field) {
+		if (isEmpty(field)) {
+			return 0;
+		}
+		return (char) sentence[fieldStart[field]];
+	}
+
+	/**
+	 * Parse a field as a decimal number
+	 *
+	 * @param field The field index
+	 * @return The value, or {@link Double#NaN} if the field is empty or not a number
+	 */
+	public double getDouble(int field) {
+		if (isEmpty(field)) {
+			return Double.NaN;
+		}
+		int i = fieldStart[field];
+		int end = fieldEnd[field];
+		boolean negative = false;
+		if (sentence[i] == '-' || sentence[i] == '+') {
+			negative = sentence[i] == '-';
+			i++;
+		}
+
+		long mantissa = 0;
+		int digits = 0;
+		int scale = 0;
+		boolean fraction = false;
+		for (; i < end; i++) {
+			byte b = sentence[i];
+			if (b >= '0' && b <= '9') {
+				if (digits == MAX_DIGITS) {
+					if (!fraction) {
+						return Double.NaN;
+					}
+					// Ignore precision we can't hold
+					continue;
+				}
+				mantissa = mantissa * 10 + (b - '0');
+				digits++;
+				if (fraction) {
+					scale++;
+				}
+			} else if (b == '.' && !fraction) {
+				fraction = true;
+			} else {
+				return Double.NaN;
+			}
+		}
+		if (digits == 0) {
+			return Double.NaN;
+		}
+
+		double value = mantissa / POWERS_OF_TEN[scale];
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Parse a field as an integer
+	 *
+	 * @param field The field index
+	 * @param defaultValue Value returned if the field is empty or not an integer
+	 * @return The value of the field
+	 */
+	public int getInt(int field, int defaultValue) {
+		if (isEmpty(field)) {
+			return defaultValue;
+		}
+		int i = fieldStart[field];
+		int end = fieldEnd[field];
+		boolean negative = false;
+		if (sentence[i] == '-' || sentence[i] == '+') {
+			negative = sentence[i] == '-';
+			i++;
+		}
+		if (i == end || end - i > 9) {
+			return defaultValue;
+		}
+		int value = 0;
+		for (; i < end; i++) {
+			byte b = sentence[i];
+			if (b < '0' || b > '9') {
+				return defaultValue;
+			}
+			value = value * 10 + (b - '0');
+		}
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Parse a field holding a UTC time of day as <code>hhmmss.sss</code>
+	 *
+	 * @param field The field index
+	 * @return Milliseconds since midnight, or -1 if the field is empty or not a time
+	 */
+	public int getTimeOfDay(int field) {
+		if (isEmpty(field)) {
+			return -1;
+		}
+		int i = fieldStart[field];
+		int end = fieldEnd[field];
+		if (end - i < 6) {
+			return -1;
+		}
+		int hhmmss = 0;
+		for (int j = i; j < i + 6; j++) {
+			byte b = sentence[j];
+			if (b < '0' || b > '9') {
+				return -1;
+			}
+			hhmmss = hhmmss * 10 + (b - '0');
+		}
+		int millis = 0;
+		int scale = 100;
+		if (end > i + 6) {
+			if (sentence[i + 6] != '.') {
+				return -1;
+			}
+			for (int j = i + 7; j < end; j++) {
+				byte b = sentence[j];
+				if (b < '0' || b > '9') {
+					return -1;
+				}
+				millis += (b - '0') * scale;
+				scale /= 10;
+			}
+		}
+		int hours = hhmmss / 10000;
+		int minutes = hhmmss / 100 % 100;
+		int seconds = hhmmss % 100;
+		if (hours > 23 || minutes > 59 || seconds > 60) {
+			return -1;
+		}
+		return ((hours * 60 + minutes) * 60 + seconds) * 1000 + millis;
+	}
+
+	/**
+	 * Get the data of the current sentence after the tag, including the checksum.
+	 * This creates a new String, so it should not be used on the hot path.
+	 *
+	 * @return The raw data of the current sentence
+	 */
+	public String getRawData() {
+		int start = Math.min(tagEnd + 1, length);
+		return new String(sentence, start, length - start, StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * Count a sentence rejected because it was malformed
+	 */
+	private void malformed() {
+		malformedSentences++;
+		if (malformedSentenceCounter != null) {
+			malformedSentenceCounter.increment();
+		}
+	}
+
+	/**
+	 * Get the number of valid sentences parsed
+	 *
+	 * @return The sentence count
+	 */
+	public long getSentenceCount() {
+		return sentenceCount;
+	}
+
+	/**
+	 * Get the number of sentences rejected because of a checksum mismatch
+	 *
+	 * @return The checksum error count
+	 */
+	public long getChecksumErrors() {
+		return checksumErrors;
+	}
+
+	/**
+	 * Get the number of sentences rejected because they were malformed
+	 *
+	 * @return The malformed sentence count
+	 */
+	public long getMalformedSentences() {
+		return malformedSentences;
+	}
+
+	/**
+	 * Get the total number of bytes read from the channel, or parsed from a buffer
+	 *
+	 * @return The byte count
+	 */
+	public long getBytesRead() {
+		return channel != null ? bytesRead : readBuffer.position();
+	}
+
+	/**
+	 * The current sentence as text, without the leading '$'
+	 *
+	 * @return The current sentence
+	 */
+	@Override
+	public String toString() {
+		return new String(sentence, 0, length, StandardCharsets.US_ASCII);
+	}
+}
@@ -0,0 +1,179 @@
+package coza.trojanc.meepsensors.nmea;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Builds the PMTK commands understood by MediaTek GPS modules such as the
+ * Adafruit Ultimate GPS. A command is acknowledged by the module with
+ * <code>$PMTK001,&lt;command&gt;,&lt;flag&gt;</code>, except for the baud rate
+ * command after which the module just starts sending at the new rate.
+ */
+public final class Pmtk {
+
+	/**
+	 * Tag of the acknowledgement sentence
+	 */
+	public static final byte[] ACK_TAG = NmeaParser.tag("PMTK001");
+
+	/**
+	 * Acknowledgement flag of an invalid command
+	 */
+	public static final int ACK_INVALID = 0;
+
+	/**
+	 * Acknowledgement flag of an unsupported command
+	 */
+	public static final int ACK_UNSUPPORTED = 1;
+
+	/**
+	 * Acknowledgement flag of a valid command that failed
+	 */
+	public static final int ACK_FAILED = 2;
+
+	/**
+	 * Acknowledgement flag of a command that succeeded
+	 */
+	public static final int ACK_SUCCESS = 3;
+
+	/**
+	 * Fix interval command
+	 */
+	public static final int SET_FIX_INTERVAL = 220;
+
+	/**
+	 * Baud rate command
+	 */
+	public static final int SET_BAUD_RATE = 251;
+
+	/**
+	 * Sentence output command
+	 */
+	public static final int SET_OUTPUT = 314;
+
+	/**
+	 * Highest fix rate of the module
+	 */
+	public static final int MAX_UPDATE_RATE = 10;
+
+	/**
+	 * Typical length of each sentence on the wire, including the line terminator,
+	 * used to check that the output fits the baud rate
+	 */
+	private static final int GGA_BYTES = 75;
+	private static final int GSA_BYTES = 60;
+	private static final int GSV_BYTES = 3 * 70;
+	private static final int RMC_BYTES = 72;
+	private static final int VTG_BYTES = 40;
+
+	private Pmtk() {
+	}
+
+	/**
+	 * Set the time between fixes
+	 *
+	 * @param updateRate Fixes per second, 1 to {@link #MAX_UPDATE_RATE}
+	 * @return The command body
+	 */
+	public static String setUpdateRate(int updateRate) {
+		if (updateRate < 1 || updateRate > MAX_UPDATE_RATE) {
+			throw new IllegalArgumentException("updateRate must be between 1 and " + MAX_UPDATE_RATE);
+		}
+		return "PMTK" + SET_FIX_INTERVAL + "," + (1000 / updateRate);
+	}
+
+	/**
+	 * Set the baud rate the module sends and receives at
+	 *
+	 * @param baudRate The baud rate
+	 * @return The command body
+	 */
+	public static String setBaudRate(int baudRate) {
+		switch (baudRate) {
+			case 4800:
+			case 9600:
+			case 14400:
+			case 19200:
+			case 38400:
+			case 57600:
+			case 115200:
+				return "PMTK" + SET_BAUD_RATE + "," + baudRate;
+			default:
+				throw new IllegalArgumentException("Unsupported baud rate " + baudRate);
+		}
+	}
+
+	/**
+	 * Choose the sentences the module sends, each once every so many fixes or 0
+	 * to switch it off. All other sentences are switched off.
+	 *
+	 * @param gga Fixes per GGA sentence
+	 * @param gsa Fixes per GSA sentence
+	 * @param gsv Fixes per GSV sequence
+	 * @param rmc Fixes per RMC sentence
+	 * @param vtg Fixes per VTG sentence
+	 * @return The command body
+	 */
+	public static String setOutput(int gga, int gsa, int gsv, int rmc, int vtg) {
+		// GLL, RMC, VTG, GGA, GSA, GSV, 12 unused or proprietary, ZDA, MCHN
+		return "PMTK" + SET_OUTPUT + ",0," + rmc + "," + vtg + "," + gga + "," + gsa + "," + gsv + ",0,0,0,0,0,0,0,0,0,0,0,0,0";
+	}
+
+	/**
+	 * Estimate the bytes per second the module sends with an output
+	 *
+	 * @param updateRate Fixes per second
+	 * @param gga Fixes per GGA sentence
+	 * @param gsa Fixes per GSA sentence
+	 * @param gsv Fixes per GSV sequence
+	 * @param rmc Fixes per RMC sentence
+	 * @param vtg Fixes per VTG sentence
+	 * @return Bytes per second
+	 */
+	public static double bytesPerSecond(int updateRate, int gga, int gsa, int gsv, int rmc, int vtg) {
+		double perFix = perFix(GGA_BYTES, gga) + perFix(GSA_BYTES, gsa) + perFix(GSV_BYTES, gsv)
+				+ perFix(RMC_BYTES, rmc) + perFix(VTG_BYTES, vtg);
+		return perFix * updateRate;
+	}
+
+	private static double perFix(int bytes, int fixes) {
+		return fixes > 0 ? (double) bytes / fixes : 0;
+	}
+
+	/**
+	 * Get the bytes per second a baud rate carries, with 10 bits per byte on the wire
+	 *
+	 * @param baudRate The baud rate
+	 * @return Bytes per second
+	 */
+	public static int capacity(int baudRate) {
+		return baudRate / 10;
+	}
+
+	/**
+	 * Get the command number of a command body
+	 *
+	 * @param body The command body, for example "PMTK220,100"
+	 * @return The command number, for example 220
+	 */
+	public static int commandNumber(String body) {
+		int end = body.indexOf(',');
+		return Integer.parseInt(body.substring(4, end < 0 ? body.length() : end));
+	}
+
+	/**
+	 * Frame a command body with the '$', checksum and line terminator
+	 *
+	 * @param body The command body, for example "PMTK220,100"
+	 * @return The command ready to be written
+	 */
+	public static ByteBuffer frame(String body) {
+		int checksum = 0;
+		for (int i = 0; i < body.length(); i++) {
+			checksum ^= body.charAt(i);
+		}
+		String sentence = "$" + body + "*" + Character.toUpperCase(Character.forDigit(checksum >> 4, 16))
+				+ Character.toUpperCase(Character.forDigit(checksum & 0xF, 16)) + "\r\n";
+		return ByteBuffer.wrap(sentence.getBytes(StandardCharsets.US_ASCII));
+	}
+}
@@ -1,5 +1,7 @@
 package coza.trojanc.meepsensors.sensors;
 
+import coza.trojanc.meepsensors.sensors.data.MutablePosition;
+import coza.trojanc.meepsensors.sensors.data.MutableVelocity;
 import coza.trojanc.meepsensors.sensors.data.Position;
 import coza.trojanc.meepsensors.sensors.data.Velocity;
 
@@ -11,4 +13,20 @@ public interface GpsSensor extends MEEPSensor{
 	public Velocity getVelocity();
 
 	public Position getPosition();
+
+	/**
+	 * Read the current velocity into a holder, without creating any objects
+	 *
+	 * @param into Holder to fill
+	 * @return true if the holder was filled, false if there is no velocity
+	 */
+	public boolean readVelocity(MutableVelocity into);
+
+	/**
+	 * Read the current position into a holder, without creating any objects
+	 *
+	 * @param into Holder to fill
+	 * @return true if the holder was filled, false if there is no position
+	 */
+	public boolean readPosition(MutablePosition into);
 }
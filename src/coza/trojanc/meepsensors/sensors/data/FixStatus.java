@@ -0,0 +1,144 @@
+package coza.trojanc.meepsensors.sensors.data;
+
+import java.util.Arrays;
+
+/**
+ * Fix type, dilution of precision and the satellites used for the fix, as
+ * reported in a GSA sentence
+ */
+public class FixStatus {
+
+	/**
+	 * No fix
+	 */
+	public static final int FIX_NONE = 1;
+
+	/**
+	 * Two dimensional fix, without altitude
+	 */
+	public static final int FIX_2D = 2;
+
+	/**
+	 * Three dimensional fix
+	 */
+	public static final int FIX_3D = 3;
+
+	/**
+	 * Time when this data was recorded
+	 */
+	private final long timeStamp;
+
+	/**
+	 * Fix type
+	 */
+	private final int fixType;
+
+	/**
+	 * PRN numbers of the satellites used
+	 */
+	private final int[] satellites;
+
+	/**
+	 * Position dilution of precision
+	 */
+	private final double pdop;
+
+	/**
+	 * Horizontal dilution of precision
+	 */
+	private final double hdop;
+
+	/**
+	 * Vertical dilution of precision
+	 */
+	private final double vdop;
+
+	/**
+	 * Constructor
+	 *
+	 * @param timeStamp Time when this data was recorded
+	 * @param fixType Fix type, one of {@link #FIX_NONE}, {@link #FIX_2D} or {@link #FIX_3D}
+	 * @param satellites PRN numbers of the satellites used, copied
+	 * @param pdop Position dilution of precision
+	 * @param hdop Horizontal dilution of precision
+	 * @param vdop Vertical dilution of precision
+	 */
+	public FixStatus(long timeStamp, int fixType, int[] satellites, double pdop, double hdop, double vdop) {
+		this.timeStamp = timeStamp;
+		this.fixType = fixType;
+		this.satellites = satellites.clone();
+		this.pdop = pdop;
+		this.hdop = hdop;
+		this.vdop = vdop;
+	}
+
+	/**
+	 * Get the time this data was recorded
+	 *
+	 * @return The time this data was recorded in seconds from the epoch
+	 */
+	public long getTime() {
+		return timeStamp;
+	}
+
+	/**
+	 * Get the fix type
+	 *
+	 * @return One of {@link #FIX_NONE}, {@link #FIX_2D} or {@link #FIX_3D}
+	 */
+	public int getFixType() {
+		return fixType;
+	}
+
+	/**
+	 * Get the number of satellites used for the fix
+	 *
+	 * @return The satellite count
+	 */
+	public int getSatelliteCount() {
+		return satellites.length;
+	}
+
+	/**
+	 * Get a satellite used for the fix
+	 *
+	 * @param index Index from 0 to the satellite count
+	 * @return The PRN number of the satellite
+	 */
+	public int getSatellite(int index) {
+		return satellites[index];
+	}
+
+	/**
+	 * Get the position dilution of precision
+	 *
+	 * @return PDOP, NaN if not reported
+	 */
+	public double getPdop() {
+		return pdop;
+	}
+
+	/**
+	 * Get the horizontal dilution of precision
+	 *
+	 * @return HDOP, NaN if not reported
+	 */
+	public double getHdop() {
+		return hdop;
+	}
+
+	/**
+	 * Get the vertical dilution of precision
+	 *
+	 * @return VDOP, NaN if not reported
+	 */
+	public double getVdop() {
+		return vdop;
+	}
+
+	@Override
+	public String toString() {
+		return "FixStatus[fix=" + fixType + ", satellites=" + Arrays.toString(satellites)
+				+ ", pdop=" + pdop + ", hdop=" + hdop + ", vdop=" + vdop + "]";
+	}
+}
@@ -0,0 +1,64 @@
+package coza.trojanc.meepsensors.sensors.data;
+
+/**
+ * UTC date and time of a fix, as reported in an RMC sentence
+ */
+public class FixTime {
+
+	/**
+	 * Time when this data was recorded
+	 */
+	private final long timeStamp;
+
+	/**
+	 * The UTC time of the fix
+	 */
+	private final long utcMillis;
+
+	/**
+	 * If the receiver reported the fix as valid
+	 */
+	private final boolean valid;
+
+	/**
+	 * Constructor
+	 *
+	 * @param timeStamp Time when this data was recorded
+	 * @param utcMillis The UTC time of the fix in milliseconds from the epoch
+	 * @param valid If the receiver reported the fix as valid
+	 */
+	public FixTime(long timeStamp, long utcMillis, boolean valid) {
+		this.timeStamp = timeStamp;
+		this.utcMillis = utcMillis;
+		this.valid = valid;
+	}
+
+	/**
+	 * Get the time this data was recorded
+	 *
+	 * @return The time this data was recorded in seconds from the epoch
+	 */
+	public long getTime() {
+		return timeStamp;
+	}
+
+	/**
+	 * Get the UTC time of the fix, which is the receiver's clock and can be used
+	 * to set the system clock
+	 *
+	 * @return The time of the fix in milliseconds from the epoch
+	 */
+	public long getUtcMillis() {
+		return utcMillis;
+	}
+
+	/**
+	 * Check if the receiver reported the fix as valid. The time can be correct
+	 * without a valid position fix.
+	 *
+	 * @return true if the fix is valid
+	 */
+	public boolean isValid() {
+		return valid;
+	}
+}
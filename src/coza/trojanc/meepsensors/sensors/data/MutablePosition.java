@@ -0,0 +1,87 @@
+package coza.trojanc.meepsensors.sensors.data;
+
+/**
+ * Position holder that is filled in place, so a caller can read positions
+ * repeatedly into the same instance without creating garbage. Use
+ * {@link #toPosition()} to keep a reading.
+ */
+public class MutablePosition implements ReadablePosition {
+
+	private long timeStamp;
+	private double latitude;
+	private char latitudeDirection;
+	private double longitude;
+	private char longitudeDirection;
+	private double altitude;
+
+	/**
+	 * Set all fields
+	 *
+	 * @param time The time in seconds from the epoch
+	 * @param latitude The latitude of this position
+	 * @param latitudeDirection Direction of latitude
+	 * @param longitude The longitude of this position
+	 * @param longitudeDirection Direction of longitude
+	 * @param altitude The altitude of this position
+	 * @return This holder
+	 */
+	public MutablePosition set(long time, double latitude, char latitudeDirection, double longitude, char longitudeDirection, double altitude) {
+		this.timeStamp = time;
+		this.latitude = latitude;
+		this.latitudeDirection = latitudeDirection;
+		this.longitude = longitude;
+		this.longitudeDirection = longitudeDirection;
+		this.altitude = altitude;
+		return this;
+	}
+
+	/**
+	 * Copy another position
+	 *
+	 * @param position The position to copy
+	 * @return This holder
+	 */
+	public MutablePosition set(ReadablePosition position) {
+		return set(position.getTime(), position.getLatitude(), position.getLatitudeDirection(),
+				position.getLongitude(), position.getLongitudeDirection(), position.getAltitude());
+	}
+
+	/**
+	 * Create an immutable copy
+	 *
+	 * @return The position
+	 */
+	public Position toPosition() {
+		return new Position(timeStamp, latitude, latitudeDirection, longitude, longitudeDirection, altitude);
+	}
+
+	@Override
+	public long getTime() {
+		return timeStamp;
+	}
+
+	@Override
+	public double getLatitude() {
+		return latitude;
+	}
+
+	@Override
+	public char getLatitudeDirection() {
+		return latitudeDirection;
+	}
+
+	@Override
+	public double getLongitude() {
+		return longitude;
+	}
+
+	@Override
+	public char getLongitudeDirection() {
+		return longitudeDirection;
+	}
+
+	@Override
+	public double getAltitude() {
+		return altitude;
+	}
+}
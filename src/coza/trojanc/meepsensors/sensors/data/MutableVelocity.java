@@ -0,0 +1,62 @@
+package coza.trojanc.meepsensors.sensors.data;
+
+/**
+ * Velocity holder that is filled in place, so a caller can read velocities
+ * repeatedly into the same instance without creating garbage. Use
+ * {@link #toVelocity()} to keep a reading.
+ */
+public class MutableVelocity implements ReadableVelocity {
+
+	private long timeStamp;
+	private double trueTrack;
+	private double groundSpeed;
+
+	/**
+	 * Set all fields
+	 *
+	 * @param timeStamp Time when this data was recorded, in seconds from the epoch
+	 * @param trueTrack The true track bearing
+	 * @param groundSpeed The speed over the ground in km/h
+	 * @return This holder
+	 */
+	public MutableVelocity set(long timeStamp, double trueTrack, double groundSpeed) {
+		this.timeStamp = timeStamp;
+		this.trueTrack = trueTrack;
+		this.groundSpeed = groundSpeed;
+		return this;
+	}
+
+	/**
+	 * Copy another velocity
+	 *
+	 * @param velocity The velocity to copy
+	 * @return This holder
+	 */
+	public MutableVelocity set(ReadableVelocity velocity) {
+		return set(velocity.getTimeStamp(), velocity.getTrueTrack(), velocity.getGroundSpeed());
+	}
+
+	/**
+	 * Create an immutable copy
+	 *
+	 * @return The velocity
+	 */
+	public Velocity toVelocity() {
+		return new Velocity(timeStamp, trueTrack, groundSpeed);
+	}
+
+	@Override
+	public double getTrueTrack() {
+		return trueTrack;
+	}
+
+	@Override
+	public double getGroundSpeed() {
+		return groundSpeed;
+	}
+
+	@Override
+	public long getTimeStamp() {
+		return timeStamp;
+	}
+}
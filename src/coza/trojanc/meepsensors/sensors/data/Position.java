@@ -6,7 +6,7 @@ import java.util.Formatter;
 /**
  *
  */
-public class Position {
+public class Position implements ReadablePosition {
 
 	/**
 	 * The current time
@@ -62,6 +62,7 @@ public class Position {
 	 * 
 	 * @return The time this position was recorded in seconds from the epoch
 	 */
+	@Override
 	public long getTime() {
 		return timeStamp;
 	}
@@ -71,6 +72,7 @@ public class Position {
 	 * 
 	 * @return The latitude
 	 */
+	@Override
 	public double getLatitude() {
 		return latitude;
 	}
@@ -80,6 +82,7 @@ public class Position {
 	 * 
 	 * @return The latitude direction as a single character
 	 */
+	@Override
 	public char getLatitudeDirection() {
 		return latitudeDirection;
 	}
@@ -89,6 +92,7 @@ public class Position {
 	 * 
 	 * @return The longitude
 	 */
+	@Override
 	public double getLongitude() {
 		return longitude;
 	}
@@ -98,6 +102,7 @@ public class Position {
 	 * 
 	 * @return The longitude direction as a single character
 	 */
+	@Override
 	public char getLongitudeDirection() {
 		return longitudeDirection;
 	}
@@ -107,6 +112,7 @@ public class Position {
 	 * 
 	 * @return The altitude in metres above sea level
 	 */
+	@Override
 	public double getAltitude() {
 		return altitude;
 	}
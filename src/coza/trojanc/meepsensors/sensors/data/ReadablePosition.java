@@ -0,0 +1,50 @@
+package coza.trojanc.meepsensors.sensors.data;
+
+/**
+ * Read only view of a position, implemented by the immutable {@link Position}
+ * and the reusable {@link MutablePosition}
+ */
+public interface ReadablePosition {
+
+	/**
+	 * Get the time this position was recorded
+	 *
+	 * @return The time this position was recorded in seconds from the epoch
+	 */
+	public long getTime();
+
+	/**
+	 * Get the latitude
+	 *
+	 * @return The latitude
+	 */
+	public double getLatitude();
+
+	/**
+	 * Get the direction of latitude (N or S)
+	 *
+	 * @return The latitude direction as a single character
+	 */
+	public char getLatitudeDirection();
+
+	/**
+	 * Get the longitude
+	 *
+	 * @return The longitude
+	 */
+	public double getLongitude();
+
+	/**
+	 * Get the longitude direction (E or W)
+	 *
+	 * @return The longitude direction as a single character
+	 */
+	public char getLongitudeDirection();
+
+	/**
+	 * Get the altitude (in metres above sea level)
+	 *
+	 * @return The altitude in metres above sea level
+	 */
+	public double getAltitude();
+}
@@ -0,0 +1,29 @@
+package coza.trojanc.meepsensors.sensors.data;
+
+/**
+ * Read only view of a velocity, implemented by the immutable {@link Velocity}
+ * and the reusable {@link MutableVelocity}
+ */
+public interface ReadableVelocity {
+
+	/**
+	 * Get the track for the GPS sensor (i.e. a bearing)
+	 *
+	 * @return the trueTrack
+	 */
+	public double getTrueTrack();
+
+	/**
+	 * Get the velocity of the GPS sensor (in Km/h)
+	 *
+	 * @return the speed over the ground
+	 */
+	public double getGroundSpeed();
+
+	/**
+	 * Get the time stamp for when this data was recorded
+	 *
+	 * @return The number of seconds from the epoch when this data was collected
+	 */
+	public long getTimeStamp();
+}
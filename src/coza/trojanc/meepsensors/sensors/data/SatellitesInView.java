@@ -0,0 +1,125 @@
+package coza.trojanc.meepsensors.sensors.data;
+
+import java.util.Arrays;
+
+/**
+ * The satellites a receiver can see, as reported in a sequence of GSV sentences
+ */
+public class SatellitesInView {
+
+	/**
+	 * Time when this data was recorded
+	 */
+	private final long timeStamp;
+
+	/**
+	 * PRN numbers of the satellites
+	 */
+	private final int[] prn;
+
+	/**
+	 * Elevations in degrees
+	 */
+	private final int[] elevation;
+
+	/**
+	 * Azimuths in degrees from true north
+	 */
+	private final int[] azimuth;
+
+	/**
+	 * Signal to noise ratios in dB-Hz, -1 when not tracked
+	 */
+	private final int[] snr;
+
+	/**
+	 * Constructor, the arrays are copied
+	 *
+	 * @param timeStamp Time when this data was recorded
+	 * @param count Number of satellites in the arrays
+	 * @param prn PRN numbers of the satellites
+	 * @param elevation Elevations in degrees, -1 if unknown
+	 * @param azimuth Azimuths in degrees from true north, -1 if unknown
+	 * @param snr Signal to noise ratios in dB-Hz, -1 when not tracked
+	 */
+	public SatellitesInView(long timeStamp, int count, int[] prn, int[] elevation, int[] azimuth, int[] snr) {
+		this.timeStamp = timeStamp;
+		this.prn = Arrays.copyOf(prn, count);
+		this.elevation = Arrays.copyOf(elevation, count);
+		this.azimuth = Arrays.copyOf(azimuth, count);
+		this.snr = Arrays.copyOf(snr, count);
+	}
+
+	/**
+	 * Get the time this data was recorded
+	 *
+	 * @return The time this data was recorded in seconds from the epoch
+	 */
+	public long getTime() {
+		return timeStamp;
+	}
+
+	/**
+	 * Get the number of satellites in view
+	 *
+	 * @return The satellite count
+	 */
+	public int getCount() {
+		return prn.length;
+	}
+
+	/**
+	 * Get the PRN number of a satellite
+	 *
+	 * @param index Index from 0 to the satellite count
+	 * @return The PRN number
+	 */
+	public int getPrn(int index) {
+		return prn[index];
+	}
+
+	/**
+	 * Get the elevation of a satellite
+	 *
+	 * @param index Index from 0 to the satellite count
+	 * @return Elevation in degrees, -1 if unknown
+	 */
+	public int getElevation(int index) {
+		return elevation[index];
+	}
+
+	/**
+	 * Get the azimuth of a satellite
+	 *
+	 * @param index Index from 0 to the satellite count
+	 * @return Azimuth in degrees from true north, -1 if unknown
+	 */
+	public int getAzimuth(int index) {
+		return azimuth[index];
+	}
+
+	/**
+	 * Get the signal to noise ratio of a satellite
+	 *
+	 * @param index Index from 0 to the satellite count
+	 * @return SNR in dB-Hz, -1 when the satellite is not tracked
+	 */
+	public int getSnr(int index) {
+		return snr[index];
+	}
+
+	/**
+	 * Get the number of satellites being tracked
+	 *
+	 * @return The number of satellites with a signal to noise ratio
+	 */
+	public int getTracked() {
+		int tracked = 0;
+		for (int s : snr) {
+			if (s >= 0) {
+				tracked++;
+			}
+		}
+		return tracked;
+	}
+}
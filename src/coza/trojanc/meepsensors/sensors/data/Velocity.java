@@ -4,7 +4,7 @@ package coza.trojanc.meepsensors.sensors.data;
 /**
  *
  */
-public class Velocity {
+public class Velocity implements ReadableVelocity {
 
 	/**
 	 * Time when this data was recorded
@@ -39,6 +39,7 @@ public class Velocity {
 	 * 
 	 * @return the trueTrack
 	 */
+	@Override
 	public double getTrueTrack() {
 		return trueTrack;
 	}
@@ -48,6 +49,7 @@ public class Velocity {
 	 * 
 	 * @return the speed over the ground
 	 */
+	@Override
 	public double getGroundSpeed() {
 		return groundSpeed;
 	}
@@ -57,6 +59,7 @@ public class Velocity {
 	 * 
 	 * @return The number of seconds from the epoch when this data was collected
 	 */
+	@Override
 	public long getTimeStamp() {
 		return timeStamp;
 	}
@@ -1,19 +1,30 @@
 package coza.trojanc.meepsensors.sensors.impl;
 
 import coza.trojanc.meepsensors.Logger;
+import coza.trojanc.meepsensors.io.DeviceProvider;
+import coza.trojanc.meepsensors.io.SerialPort;
+import coza.trojanc.meepsensors.io.dio.DioDeviceProvider;
+import coza.trojanc.meepsensors.metrics.Counter;
+import coza.trojanc.meepsensors.metrics.Histogram;
+import coza.trojanc.meepsensors.metrics.MetricsRegistry;
+import coza.trojanc.meepsensors.nmea.NmeaDecoder;
+import coza.trojanc.meepsensors.nmea.NmeaDispatcher;
+import coza.trojanc.meepsensors.nmea.NmeaListener;
+import coza.trojanc.meepsensors.nmea.NmeaParser;
+import coza.trojanc.meepsensors.nmea.Pmtk;
 import coza.trojanc.meepsensors.sensors.GpsSensor;
+import coza.trojanc.meepsensors.sensors.data.FixStatus;
+import coza.trojanc.meepsensors.sensors.data.FixTime;
+import coza.trojanc.meepsensors.sensors.data.MutablePosition;
+import coza.trojanc.meepsensors.sensors.data.MutableVelocity;
 import coza.trojanc.meepsensors.sensors.data.Position;
+import coza.trojanc.meepsensors.sensors.data.ReadablePosition;
+import coza.trojanc.meepsensors.sensors.data.ReadableVelocity;
+import coza.trojanc.meepsensors.sensors.data.SatellitesInView;
 import coza.trojanc.meepsensors.sensors.data.Velocity;
-import jdk.dio.DeviceManager;
-import jdk.dio.uart.UART;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.nio.channels.Channels;
-import java.util.ArrayList;
-import java.util.Date;
+import java.nio.ByteBuffer;
 
 /**
  * Created by Charl on 2014-06-28.
@@ -22,39 +33,216 @@ public class AdaFruitGPSSensor implements GpsSensor{
 
 	private static final int UART_DEVICE_ID = 40;
 
-	private UART uart;
+	/**
+	 * Baud rate of the module after power up
+	 */
+	public static final int DEFAULT_BAUD_RATE = 9600;
+
+	/**
+	 * Time to wait for the acknowledgement of a command in milliseconds
+	 */
+	private static final long COMMAND_TIMEOUT = 2000;
+
+	/**
+	 * Number of times a command is sent before giving up on an acknowledgement
+	 */
+	private static final int COMMAND_ATTEMPTS = 3;
+
+	private SerialPort uart;
 
 	/**
 	 * A reference to a logger
 	 */
 	private static final Logger LOG = Logger.getLogger(AdaFruitGPSSensor.class);
 
+	/**
+	 * Latency of reading a fix from the UART without the background reader
+	 */
+	private static final Histogram POSITION_LATENCY = MetricsRegistry.getDefault().histogram("gps.position");
+	private static final Histogram VELOCITY_LATENCY = MetricsRegistry.getDefault().histogram("gps.velocity");
+
+	/**
+	 * Sentences skipped because nobody asked for their type, sentences that
+	 * could not be decoded, and commands sent again for lack of an acknowledgement
+	 */
+	private static final Counter DISCARDED_SENTENCES = MetricsRegistry.getDefault().counter("gps.discarded_sentences");
+	private static final Counter INVALID_SENTENCES = MetricsRegistry.getDefault().counter("gps.invalid_sentences");
+	private static final Counter COMMAND_RETRIES = MetricsRegistry.getDefault().counter("gps.command_retries");
+
 	/**
 	 * ID for the Position response
 	 */
-	private static final String POSITION_TAG = "GPGGA";
+	private static final byte[] POSITION_TAG = NmeaDecoder.POSITION_TAG;
 
 	/**
 	 * ID for the velocity response
 	 */
-	private static final String VELOCITY_TAG = "GPVTG";
+	private static final byte[] VELOCITY_TAG = NmeaDecoder.VELOCITY_TAG;
+
+	/**
+	 * Parser for the sentences received from the UART
+	 */
+	protected NmeaParser parser;
+
+	/**
+	 * Thread reading sentences continuously while the reader is running, a
+	 * reader thread stops once it is no longer this thread
+	 */
+	private volatile Thread readerThread;
+
+	/**
+	 * Set while the background reader is running
+	 */
+	private volatile boolean readerRunning;
+
+	/**
+	 * Guards starting and stopping the background reader
+	 */
+	private final Object readerLock = new Object();
+
+	/**
+	 * Held while the parser reads a sentence. The parser isn't thread safe, and a
+	 * reader that was stopped may still be reading its last sentence.
+	 */
+	private final Object parserLock = new Object();
 
 	/**
-	 * Buffer for fields in a response
+	 * Latest position and velocity published by the background reader, guarded by fixLock
 	 */
-	private final ArrayList<String> fields = new ArrayList<>();
+	private final MutablePosition fixPosition = new MutablePosition();
+	private final MutableVelocity fixVelocity = new MutableVelocity();
 
 	/**
-	 * Buffer for reading responses
+	 * Immutable copies of the latest fix, created when first asked for after a
+	 * new fix arrived and guarded by fixLock
 	 */
-	protected BufferedReader serialBufferedReader;
+	private Position latestPosition;
+	private Velocity latestVelocity;
+
+	/**
+	 * Latest UTC date and time published by the background reader
+	 */
+	private volatile FixTime latestFixTime;
+
+	/**
+	 * Latest fix status published by the background reader
+	 */
+	private volatile FixStatus latestFixStatus;
+
+	/**
+	 * Latest satellites in view published by the background reader
+	 */
+	private volatile SatellitesInView latestSatellites;
+
+	/**
+	 * Time (in milliseconds from the epoch) the latest position was received
+	 */
+	private long positionReceived;
+
+	/**
+	 * Time (in milliseconds from the epoch) the latest velocity was received
+	 */
+	private long velocityReceived;
+
+	/**
+	 * Lock guarding the latest fix and its receive times, notified when a new fix is published
+	 */
+	private final Object fixLock = new Object();
+
+	/**
+	 * Serializes the configuration commands and guards the configuration. It is
+	 * never held by the background reader, so it can be held while waiting for an
+	 * acknowledgement.
+	 */
+	private final Object commandLock = new Object();
+
+	/**
+	 * Lock guarding the last acknowledgement, notified when one arrives
+	 */
+	private final Object ackLock = new Object();
+
+	/**
+	 * Command number and flag of the last acknowledgement
+	 */
+	private int ackCommand = -1;
+	private int ackFlag;
+
+	/**
+	 * Fix rate and sentence output configured on the module, the output as fixes per sentence
+	 */
+	private int updateRate = 1;
+	private int outputGga = 1;
+	private int outputGsa = 1;
+	private int outputGsv = 1;
+	private int outputRmc = 1;
+	private int outputVtg = 1;
+
+	/**
+	 * Publishes the data decoded by the background reader
+	 */
+	private final NmeaListener publisher = new NmeaListener() {
+		@Override
+		public void position(ReadablePosition position) {
+			synchronized (fixLock) {
+				fixPosition.set(position);
+				latestPosition = null;
+				positionReceived = System.currentTimeMillis();
+				fixLock.notifyAll();
+			}
+		}
+
+		@Override
+		public void velocity(ReadableVelocity velocity) {
+			synchronized (fixLock) {
+				fixVelocity.set(velocity);
+				latestVelocity = null;
+				velocityReceived = System.currentTimeMillis();
+				fixLock.notifyAll();
+			}
+		}
+
+		@Override
+		public void fixTime(FixTime fixTime) {
+			latestFixTime = fixTime;
+		}
+
+		@Override
+		public void fixStatus(FixStatus fixStatus) {
+			latestFixStatus = fixStatus;
+		}
+
+		@Override
+		public void satellites(SatellitesInView satellites) {
+			latestSatellites = satellites;
+		}
+	};
 
 
 	public AdaFruitGPSSensor(){
+		this(DioDeviceProvider.getInstance());
+	}
+
+	/**
+	 * Create a GPS sensor with the UART opened through a provider
+	 *
+	 * @param provider Provider opening the UART
+	 */
+	public AdaFruitGPSSensor(DeviceProvider provider){
+		this(provider, UART_DEVICE_ID, DEFAULT_BAUD_RATE);
+	}
+
+	/**
+	 * Create a GPS sensor on a UART, opened through a provider
+	 *
+	 * @param provider Provider opening the UART
+	 * @param uartDeviceId ID of the UART the receiver is connected to
+	 * @param baudRate Baud rate the receiver currently sends at
+	 */
+	public AdaFruitGPSSensor(DeviceProvider provider, int uartDeviceId, int baudRate){
 		try {
-			uart = DeviceManager.open(UART_DEVICE_ID);
-			uart.setBaudRate(9600);
-			serialBufferedReader = new BufferedReader(new InputStreamReader(Channels.newInputStream(uart)));
+			uart = provider.openSerialPort(uartDeviceId);
+			uart.setBaudRate(baudRate);
+			parser = new NmeaParser(uart, MetricsRegistry.getDefault());
 			LOG.info("Opened GPS sensor");
 		} catch (IOException ioe) {
 			LOG.warn("Exception while trying to initialise GPS sensor", ioe);
@@ -63,237 +251,685 @@ public class AdaFruitGPSSensor implements GpsSensor{
 	}
 
 	/**
-	 * Get a line of raw data from the GPS sensor
-	 *
-	 * @return The complete line of data
-	 * @throws IOException If there is an IO error
+	 * Start reading sentences continuously on a background thread. While the
+	 * reader is running {@link #getPosition()}, {@link #getVelocity()} and the
+	 * read methods return the latest fix immediately instead of waiting for the
+	 * next sentence. Each reader starts without a fix, the fix of an earlier
+	 * reader is not returned.
 	 */
-	private String readDataLine() throws IOException {
-		String dataLine;
-		/*
-		 * All data lines start with a '$' character so keep reading until we find a
-		 * valid line of data
-		 */
-		do {
-			dataLine = serialBufferedReader.readLine();
-			LOG.info("Got line : " + dataLine);
+	public void startReader() {
+		synchronized (readerLock) {
+			if (readerRunning) {
+				return;
+			}
+			clearFix();
+			readerRunning = true;
+			Thread reader = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					readLoop();
+				}
+			}, "AdaFruitGPSSensor reader");
+			reader.setDaemon(true);
+			readerThread = reader;
+			reader.start();
+		}
+		LOG.info("Started GPS reader");
+	}
 
-			// Got a valid line, so break out of the loop
-			if (dataLine.startsWith("$")) {
-				break;
+	/**
+	 * Stop the background reader, after which the getters read from the UART
+	 * again. A reader blocked on the UART finishes the sentence it is busy with
+	 * first, so the getters wait for that sentence before reading themselves.
+	 */
+	public void stopReader() {
+		Thread reader;
+		synchronized (readerLock) {
+			if (!readerRunning) {
+				return;
 			}
-		} while (true);
-		return dataLine;
+			reader = readerThread;
+			readerRunning = false;
+			readerThread = null;
+		}
+		reader.interrupt();
+		synchronized (fixLock) {
+			fixLock.notifyAll();
+		}
 	}
 
 	/**
-	 * Get a string of raw data from the GPS receiver.  How this happens is
-	 * sub-class dependent.
+	 * Check if the background reader is running
 	 *
-	 * @param type The type of data to be retrieved
-	 * @return A line of data for that type
-	 * @throws IOException If there is an IO error
+	 * @return true if the reader is running
 	 */
-	public String getRawData(String type) throws IOException {
-		String dataLine = null;
+	public boolean isReaderRunning() {
+		return readerRunning;
+	}
 
-		do {
-			/**
-			 * Retrieve a line with the appropriate tag. Return null in the case of
-			 * an error
-			 */
-			try {
-				dataLine = readDataLine();
-			} catch (IOException ex) {
-				return null;
+	/**
+	 * Read sentences until the reader is stopped, decoding every sentence type
+	 * the dispatcher knows and publishing the data as it arrives
+	 */
+	private void readLoop() {
+		NmeaDispatcher dispatcher = new NmeaDispatcher(publisher);
+		Thread self = Thread.currentThread();
+		try {
+			while (true) {
+				synchronized (parserLock) {
+					if (readerThread != self || !parser.next()) {
+						break;
+					}
+					long now = System.currentTimeMillis();
+					if (parser.isSentence(Pmtk.ACK_TAG)) {
+						acknowledged(parser.getInt(0, -1), parser.getInt(1, Pmtk.ACK_INVALID));
+					} else {
+						long invalid = dispatcher.getInvalid();
+						if (!dispatcher.dispatch(parser, now / 1000)) {
+							DISCARDED_SENTENCES.increment();
+						} else if (dispatcher.getInvalid() != invalid) {
+							INVALID_SENTENCES.increment();
+						}
+					}
+				}
+			}
+		} catch (IOException e) {
+			if (readerThread == self) {
+				LOG.warn("Exception while reading GPS data", e);
+			}
+		} finally {
+			// Only clear the state if the reader wasn't stopped and restarted meanwhile
+			synchronized (readerLock) {
+				if (readerThread == self) {
+					readerRunning = false;
+					readerThread = null;
+				}
+				if (readerThread == null) {
+					clearFix();
+				}
 			}
+			LOG.info("Stopped GPS reader");
+		}
+	}
+
+	/**
+	 * Forget the data published by a reader, so none of it is returned once it
+	 * is stale. Waiters are woken up to notice the reader stopped.
+	 */
+	private void clearFix() {
+		synchronized (fixLock) {
+			positionReceived = 0;
+			velocityReceived = 0;
+			latestPosition = null;
+			latestVelocity = null;
+			latestFixTime = null;
+			latestFixStatus = null;
+			latestSatellites = null;
+			fixLock.notifyAll();
+		}
+	}
+
+	/**
+	 * Record an acknowledgement read by the background reader
+	 *
+	 * @param command The command number acknowledged
+	 * @param flag The acknowledgement flag
+	 */
+	private void acknowledged(int command, int flag) {
+		synchronized (ackLock) {
+			ackCommand = command;
+			ackFlag = flag;
+			ackLock.notifyAll();
+		}
+	}
 
-			if(dataLine.length() < 7){
-				System.out.println("Too little data : " + dataLine);
-				continue;
+	/**
+	 * Send a PMTK command and wait for the module to acknowledge it. If the
+	 * background reader is running it reads the acknowledgement, otherwise it is
+	 * read here while holding the parser, so pull reads wait for the command
+	 * instead of consuming the acknowledgement. The command is sent again if no
+	 * acknowledgement arrives in time.
+	 *
+	 * @param body The command body, for example from {@link Pmtk#setUpdateRate(int)}
+	 * @return The acknowledgement flag, {@link Pmtk#ACK_SUCCESS} if the command succeeded
+	 * @throws IOException If the command could not be written or was never acknowledged
+	 */
+	public int sendCommand(String body) throws IOException {
+		synchronized (commandLock) {
+			int command = Pmtk.commandNumber(body);
+			if (!readerRunning) {
+				synchronized (parserLock) {
+					// A reader started meanwhile waits for the parser until the command is done
+					if (!readerRunning) {
+						return readAcknowledgement(body, command);
+					}
+				}
 			}
+			return awaitAcknowledgement(body, command);
+		}
+	}
 
-			// Extract the type of the data
-			String dataType = dataLine.substring(1, 6);
+	/**
+	 * Send a command until it is acknowledged, reading sentences from the parser
+	 * until the acknowledgement arrives. The caller holds commandLock and
+	 * parserLock, and the background reader isn't running.
+	 */
+	private int readAcknowledgement(String body, int command) throws IOException {
+		for (int attempt = 1; attempt <= COMMAND_ATTEMPTS; attempt++) {
+			if (attempt > 1) {
+				COMMAND_RETRIES.increment();
+			}
+			write(body);
+			long deadline = System.currentTimeMillis() + COMMAND_TIMEOUT;
+			while (parser.next(deadline)) {
+				if (parser.isSentence(Pmtk.ACK_TAG) && parser.getInt(0, -1) == command) {
+					int flag = parser.getInt(1, Pmtk.ACK_INVALID);
+					LOG.debug("{} acknowledged with {}", body, flag);
+					return flag;
+				}
+				DISCARDED_SENTENCES.increment();
+			}
+			LOG.warn("No acknowledgement for {}, attempt {}", body, attempt);
+		}
+		throw new IOException("No acknowledgement for " + body);
+	}
 
-			// If this is the type we're looking break out of the loop
-			if (dataType.compareTo(type) == 0) {
-				break;
+	/**
+	 * Send a command until the background reader receives its acknowledgement,
+	 * the caller holds commandLock
+	 */
+	private int awaitAcknowledgement(String body, int command) throws IOException {
+		for (int attempt = 1; attempt <= COMMAND_ATTEMPTS; attempt++) {
+			if (attempt > 1) {
+				COMMAND_RETRIES.increment();
+			}
+			synchronized (ackLock) {
+				ackCommand = -1;
 			}
-		} while (true);
+			write(body);
+			long deadline = System.currentTimeMillis() + COMMAND_TIMEOUT;
+			synchronized (ackLock) {
+				try {
+					while (ackCommand != command) {
+						long remaining = deadline - System.currentTimeMillis();
+						if (remaining <= 0 || !readerRunning) {
+							break;
+						}
+						ackLock.wait(remaining);
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted while waiting for the acknowledgement of " + body);
+				}
+				if (ackCommand == command) {
+					LOG.debug("{} acknowledged with {}", body, ackFlag);
+					return ackFlag;
+				}
+			}
+			LOG.warn("No acknowledgement for {}, attempt {}", body, attempt);
+		}
+		throw new IOException("No acknowledgement for " + body);
+	}
 
-		return dataLine.substring(7);
+	/**
+	 * Send a PMTK command and check that it succeeded
+	 *
+	 * @param body The command body
+	 * @throws IOException If the command was not acknowledged or did not succeed
+	 */
+	private void sendVerified(String body) throws IOException {
+		int flag = sendCommand(body);
+		if (flag != Pmtk.ACK_SUCCESS) {
+			throw new IOException(body + " was rejected with flag " + flag);
+		}
 	}
 
 	/**
-	 * Get the current position
+	 * Write a framed command to the UART
 	 *
-	 * @return The position data
+	 * @param body The command body
 	 * @throws IOException If there is an IO error
 	 */
-	public Position getPosition() {
-		String rawData;
-		long timeStamp = 0;
-		double latitude = 0;
-		double longitude = 0;
-		double altitude = 0;
-		char latitudeDirection = 0;
-		char longitudeDirection = 0;
+	private void write(String body) throws IOException {
+		ByteBuffer command = Pmtk.frame(body);
+		while (command.hasRemaining()) {
+			uart.write(command);
+		}
+	}
 
-		// Read data repeatedly, until we have valid data
-		while (true) {
-			/*
-			 * When rawData is returned, we have the correct tag, but we
-			 * still need to check if the values are valid
-			 */
-			try {
-				rawData = getRawData(POSITION_TAG);
-			} catch (IOException e) {
-				return null;
+	/**
+	 * Set the number of fixes per second. The sentence output has to fit the baud
+	 * rate at the new rate, so raise the baud rate or reduce the output first.
+	 *
+	 * @param updateRate Fixes per second, 1 to {@link Pmtk#MAX_UPDATE_RATE}
+	 * @throws IOException If the module did not accept the rate
+	 */
+	public void setUpdateRate(int updateRate) throws IOException {
+		synchronized (commandLock) {
+			String command = Pmtk.setUpdateRate(updateRate);
+			checkCapacity(updateRate, uart.getBaudRate(), outputGga, outputGsa, outputGsv, outputRmc, outputVtg);
+			sendVerified(command);
+			this.updateRate = updateRate;
+			LOG.info("GPS update rate set to {} Hz", updateRate);
+		}
+	}
+
+	/**
+	 * Get the number of fixes per second
+	 *
+	 * @return The update rate
+	 */
+	public int getUpdateRate() {
+		synchronized (commandLock) {
+			return updateRate;
+		}
+	}
+
+	/**
+	 * Choose the sentences the module sends, each once every so many fixes or 0
+	 * to switch it off
+	 *
+	 * @param gga Fixes per GGA sentence, the position
+	 * @param gsa Fixes per GSA sentence, the fix status
+	 * @param gsv Fixes per GSV sequence, the satellites in view
+	 * @param rmc Fixes per RMC sentence, the fix time
+	 * @param vtg Fixes per VTG sentence, the velocity
+	 * @throws IOException If the module did not accept the output
+	 */
+	public void setOutput(int gga, int gsa, int gsv, int rmc, int vtg) throws IOException {
+		synchronized (commandLock) {
+			checkCapacity(updateRate, uart.getBaudRate(), gga, gsa, gsv, rmc, vtg);
+			sendVerified(Pmtk.setOutput(gga, gsa, gsv, rmc, vtg));
+			outputGga = gga;
+			outputGsa = gsa;
+			outputGsv = gsv;
+			outputRmc = rmc;
+			outputVtg = vtg;
+		}
+	}
+
+	/**
+	 * Switch the module and the UART to another baud rate. The module doesn't
+	 * acknowledge this command, so the switch is verified by reading valid
+	 * sentences at the new rate. If they don't arrive the UART goes back to the
+	 * old rate. A running background reader waits while the switch is verified.
+	 *
+	 * @param baudRate The new baud rate, for example 57600 or 115200
+	 * @throws IOException If the module could not be reached at the new rate
+	 */
+	public void setBaudRate(int baudRate) throws IOException {
+		synchronized (commandLock) {
+			String command = Pmtk.setBaudRate(baudRate);
+			int oldBaudRate = uart.getBaudRate();
+			if (baudRate == oldBaudRate) {
+				return;
 			}
+			checkCapacity(updateRate, baudRate, outputGga, outputGsa, outputGsv, outputRmc, outputVtg);
+			synchronized (parserLock) {
+				switchBaudRate(command, baudRate, oldBaudRate);
+			}
+		}
+	}
+
+	/**
+	 * Send the baud rate command and read valid sentences at the new rate, the
+	 * caller holds commandLock and parserLock
+	 */
+	private void switchBaudRate(String command, int baudRate, int oldBaudRate) throws IOException {
+		write(command);
+		try {
+			// Let the command reach the module before the UART changes speed
+			Thread.sleep(50);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while switching the baud rate");
+		}
+		uart.setBaudRate(baudRate);
 
-			// Handle situation where we didn't get data
-			if (rawData == null) {
-				LOG.warn("NULL position data received");
-				continue;
+		// Only sentences read after the switch count, and only checksum-valid ones are parsed
+		boolean switched = false;
+		try {
+			parser.discardBuffered();
+			long before = parser.getSentenceCount();
+			long deadline = System.currentTimeMillis() + COMMAND_TIMEOUT + 1000 / updateRate;
+			while (parser.getSentenceCount() - before < 2 && parser.next(deadline)) {
+				DISCARDED_SENTENCES.increment();
+			}
+			switched = parser.getSentenceCount() - before >= 2;
+		} finally {
+			if (!switched) {
+				uart.setBaudRate(oldBaudRate);
 			}
+		}
+		if (!switched) {
+			throw new IOException("No valid sentences at " + baudRate + " baud");
+		}
+		LOG.info("GPS baud rate set to {}", baudRate);
+	}
 
-			if (rawData.contains("$GP")) {
-				LOG.warn("Corrupt position data");
-				continue;
+	/**
+	 * Set the update rate and the baud rate, in the order that keeps the output
+	 * within the baud rate at every step
+	 *
+	 * @param updateRate Fixes per second, 1 to {@link Pmtk#MAX_UPDATE_RATE}
+	 * @param baudRate The baud rate
+	 * @throws IOException If the module did not accept a setting
+	 */
+	public void configure(int updateRate, int baudRate) throws IOException {
+		synchronized (commandLock) {
+			if (baudRate > uart.getBaudRate()) {
+				setBaudRate(baudRate);
+				setUpdateRate(updateRate);
+			} else {
+				setUpdateRate(updateRate);
+				setBaudRate(baudRate);
 			}
+		}
+	}
 
-			int fieldCount = splitCSVString(rawData);
+	/**
+	 * Check that the sentence output fits a baud rate
+	 *
+	 * @throws IllegalStateException If the output would saturate the baud rate
+	 */
+	private static void checkCapacity(int updateRate, int baudRate, int gga, int gsa, int gsv, int rmc, int vtg) {
+		double needed = Pmtk.bytesPerSecond(updateRate, gga, gsa, gsv, rmc, vtg);
+		if (needed > Pmtk.capacity(baudRate)) {
+			throw new IllegalStateException("Sending " + Math.round(needed) + " bytes/s at " + updateRate
+					+ " Hz doesn't fit " + baudRate + " baud, raise the baud rate or reduce the output");
+		}
+	}
 
-			/*
-			 * The position data must have 10 fields to it to be valid, so reject the
-			 * data if we don't have the correct number
-			 */
-			if (fieldCount < 10) {
-				LOG.warn("Incorrect position field count");
-				continue;
-			}
-			LOG.info("position data = " + rawData);
+	/**
+	 * Get the latest UTC date and time of a fix, from the RMC sentences read by
+	 * the background reader
+	 *
+	 * @return The fix time, or null if none was received
+	 */
+	public FixTime getFixTime() {
+		return latestFixTime;
+	}
 
-			// Record a time stamp for the reading
-			Date now = new Date();
-			timeStamp = now.getTime() / 1000;
+	/**
+	 * Get the latest fix type, dilution of precision and satellites used, from
+	 * the GSA sentences read by the background reader
+	 *
+	 * @return The fix status, or null if none was received
+	 */
+	public FixStatus getFixStatus() {
+		return latestFixStatus;
+	}
 
-			/*
-			 * Parse the relevant fields into values that we can use to create a new
-			 * Position object.
-			 */
-			try {
-				latitude = Double.parseDouble(fields.get(1)) / 100;
-				latitudeDirection = fields.get(2).toCharArray()[0];
-			} catch (NumberFormatException nfe) {
-				LOG.warn("Badly formatted latitude number", nfe);
-				continue;
-			}
+	/**
+	 * Get the latest satellites in view, from the GSV sentences read by the
+	 * background reader
+	 *
+	 * @return The satellites, or null if none were received
+	 */
+	public SatellitesInView getSatellitesInView() {
+		return latestSatellites;
+	}
 
-			try {
-				longitude = Double.parseDouble(fields.get(3)) / 100;
-				longitudeDirection = fields.get(4).toCharArray()[0];
-			} catch (NumberFormatException nfe) {
-				LOG.warn("Badly formatted longitude number", nfe);
-				continue;
+	/**
+	 * Wait for a position received after the given time. Requires the background
+	 * reader to be running.
+	 *
+	 * @param newerThan Time in milliseconds from the epoch, the position must have been received after this time
+	 * @param timeout Maximum time to wait in milliseconds
+	 * @return The position, or null if the time out expired or the reader stopped
+	 * @throws InterruptedException If the calling thread was interrupted while waiting
+	 */
+	public Position awaitPosition(long newerThan, long timeout) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeout;
+		synchronized (fixLock) {
+			while (positionReceived <= newerThan) {
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0 || !readerRunning) {
+					return null;
+				}
+				fixLock.wait(remaining);
 			}
+			return latestPosition();
+		}
+	}
 
-			try {
-				altitude = Double.parseDouble(fields.get(8));
-			} catch (NumberFormatException nfe) {
-				LOG.warn("Badly formatted altitude number", nfe);
-				continue;
+	/**
+	 * Wait for a velocity received after the given time. Requires the background
+	 * reader to be running.
+	 *
+	 * @param newerThan Time in milliseconds from the epoch, the velocity must have been received after this time
+	 * @param timeout Maximum time to wait in milliseconds
+	 * @return The velocity, or null if the time out expired or the reader stopped
+	 * @throws InterruptedException If the calling thread was interrupted while waiting
+	 */
+	public Velocity awaitVelocity(long newerThan, long timeout) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeout;
+		synchronized (fixLock) {
+			while (velocityReceived <= newerThan) {
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0 || !readerRunning) {
+					return null;
+				}
+				fixLock.wait(remaining);
 			}
-
-      		// Passed all the tests so we have valid data
-			break;
+			return latestVelocity();
 		}
-
-    /* Return the encapsulated data */
-		return new Position(timeStamp, latitude, latitudeDirection, longitude, longitudeDirection, altitude);
 	}
 
 	/**
-	 * Get the current velocity
+	 * Advance the parser to the next sentence with the given tag, skipping all
+	 * other sentences.
 	 *
-	 * @return The velocity data
+	 * @param tag The tag of the sentence we want
+	 * @return true if a sentence was found, false if the stream ended
 	 * @throws IOException If there is an IO error
 	 */
-	public Velocity getVelocity() {
+	private boolean nextSentence(byte[] tag) throws IOException {
+		while (parser.next()) {
+			if (parser.isSentence(tag)) {
+				return true;
+			}
+			DISCARDED_SENTENCES.increment();
+		}
+		return false;
+	}
 
-		double track = 0;
-		double speed = 0;
-		String rawData;
-		while (true) {
+	/**
+	 * Get a string of raw data from the GPS receiver.  How this happens is
+	 * sub-class dependent. Not available while the background reader is running.
+	 *
+	 * @param type The type of data to be retrieved
+	 * @return A line of data for that type
+	 * @throws IOException If there is an IO error
+	 */
+	public String getRawData(String type) throws IOException {
+		if (readerRunning) {
+			throw new IllegalStateException("Raw data is not available while the reader is running");
+		}
+		/**
+		 * Retrieve a line with the appropriate tag. Return null in the case of
+		 * an error
+		 */
+		synchronized (parserLock) {
 			try {
-				rawData = getRawData(VELOCITY_TAG);
-			} catch (IOException e) {
+				while (parser.next()) {
+					if (parser.isSentence(type)) {
+						return parser.getRawData();
+					}
+					DISCARDED_SENTENCES.increment();
+				}
+			} catch (IOException ex) {
 				return null;
 			}
-			LOG.info("velocity data = " + rawData);
+			return null;
+		}
+	}
 
-			// Handle the situation where we didn't get valid data
-			if (rawData == null) {
-				LOG.warn("NULL velocity data received");
-				continue;
+	/**
+	 * Get the current position. If the background reader is running this returns
+	 * the latest position immediately, which is null until the first fix arrives.
+	 *
+	 * @return The position data
+	 */
+	@Override
+	public Position getPosition() {
+		if (readerRunning) {
+			synchronized (fixLock) {
+				return latestPosition();
 			}
+		}
+		MutablePosition position = new MutablePosition();
+		return readPosition(position) ? position.toPosition() : null;
+	}
 
-			int fieldCount = splitCSVString(rawData);
-
-			if (fieldCount < 8) {
-				LOG.warn("Incorrect velocity field count, expected 8 got " + fieldCount);
-				continue;
+	/**
+	 * Read the current position into a holder. If the background reader is
+	 * running this copies the latest position immediately, otherwise it reads
+	 * sentences until a valid position arrives. Neither creates any objects.
+	 *
+	 * @param into Holder to fill
+	 * @return true if the holder was filled, false before the first fix or at the end of the data
+	 */
+	@Override
+	public boolean readPosition(MutablePosition into) {
+		if (readerRunning) {
+			synchronized (fixLock) {
+				if (positionReceived == 0) {
+					return false;
+				}
+				into.set(fixPosition);
+				return true;
 			}
+		}
 
-			// Extract the track and velocity of the GPS receiver
-			try {
-				track = Double.parseDouble(fields.get(0));
-			} catch (NumberFormatException nfe) {
-				LOG.warn("Badly formatted track number", nfe);
-				continue;
+		long start = System.nanoTime();
+		try {
+			synchronized (parserLock) {
+				return readPositionFromParser(into);
 			}
+		} finally {
+			POSITION_LATENCY.recordSince(start);
+		}
+	}
 
+	/**
+	 * Read sentences until a valid position arrives, the caller holds parserLock
+	 */
+	private boolean readPositionFromParser(MutablePosition into) {
+		// Read data repeatedly, until we have valid data
+		while (true) {
+			/*
+			 * When the parser returns, we have the correct tag and a valid checksum,
+			 * but we still need to check if the values are valid
+			 */
 			try {
-				speed = Double.parseDouble(fields.get(6));
-			} catch (NumberFormatException nfe) {
-				LOG.warn("Badly formatted speed number", nfe);
-				continue;
+				if (!nextSentence(POSITION_TAG)) {
+					LOG.warn("End of GPS data reached");
+					return false;
+				}
+			} catch (IOException e) {
+				return false;
 			}
 
-			break;
+			// Record a time stamp for the reading
+			if (NmeaDecoder.decodePosition(parser, System.currentTimeMillis() / 1000, into)) {
+				return true;
+			}
+			INVALID_SENTENCES.increment();
 		}
+	}
 
+	/**
+	 * Get an immutable copy of the latest position, the caller holds fixLock
+	 *
+	 * @return The position, or null before the first fix
+	 */
+	private Position latestPosition() {
+		if (latestPosition == null && positionReceived != 0) {
+			latestPosition = fixPosition.toPosition();
+		}
+		return latestPosition;
+	}
 
+	/**
+	 * Get the current velocity. If the background reader is running this returns
+	 * the latest velocity immediately, which is null until the first fix arrives.
+	 *
+	 * @return The velocity data
+	 */
+	@Override
+	public Velocity getVelocity() {
+		if (readerRunning) {
+			synchronized (fixLock) {
+				return latestVelocity();
+			}
+		}
+		MutableVelocity velocity = new MutableVelocity();
+		return readVelocity(velocity) ? velocity.toVelocity() : null;
+	}
 
-		// Record a time stamp for the reading
-		Date now = new Date();
-		long timeStamp = now.getTime() / 1000;
+	/**
+	 * Read the current velocity into a holder. If the background reader is
+	 * running this copies the latest velocity immediately, otherwise it reads
+	 * sentences until a valid velocity arrives. Neither creates any objects.
+	 *
+	 * @param into Holder to fill
+	 * @return true if the holder was filled, false before the first fix or at the end of the data
+	 */
+	@Override
+	public boolean readVelocity(MutableVelocity into) {
+		if (readerRunning) {
+			synchronized (fixLock) {
+				if (velocityReceived == 0) {
+					return false;
+				}
+				into.set(fixVelocity);
+				return true;
+			}
+		}
 
-		// Return the Velocity object
-		return new Velocity(timeStamp, track, speed);
+		long start = System.nanoTime();
+		try {
+			synchronized (parserLock) {
+				return readVelocityFromParser(into);
+			}
+		} finally {
+			VELOCITY_LATENCY.recordSince(start);
+		}
 	}
 
 	/**
-	 * Break a comma separated value string into its individual fields. We need to
-	 * have this as explicit code because Java ME does not support String.split or
-	 * java.util.regex and StringTokenizer has a bug that affects empty fields.
-	 *
-	 * @param input The CSV input string
-	 * @return The number of fields extracted
+	 * Read sentences until a valid velocity arrives, the caller holds parserLock
 	 */
-	private int splitCSVString(String input) {
-		// Clear the list of data fields
-		fields.clear();
-		int start = 0;
-		int end;
+	private boolean readVelocityFromParser(MutableVelocity into) {
+		while (true) {
+			try {
+				if (!nextSentence(VELOCITY_TAG)) {
+					LOG.warn("End of GPS data reached");
+					return false;
+				}
+			} catch (IOException e) {
+				return false;
+			}
 
-		while ((end = input.indexOf(",", start)) != -1) {
-			fields.add(input.substring(start, end));
-			start = end + 1;
+			// Record a time stamp for the reading
+			if (NmeaDecoder.decodeVelocity(parser, System.currentTimeMillis() / 1000, into)) {
+				return true;
+			}
+			INVALID_SENTENCES.increment();
 		}
+	}
 
-		return fields.size();
+	/**
+	 * Get an immutable copy of the latest velocity, the caller holds fixLock
+	 *
+	 * @return The velocity, or null before the first fix
+	 */
+	private Velocity latestVelocity() {
+		if (latestVelocity == null && velocityReceived != 0) {
+			latestVelocity = fixVelocity.toVelocity();
+		}
+		return latestVelocity;
 	}
 
 	/**
@@ -303,7 +939,7 @@ public class AdaFruitGPSSensor implements GpsSensor{
 	 */
 	@Override
 	public void close() throws IOException {
-		serialBufferedReader.close();
+		stopReader();
 		uart.close();
 	}
 }
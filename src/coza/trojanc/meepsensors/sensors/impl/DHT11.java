@@ -10,12 +10,15 @@ import java.io.IOException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import coza.trojanc.meepsensors.io.DeviceProvider;
+import coza.trojanc.meepsensors.io.DigitalPin;
+import coza.trojanc.meepsensors.io.EdgeDetectingPin;
+import coza.trojanc.meepsensors.io.dio.DioDeviceProvider;
+import coza.trojanc.meepsensors.metrics.Counter;
+import coza.trojanc.meepsensors.metrics.Histogram;
+import coza.trojanc.meepsensors.metrics.MetricsRegistry;
 import coza.trojanc.meepsensors.sensors.HumiditySensor;
 import coza.trojanc.meepsensors.sensors.TemperatureSensor;
-import jdk.dio.DeviceConfig;
-import jdk.dio.DeviceManager;
-import jdk.dio.gpio.GPIOPin;
-import jdk.dio.gpio.GPIOPinConfig;
 
 /**
  * WARNING, This class is still untested. Java ME 8 does not support one wire coms for raspberry pi. So this code is not tested!
@@ -27,24 +30,347 @@ public class DHT11 implements TemperatureSensor, HumiditySensor{
 	public static final int DHTLIB_ERROR_TIMEOUT = -2;
 	private static final boolean LOW = false;
 	private static final boolean HIGH = true;
+
+	/**
+	 * Edges in a frame: the response low and high, then a low and a high for
+	 * every bit, and the release at the end
+	 */
+	private static final int FRAME_EDGES = 84;
+
+	/**
+	 * Longest a frame can take, with every bit a '1'
+	 */
+	private static final long FRAME_TIMEOUT_NANOS = 10000000L;
+
+	/**
+	 * Time without edges after which a frame has ended. The line never stays at
+	 * one level for longer than the 80us response within a frame.
+	 */
+	private static final long QUIET_NANOS = 200000L;
+
+	/**
+	 * Latency of every read of the sensor, and the outcomes of the reads and acquisitions
+	 */
+	private static final Histogram READ_LATENCY = MetricsRegistry.getDefault().histogram("dht11.read");
+	private static final Counter TIMEOUTS = MetricsRegistry.getDefault().counter("dht11.timeouts");
+	private static final Counter CHECKSUM_ERRORS = MetricsRegistry.getDefault().counter("dht11.checksum_errors");
+	private static final Counter RETRIES = MetricsRegistry.getDefault().counter("dht11.retries");
+	private static final Counter ACQUISITIONS = MetricsRegistry.getDefault().counter("dht11.acquisitions");
+	private static final Counter FAILED_ACQUISITIONS = MetricsRegistry.getDefault().counter("dht11.failed_acquisitions");
 	
 	private final int pinNumber;
 	
 	private int humidity = 0;
 	private int temperature = 0;
 	
-	private GPIOPin dhtPin;
+	private DigitalPin dhtPin;
+
+	/**
+	 * If set, edges are captured and decoded afterwards instead of timing the
+	 * bits while they arrive
+	 */
+	private boolean edgeCapture = true;
+
+	/**
+	 * Times and new levels of the most recent edges, in a ring indexed by the
+	 * edge number modulo its size, so extra edges before the frame such as a
+	 * glitch or the release by the host are overwritten instead of crowding out
+	 * the end of the frame
+	 */
+	private final long[] edgeTimes = new long[FRAME_EDGES];
+	private final boolean[] edgeLevels = new boolean[FRAME_EDGES];
+
+	/**
+	 * Number of edges captured, and the time (System.nanoTime) the last one was recorded
+	 */
+	private int edgeCount;
+	private long lastEdgeNanos;
+
+	/**
+	 * The decoded frame
+	 */
+	private final int[] frame = new int[5];
+
+	/**
+	 * Guards the cached sample and the acquisition state
+	 */
+	private final Object sampleLock = new Object();
+
+	/**
+	 * The cached sample and the time it was read, 0 if there is none
+	 */
+	private int sampleHumidity;
+	private int sampleTemperature;
+	private long sampleTime;
+
+	/**
+	 * Time of the last acquisition, successful or not
+	 */
+	private long acquiredAt;
+
+	/**
+	 * Set while an acquisition is in progress
+	 */
+	private boolean acquiring;
+
+	private long minIntervalMillis = 1000;
+	private int retries = 2;
+	private long retryDelayMillis = 200;
+
+	/**
+	 * Records the edges reported by pins that detect them
+	 */
+	private final EdgeDetectingPin.EdgeListener edgeRecorder = new EdgeDetectingPin.EdgeListener() {
+		@Override
+		public synchronized void edge(boolean level, long timestampNanos) {
+			recordEdge(level, timestampNanos, System.nanoTime());
+			if (edgeCount == FRAME_EDGES - 2) {
+				notifyAll();
+			}
+		}
+	};
 	
 	public DHT11() throws IOException{
 		this(17);
 	}
 	
 	public DHT11(int pin) throws IOException{
+		this(DioDeviceProvider.getInstance(), pin);
+	}
+	
+	public DHT11(DeviceProvider provider, int pin) throws IOException{
 		pinNumber = pin;
-		dhtPin = (GPIOPin)DeviceManager.open(new GPIOPinConfig(0, pin, GPIOPinConfig.DIR_BOTH_INIT_INPUT, GPIOPinConfig.DEFAULT, GPIOPinConfig.TRIGGER_NONE, LOW));
+		dhtPin = provider.openDigitalPin(0, pin);
 	}
 	
+	/**
+	 * Choose how the frame is read. With edge capture the edges of the whole
+	 * frame are recorded first, from the pin's edge events if it reports them or
+	 * else by sampling the pin without sleeping, and decoded afterwards. Without
+	 * it every bit is timed while it arrives, which needs sub microsecond sleeps.
+	 *
+	 * @param edgeCapture true to capture the edges, the default
+	 */
+	public void setEdgeCapture(boolean edgeCapture){
+		this.edgeCapture = edgeCapture;
+	}
+
+	/**
+	 * Set how long a sample is reused before the sensor is read again. The DHT11
+	 * needs about a second between reads.
+	 *
+	 * @param minIntervalMillis Minimum time between acquisitions in milliseconds
+	 */
+	public void setMinInterval(long minIntervalMillis){
+		synchronized (sampleLock){
+			this.minIntervalMillis = minIntervalMillis;
+		}
+	}
+
+	/**
+	 * Set how often a failed read is retried within one acquisition
+	 *
+	 * @param retries Number of retries, 0 to not retry
+	 * @param retryDelayMillis Time to wait before a retry in milliseconds
+	 */
+	public void setRetries(int retries, long retryDelayMillis){
+		synchronized (sampleLock){
+			this.retries = retries;
+			this.retryDelayMillis = retryDelayMillis;
+		}
+	}
+
+	/**
+	 * Make sure the cached sample is recent. The sensor is read at most once per
+	 * minimum interval. Callers arriving while a read is in progress wait for it
+	 * and use its result instead of reading again. If all attempts fail the
+	 * previous sample is kept.
+	 */
+	private void acquire(){
+		int attempts;
+		long delay;
+		synchronized (sampleLock){
+			if (acquiredAt != 0 && System.currentTimeMillis() - acquiredAt < minIntervalMillis){
+				return;
+			}
+			if (acquiring){
+				try {
+					while (acquiring){
+						sampleLock.wait();
+					}
+				} catch (InterruptedException e){
+					Thread.currentThread().interrupt();
+				}
+				return;
+			}
+			acquiring = true;
+			attempts = retries + 1;
+			delay = retryDelayMillis;
+		}
+		int result = DHTLIB_ERROR_TIMEOUT;
+		try {
+			for (int attempt = 0; attempt < attempts && result != DHTLIB_OK; attempt++){
+				if (attempt > 0){
+					RETRIES.increment();
+					delay((int) delay);
+				}
+				long start = System.nanoTime();
+				try {
+					result = read();
+				} catch (IOException e){
+					Logger.getLogger(DHT11.class.getName()).log(Level.WARNING, "Exception while reading DHT11", e);
+					result = DHTLIB_ERROR_TIMEOUT;
+				} finally {
+					READ_LATENCY.recordSince(start);
+				}
+				if (result == DHTLIB_ERROR_TIMEOUT) TIMEOUTS.increment();
+				else if (result == DHTLIB_ERROR_CHECKSUM) CHECKSUM_ERRORS.increment();
+			}
+		} catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+		} finally {
+			synchronized (sampleLock){
+				long now = System.currentTimeMillis();
+				ACQUISITIONS.increment();
+				if (result == DHTLIB_OK){
+					sampleHumidity = humidity;
+					sampleTemperature = temperature;
+					sampleTime = now;
+				} else {
+					FAILED_ACQUISITIONS.increment();
+				}
+				acquiredAt = now;
+				acquiring = false;
+				sampleLock.notifyAll();
+			}
+		}
+	}
+
 	private int read() throws IOException, InterruptedException{
+		return edgeCapture ? readCaptured() : readPolled();
+	}
+
+	/**
+	 * Send the start signal, capture the edges of the frame and decode them
+	 */
+	private int readCaptured() throws IOException, InterruptedException{
+		dhtPin.setDirection(DigitalPin.OUTPUT);
+		dhtPin.setValue(LOW);
+		delay(18);
+		dhtPin.setValue(HIGH);
+
+		if (dhtPin instanceof EdgeDetectingPin){
+			EdgeDetectingPin pin = (EdgeDetectingPin) dhtPin;
+			synchronized (edgeRecorder){
+				edgeCount = 0;
+			}
+			dhtPin.setDirection(DigitalPin.INPUT);
+			pin.setEdgeListener(edgeRecorder);
+			try {
+				long deadline = System.nanoTime() + FRAME_TIMEOUT_NANOS;
+				synchronized (edgeRecorder){
+					while (true){
+						// Once enough edges arrived the frame ends when the line goes quiet
+						long until = deadline;
+						if (edgeCount >= FRAME_EDGES - 2){
+							until = Math.min(deadline, lastEdgeNanos + QUIET_NANOS);
+						}
+						long remaining = until - System.nanoTime();
+						if (remaining <= 0){
+							break;
+						}
+						edgeRecorder.wait(remaining / 1000000L, (int) (remaining % 1000000L));
+					}
+				}
+			} finally {
+				pin.setEdgeListener(null);
+			}
+		} else {
+			sampleEdges();
+		}
+		synchronized (edgeRecorder){
+			return decodeEdges();
+		}
+	}
+
+	/**
+	 * Record the edges by reading the pin in a tight loop, until the line goes
+	 * quiet after the frame. The line is high when released, so every change of
+	 * the level read is an edge.
+	 */
+	private void sampleEdges() throws IOException{
+		edgeCount = 0;
+		boolean level = HIGH;
+		long start = System.nanoTime();
+		dhtPin.setDirection(DigitalPin.INPUT);
+		while (true){
+			boolean value = dhtPin.getValue();
+			long now = System.nanoTime();
+			if (value != level){
+				recordEdge(value, now, now);
+				level = value;
+			} else if (edgeCount >= FRAME_EDGES - 2 && now - lastEdgeNanos > QUIET_NANOS){
+				return;
+			} else if (now - start > FRAME_TIMEOUT_NANOS){
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Add an edge to the ring of captured edges
+	 *
+	 * @param level The new level
+	 * @param timestampNanos Time of the edge as reported by the pin
+	 * @param now The current System.nanoTime
+	 */
+	private void recordEdge(boolean level, long timestampNanos, long now){
+		int slot = edgeCount % FRAME_EDGES;
+		edgeTimes[slot] = timestampNanos;
+		edgeLevels[slot] = level;
+		edgeCount++;
+		lastEdgeNanos = now;
+	}
+
+	/**
+	 * Decode the captured edges. The bits are found from the end of the frame,
+	 * so edges of the response missed while the capture started, and extra
+	 * edges before the frame, don't matter. A bit is a '1' when its high lasts
+	 * longer than the low before it, which holds for the 27us and 70us highs
+	 * after a 50us low however the clock is scaled.
+	 */
+	private int decodeEdges(){
+		// The frame ends with the low of the last bit and the release
+		int last = edgeCount - 2;
+		if (last < 80 || edgeLevels[(last + 1) % FRAME_EDGES] != HIGH){
+			return DHTLIB_ERROR_TIMEOUT;
+		}
+		int first = last - 80;
+		for (int i = 0; i < 5; i++) frame[i] = 0;
+		for (int i = 0; i < 40; i++){
+			int low = (first + 2 * i) % FRAME_EDGES;
+			int high = (low + 1) % FRAME_EDGES;
+			int next = (low + 2) % FRAME_EDGES;
+			if (edgeLevels[low] != LOW || edgeLevels[high] != HIGH || edgeLevels[next] != LOW){
+				// Edges were lost
+				return DHTLIB_ERROR_TIMEOUT;
+			}
+			long lowNanos = edgeTimes[high] - edgeTimes[low];
+			long highNanos = edgeTimes[next] - edgeTimes[high];
+			if (highNanos > lowNanos){
+				frame[i / 8] |= 0x80 >> (i % 8);
+			}
+		}
+		if (((frame[0] + frame[1] + frame[2] + frame[3]) & 0xFF) != frame[4]) return DHTLIB_ERROR_CHECKSUM;
+		humidity = frame[0];
+		temperature = frame[2];
+		return DHTLIB_OK;
+	}
+
+	/**
+	 * Send the start signal and time every bit while it arrives
+	 */
+	private int readPolled() throws IOException, InterruptedException{
 		// BUFFER TO RECEIVE
 		int[] bits = new int[5];
 		int cnt = 7;
@@ -56,7 +382,7 @@ public class DHT11 implements TemperatureSensor, HumiditySensor{
 		 * and this process must take at least 18ms to ensure DHT’s detection
 		 * of MCU's signal,
 		 */
-		dhtPin.setDirection(GPIOPin.OUTPUT);
+		dhtPin.setDirection(DigitalPin.OUTPUT);
 		dhtPin.setValue(LOW);
 		delay(18);
 
@@ -65,7 +391,7 @@ public class DHT11 implements TemperatureSensor, HumiditySensor{
 		 */
 		dhtPin.setValue(HIGH);
 		delayMicroseconds(40);
-		dhtPin.setDirection(GPIOPin.INPUT);
+		dhtPin.setDirection(DigitalPin.INPUT);
 
 		/**
 		 * Once DHT detects the start signal, it will send out a
@@ -156,21 +482,67 @@ public class DHT11 implements TemperatureSensor, HumiditySensor{
 
 	@Override
 	public double getHumidity() {
-		try {
-			read();
-		} catch (IOException | InterruptedException e) {
-			e.printStackTrace();
+		acquire();
+		synchronized (sampleLock){
+			return sampleHumidity;
 		}
-		return humidity;
 	}
 
 	@Override
 	public double getTemparature() {
-		try {
-			read();
-		} catch (IOException | InterruptedException e) {
-			e.printStackTrace();
+		acquire();
+		synchronized (sampleLock){
+			return sampleTemperature;
+		}
+	}
+
+	/**
+	 * Get the time the cached sample was read. Humidity and temperature read
+	 * within the minimum interval come from this one sample.
+	 *
+	 * @return The time in milliseconds, 0 if no read has succeeded yet
+	 */
+	public long getSampleTime() {
+		synchronized (sampleLock){
+			return sampleTime;
 		}
-		return temperature;
+	}
+
+	/**
+	 * Get the number of acquisitions, each being up to 1 + retries reads. Like
+	 * the other counts this is the <code>dht11</code> metric, shared by all DHT11
+	 * sensors.
+	 *
+	 * @return The acquisition count
+	 */
+	public long getAcquisitions() {
+		return ACQUISITIONS.get();
+	}
+
+	/**
+	 * Get the number of acquisitions where every read failed
+	 *
+	 * @return The failed acquisition count
+	 */
+	public long getFailedAcquisitions() {
+		return FAILED_ACQUISITIONS.get();
+	}
+
+	/**
+	 * Get the number of reads that failed with {@link #DHTLIB_ERROR_TIMEOUT}
+	 *
+	 * @return The timeout count
+	 */
+	public long getTimeouts() {
+		return TIMEOUTS.get();
+	}
+
+	/**
+	 * Get the number of reads that failed with {@link #DHTLIB_ERROR_CHECKSUM}
+	 *
+	 * @return The checksum error count
+	 */
+	public long getChecksumErrors() {
+		return CHECKSUM_ERRORS.get();
 	}
 }
@@ -0,0 +1,51 @@
+package coza.trojanc.meepsensors.store;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads the bit fields written by {@link BitOutput} from a ByteBuffer.
+ */
+class BitInput {
+
+	private ByteBuffer in;
+	private long word;
+	private int bits;
+
+	/**
+	 * Start reading from a buffer
+	 */
+	void reset(ByteBuffer in) {
+		this.in = in;
+		word = 0;
+		bits = 0;
+	}
+
+	/**
+	 * Read a bit field
+	 *
+	 * @param count Number of bits, 0 to 64
+	 * @return The bits in the lowest count bits
+	 */
+	long read(int count) {
+		if (count > 32) {
+			long high = read(count - 32);
+			return (high << 32) | read(32);
+		}
+		if (count == 0) {
+			return 0;
+		}
+		while (bits < count) {
+			word = (word << 8) | (in.get() & 0xFF);
+			bits += 8;
+		}
+		bits -= count;
+		return (word >>> bits) & ((1L << count) - 1);
+	}
+
+	/**
+	 * Read a single bit
+	 */
+	boolean readBit() {
+		return read(1) != 0;
+	}
+}
@@ -0,0 +1,69 @@
+package coza.trojanc.meepsensors.store;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Writes bit fields to a ByteBuffer, most significant bit first. Bits are
+ * collected in a 64 bit word and written a byte at a time.
+ */
+class BitOutput {
+
+	private ByteBuffer out;
+	private long word;
+	private int bits;
+
+	/**
+	 * Start writing to a buffer
+	 */
+	void reset(ByteBuffer out) {
+		this.out = out;
+		word = 0;
+		bits = 0;
+	}
+
+	/**
+	 * Write the lowest count bits of a value
+	 *
+	 * @param value The bits
+	 * @param count Number of bits, 0 to 64
+	 */
+	void write(long value, int count) {
+		if (count > 32) {
+			write(value >>> 32, count - 32);
+			count = 32;
+		}
+		if (count == 0) {
+			return;
+		}
+		word = (word << count) | (value & ((1L << count) - 1));
+		bits += count;
+		while (bits >= 8) {
+			bits -= 8;
+			out.put((byte) (word >>> bits));
+		}
+	}
+
+	/**
+	 * Write a single bit
+	 */
+	void writeBit(boolean bit) {
+		write(bit ? 1 : 0, 1);
+	}
+
+	/**
+	 * Write the bits still held, padding the last byte with zeros
+	 */
+	void flush() {
+		if (bits > 0) {
+			out.put((byte) (word << (8 - bits)));
+			bits = 0;
+		}
+	}
+
+	/**
+	 * Get the number of bits written but not yet in the buffer
+	 */
+	int pendingBits() {
+		return bits;
+	}
+}
@@ -0,0 +1,113 @@
+package coza.trojanc.meepsensors.store;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads back a block written by {@link GorillaEncoder}, one sample at a time.
+ * Nothing is allocated.
+ *
+ * <pre>
+ * decoder.reset(block, count);
+ * while (decoder.next()) {
+ *     use(decoder.getTimestamp(), decoder.getValue());
+ * }
+ * </pre>
+ */
+public class GorillaDecoder {
+
+	private final BitInput in = new BitInput();
+
+	private int remaining;
+	private boolean first;
+	private long timestamp;
+	private long interval;
+	private long value;
+	private int leading;
+	private int trailing;
+
+	/**
+	 * Start reading a block
+	 *
+	 * @param buffer Buffer holding the block at its position
+	 * @param count Number of samples in the block
+	 */
+	public void reset(ByteBuffer buffer, int count) {
+		in.reset(buffer);
+		remaining = count;
+		first = true;
+	}
+
+	/**
+	 * Decode the next sample
+	 *
+	 * @return false if all samples have been read
+	 */
+	public boolean next() {
+		if (remaining == 0) {
+			return false;
+		}
+		remaining--;
+		if (first) {
+			first = false;
+			timestamp = in.read(64);
+			value = in.read(64);
+			interval = 0;
+			return true;
+		}
+
+		long change;
+		if (!in.readBit()) {
+			change = 0;
+		} else if (!in.readBit()) {
+			change = signExtend(in.read(7), 7);
+		} else if (!in.readBit()) {
+			change = signExtend(in.read(9), 9);
+		} else if (!in.readBit()) {
+			change = signExtend(in.read(12), 12);
+		} else {
+			change = in.read(64);
+		}
+		interval += change;
+		timestamp += interval;
+
+		if (in.readBit()) {
+			if (in.readBit()) {
+				leading = (int) in.read(5);
+				int length = (int) in.read(6);
+				if (length == 0) {
+					length = 64;
+				}
+				trailing = 64 - leading - length;
+			}
+			value ^= in.read(64 - leading - trailing) << trailing;
+		}
+		return true;
+	}
+
+	/**
+	 * Sign extend a field written in the lowest bits, with the encoder's ranges
+	 * reaching one further on the positive side
+	 */
+	private static long signExtend(long field, int bits) {
+		long limit = 1L << (bits - 1);
+		return field > limit ? field - (1L << bits) : field;
+	}
+
+	/**
+	 * Get the timestamp of the current sample
+	 *
+	 * @return The timestamp in milliseconds
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * Get the value of the current sample
+	 *
+	 * @return The value
+	 */
+	public double getValue() {
+		return Double.longBitsToDouble(value);
+	}
+}
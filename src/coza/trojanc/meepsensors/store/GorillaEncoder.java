@@ -0,0 +1,139 @@
+package coza.trojanc.meepsensors.store;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Compresses a stream of timestamped samples of one channel into a block, as
+ * described for Facebook's Gorilla time series database. The first sample is
+ * stored in full. After that a timestamp is stored as the change in the
+ * interval since the previous sample, which is 0 for evenly spaced samples and
+ * takes a single bit, and a value as the XOR with the previous value, which is
+ * 0 or has few meaningful bits for slowly changing readings.
+ *
+ * <pre>
+ * timestamp  '0'                          same interval
+ *            '10'   + 7 bits              interval change in [-63, 64]
+ *            '110'  + 9 bits              interval change in [-255, 256]
+ *            '1110' + 12 bits             interval change in [-2047, 2048]
+ *            '1111' + 64 bits             any other interval change
+ * value      '0'                          same value
+ *            '10'   + meaningful bits     XOR fits the previous leading and trailing zeros
+ *            '11'   + 5 bits leading zeros + 6 bits length + meaningful bits
+ * </pre>
+ *
+ * Samples are encoded as they arrive and nothing is allocated. A block is read
+ * back with {@link GorillaDecoder} given the number of samples in it.
+ */
+public class GorillaEncoder {
+
+	/**
+	 * Most bytes a single sample can take
+	 */
+	public static final int MAX_SAMPLE_BYTES = 19;
+
+	private final BitOutput out = new BitOutput();
+	private ByteBuffer buffer;
+
+	private int count;
+	private long timestamp;
+	private long interval;
+	private long value;
+	private int leading;
+	private int trailing;
+
+	/**
+	 * Start a new block
+	 *
+	 * @param buffer Buffer receiving the block, written from its position
+	 */
+	public void reset(ByteBuffer buffer) {
+		this.buffer = buffer;
+		out.reset(buffer);
+		count = 0;
+		leading = Integer.MAX_VALUE;
+		trailing = 0;
+	}
+
+	/**
+	 * Encode a sample
+	 *
+	 * @param timestamp Time of the sample in milliseconds
+	 * @param sample The sample
+	 * @return false if the buffer has no room for the sample, the block is then complete
+	 */
+	public boolean append(long timestamp, double sample) {
+		if (buffer.remaining() < MAX_SAMPLE_BYTES) {
+			return false;
+		}
+		long bits = Double.doubleToRawLongBits(sample);
+		if (count == 0) {
+			out.write(timestamp, 64);
+			out.write(bits, 64);
+			this.timestamp = timestamp;
+			this.interval = 0;
+			this.value = bits;
+			count++;
+			return true;
+		}
+
+		long newInterval = timestamp - this.timestamp;
+		long change = newInterval - interval;
+		if (change == 0) {
+			out.write(0, 1);
+		} else if (change >= -63 && change <= 64) {
+			out.write(0b10, 2);
+			out.write(change, 7);
+		} else if (change >= -255 && change <= 256) {
+			out.write(0b110, 3);
+			out.write(change, 9);
+		} else if (change >= -2047 && change <= 2048) {
+			out.write(0b1110, 4);
+			out.write(change, 12);
+		} else {
+			out.write(0b1111, 4);
+			out.write(change, 64);
+		}
+		this.timestamp = timestamp;
+		interval = newInterval;
+
+		long xor = bits ^ value;
+		if (xor == 0) {
+			out.write(0, 1);
+		} else {
+			int newLeading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+			int newTrailing = Long.numberOfTrailingZeros(xor);
+			if (newLeading >= leading && newTrailing >= trailing) {
+				out.write(0b10, 2);
+				out.write(xor >>> trailing, 64 - leading - trailing);
+			} else {
+				int length = 64 - newLeading - newTrailing;
+				out.write(0b11, 2);
+				out.write(newLeading, 5);
+				// A length of 64 doesn't fit in 6 bits and is written as 0
+				out.write(length, 6);
+				out.write(xor >>> newTrailing, length);
+				leading = newLeading;
+				trailing = newTrailing;
+			}
+		}
+		value = bits;
+		count++;
+		return true;
+	}
+
+	/**
+	 * Write the last partial byte of the block. Call once after the last sample.
+	 */
+	public void finish() {
+		out.flush();
+	}
+
+	/**
+	 * Get the number of samples in the block
+	 *
+	 * @return The sample count
+	 */
+	public int getCount() {
+		return count;
+	}
+}
@@ -0,0 +1,150 @@
+package coza.trojanc.meepsensors.store;
+
+import coza.trojanc.meepsensors.sensors.data.Position;
+import coza.trojanc.meepsensors.sensors.data.ReadablePosition;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads back a block written by {@link PositionEncoder}, one position at a
+ * time. The fields of the current position are available from the getters
+ * without allocating, {@link #toPosition()} creates a Position from them.
+ */
+public class PositionDecoder implements ReadablePosition {
+
+	private ByteBuffer buffer;
+	private int remaining;
+	private long time;
+	private long interval;
+	private long latitude;
+	private long longitude;
+	private long altitude;
+	private char latitudeDirection;
+	private char longitudeDirection;
+
+	/**
+	 * Start reading a block
+	 *
+	 * @param buffer Buffer holding the block at its position
+	 * @param count Number of positions in the block
+	 */
+	public void reset(ByteBuffer buffer, int count) {
+		this.buffer = buffer;
+		remaining = count;
+		time = 0;
+		interval = 0;
+		latitude = 0;
+		longitude = 0;
+		altitude = 0;
+		latitudeDirection = 0;
+		longitudeDirection = 0;
+	}
+
+	/**
+	 * Decode the next position
+	 *
+	 * @return false if all positions have been read
+	 */
+	public boolean next() {
+		if (remaining == 0) {
+			return false;
+		}
+		remaining--;
+		long header = readVarLong(buffer);
+		if ((header & 1) != 0) {
+			latitudeDirection = (char) (buffer.get() & 0xFF);
+			longitudeDirection = (char) (buffer.get() & 0xFF);
+		}
+		interval += unzigzag(header >>> 1);
+		time += interval;
+		latitude += unzigzag(readVarLong(buffer));
+		longitude += unzigzag(readVarLong(buffer));
+		altitude += unzigzag(readVarLong(buffer));
+		return true;
+	}
+
+	/**
+	 * Get the time of the current position
+	 *
+	 * @return The time
+	 */
+	@Override
+	public long getTime() {
+		return time;
+	}
+
+	/**
+	 * Get the latitude of the current position
+	 *
+	 * @return The latitude
+	 */
+	@Override
+	public double getLatitude() {
+		return latitude / PositionEncoder.DEGREE_SCALE;
+	}
+
+	/**
+	 * Get the direction of latitude of the current position
+	 *
+	 * @return The latitude direction
+	 */
+	@Override
+	public char getLatitudeDirection() {
+		return latitudeDirection;
+	}
+
+	/**
+	 * Get the longitude of the current position
+	 *
+	 * @return The longitude
+	 */
+	@Override
+	public double getLongitude() {
+		return longitude / PositionEncoder.DEGREE_SCALE;
+	}
+
+	/**
+	 * Get the direction of longitude of the current position
+	 *
+	 * @return The longitude direction
+	 */
+	@Override
+	public char getLongitudeDirection() {
+		return longitudeDirection;
+	}
+
+	/**
+	 * Get the altitude of the current position
+	 *
+	 * @return The altitude in metres
+	 */
+	@Override
+	public double getAltitude() {
+		return altitude / PositionEncoder.ALTITUDE_SCALE;
+	}
+
+	/**
+	 * Create a Position from the current fields
+	 *
+	 * @return The position
+	 */
+	public Position toPosition() {
+		return new Position(time, getLatitude(), latitudeDirection, getLongitude(), longitudeDirection, getAltitude());
+	}
+
+	private static long unzigzag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private static long readVarLong(ByteBuffer in) {
+		long value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = in.get();
+			value |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		} while (b < 0);
+		return value;
+	}
+}
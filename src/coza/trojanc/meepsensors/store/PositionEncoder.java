@@ -0,0 +1,140 @@
+package coza.trojanc.meepsensors.store;
+
+import coza.trojanc.meepsensors.sensors.data.ReadablePosition;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Compresses a stream of positions into a block. Latitude and longitude are
+ * rounded to 1e-7 and the altitude to a centimetre, then every field is stored
+ * as the difference with the previous position in a zigzag variable length
+ * integer, and the time as the change in interval. A receiver moving steadily
+ * takes a few bytes per position instead of 40.
+ *
+ * <pre>
+ * record  varint (time interval change &lt;&lt; 1 | directions changed)
+ *         [byte latitude direction, byte longitude direction]  if changed
+ *         varint latitude delta, varint longitude delta, varint altitude delta
+ * </pre>
+ *
+ * Nothing is allocated. A block is read back with {@link PositionDecoder} given
+ * the number of positions in it.
+ */
+public class PositionEncoder {
+
+	/**
+	 * Scale of latitude and longitude
+	 */
+	static final double DEGREE_SCALE = 1e7;
+
+	/**
+	 * Scale of the altitude
+	 */
+	static final double ALTITUDE_SCALE = 100;
+
+	/**
+	 * Most bytes a single position can take
+	 */
+	public static final int MAX_POSITION_BYTES = 52;
+
+	private ByteBuffer buffer;
+	private int count;
+	private long time;
+	private long interval;
+	private long latitude;
+	private long longitude;
+	private long altitude;
+	private char latitudeDirection;
+	private char longitudeDirection;
+
+	/**
+	 * Start a new block
+	 *
+	 * @param buffer Buffer receiving the block, written from its position
+	 */
+	public void reset(ByteBuffer buffer) {
+		this.buffer = buffer;
+		count = 0;
+		time = 0;
+		interval = 0;
+		latitude = 0;
+		longitude = 0;
+		altitude = 0;
+		latitudeDirection = 0;
+		longitudeDirection = 0;
+	}
+
+	/**
+	 * Encode a position
+	 *
+	 * @param position The position
+	 * @return false if the buffer has no room for the position, the block is then complete
+	 */
+	public boolean append(ReadablePosition position) {
+		return append(position.getTime(), position.getLatitude(), position.getLatitudeDirection(),
+				position.getLongitude(), position.getLongitudeDirection(), position.getAltitude());
+	}
+
+	/**
+	 * Encode a position given by its fields
+	 *
+	 * @param time Time of the position
+	 * @param latitude The latitude
+	 * @param latitudeDirection Direction of latitude
+	 * @param longitude The longitude
+	 * @param longitudeDirection Direction of longitude
+	 * @param altitude The altitude
+	 * @return false if the buffer has no room for the position, the block is then complete
+	 */
+	public boolean append(long time, double latitude, char latitudeDirection, double longitude, char longitudeDirection, double altitude) {
+		if (buffer.remaining() < MAX_POSITION_BYTES) {
+			return false;
+		}
+		long newInterval = time - this.time;
+		boolean directionsChanged = latitudeDirection != this.latitudeDirection || longitudeDirection != this.longitudeDirection;
+		writeVarLong(buffer, (zigzag(newInterval - interval) << 1) | (directionsChanged ? 1 : 0));
+		if (directionsChanged) {
+			buffer.put((byte) latitudeDirection);
+			buffer.put((byte) longitudeDirection);
+			this.latitudeDirection = latitudeDirection;
+			this.longitudeDirection = longitudeDirection;
+		}
+		long scaledLatitude = Math.round(latitude * DEGREE_SCALE);
+		long scaledLongitude = Math.round(longitude * DEGREE_SCALE);
+		long scaledAltitude = Math.round(altitude * ALTITUDE_SCALE);
+		writeVarLong(buffer, zigzag(scaledLatitude - this.latitude));
+		writeVarLong(buffer, zigzag(scaledLongitude - this.longitude));
+		writeVarLong(buffer, zigzag(scaledAltitude - this.altitude));
+		this.time = time;
+		interval = newInterval;
+		this.latitude = scaledLatitude;
+		this.longitude = scaledLongitude;
+		this.altitude = scaledAltitude;
+		count++;
+		return true;
+	}
+
+	/**
+	 * Get the number of positions in the block
+	 *
+	 * @return The position count
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	private static long zigzag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	/**
+	 * Write 7 bits per byte, lowest first, with the high bit set on all but the last byte
+	 */
+	private static void writeVarLong(ByteBuffer out, long value) {
+		while ((value & ~0x7FL) != 0) {
+			out.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.put((byte) value);
+	}
+}
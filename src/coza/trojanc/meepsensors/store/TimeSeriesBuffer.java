@@ -0,0 +1,415 @@
+package coza.trojanc.meepsensors.store;
+
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
+
+/**
+ * Fixed capacity ring buffer of timestamped readings for one channel, for example
+ * the temperature of one sensor. Timestamps and values are kept in primitive
+ * buffers, either on the heap or off-heap in a direct ByteBuffer, so appending a
+ * reading never allocates. Once the buffer is full every append overwrites the
+ * oldest reading.
+ *
+ * Readings are addressed by index, 0 being the oldest reading still held and
+ * {@link #size()} - 1 the newest, so windows can be read in place without
+ * copying. Timestamps are in milliseconds and must not decrease.
+ *
+ * Running aggregates over the last N readings or the last T milliseconds can be
+ * attached with {@link #addAggregate(int, long)}. They are updated as readings
+ * are appended, so reading them is O(1).
+ *
+ * All methods are synchronized. Synchronize on the buffer to read a consistent
+ * window with several calls.
+ */
+public class TimeSeriesBuffer {
+
+	/**
+	 * Timestamps in milliseconds
+	 */
+	private final LongBuffer timestamps;
+
+	/**
+	 * Values
+	 */
+	private final DoubleBuffer values;
+
+	/**
+	 * Number of readings the buffer can hold
+	 */
+	private final int capacity;
+
+	/**
+	 * Total number of readings appended, also the sequence number of the next reading
+	 */
+	private long appended;
+
+	/**
+	 * Aggregates updated on every append
+	 */
+	private RunningAggregate[] aggregates = new RunningAggregate[0];
+
+	/**
+	 * Create a buffer on the heap
+	 *
+	 * @param capacity Number of readings the buffer holds
+	 */
+	public TimeSeriesBuffer(int capacity) {
+		this(capacity, false);
+	}
+
+	/**
+	 * Create a buffer
+	 *
+	 * @param capacity Number of readings the buffer holds
+	 * @param direct true to keep the readings off-heap in a direct buffer
+	 */
+	public TimeSeriesBuffer(int capacity, boolean direct) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Capacity must be positive");
+		}
+		this.capacity = capacity;
+		if (direct) {
+			timestamps = ByteBuffer.allocateDirect(capacity * 8).asLongBuffer();
+			values = ByteBuffer.allocateDirect(capacity * 8).asDoubleBuffer();
+		} else {
+			timestamps = LongBuffer.wrap(new long[capacity]);
+			values = DoubleBuffer.wrap(new double[capacity]);
+		}
+	}
+
+	/**
+	 * Attach a running aggregate. Readings drop out of the aggregate when there are
+	 * more than maxCount newer readings, when they are more than maxAgeMillis older
+	 * than the newest reading, or when they are overwritten in the buffer. The
+	 * aggregate starts with the readings appended after it was added.
+	 *
+	 * @param maxCount Maximum number of readings in the aggregate, at most the capacity
+	 * @param maxAgeMillis Maximum age of a reading in milliseconds, or Long.MAX_VALUE for no limit
+	 * @return The aggregate
+	 * @throws IllegalArgumentException If maxCount is less than 1 or maxAgeMillis is negative
+	 */
+	public synchronized RunningAggregate addAggregate(int maxCount, long maxAgeMillis) {
+		if (maxCount < 1) {
+			throw new IllegalArgumentException("Maximum count must be positive");
+		}
+		if (maxAgeMillis < 0) {
+			throw new IllegalArgumentException("Maximum age can't be negative");
+		}
+		RunningAggregate aggregate = new RunningAggregate(Math.min(maxCount, capacity), maxAgeMillis);
+		RunningAggregate[] updated = new RunningAggregate[aggregates.length + 1];
+		System.arraycopy(aggregates, 0, updated, 0, aggregates.length);
+		updated[aggregates.length] = aggregate;
+		aggregates = updated;
+		return aggregate;
+	}
+
+	/**
+	 * Append a reading
+	 *
+	 * @param timestamp Time of the reading in milliseconds
+	 * @param value The reading
+	 */
+	public synchronized void append(long timestamp, double value) {
+		long sequence = appended;
+		// Readings about to be overwritten have to leave the aggregates first
+		if (sequence >= capacity) {
+			for (RunningAggregate aggregate : aggregates) {
+				aggregate.evictBefore(sequence - capacity + 1);
+			}
+		}
+		int slot = slot(sequence);
+		timestamps.put(slot, timestamp);
+		values.put(slot, value);
+		appended++;
+		for (RunningAggregate aggregate : aggregates) {
+			aggregate.add(sequence, timestamp, value);
+		}
+	}
+
+	/**
+	 * Slot holding a sequence number
+	 */
+	private int slot(long sequence) {
+		return (int) (sequence % capacity);
+	}
+
+	/**
+	 * Sequence number of the reading at an index
+	 */
+	private long sequence(int index) {
+		if (index < 0 || index >= size()) {
+			throw new IndexOutOfBoundsException("Index " + index + ", size " + size());
+		}
+		return appended - size() + index;
+	}
+
+	/**
+	 * Get the number of readings held
+	 *
+	 * @return The number of readings, at most the capacity
+	 */
+	public synchronized int size() {
+		return (int) Math.min(appended, capacity);
+	}
+
+	/**
+	 * Get the number of readings the buffer can hold
+	 *
+	 * @return The capacity
+	 */
+	public int capacity() {
+		return capacity;
+	}
+
+	/**
+	 * Get the total number of readings appended, including overwritten readings
+	 *
+	 * @return The number of readings appended
+	 */
+	public synchronized long getAppended() {
+		return appended;
+	}
+
+	/**
+	 * Get the timestamp of a reading
+	 *
+	 * @param index Index of the reading, 0 is the oldest
+	 * @return The timestamp in milliseconds
+	 */
+	public synchronized long getTimestamp(int index) {
+		return timestamps.get(slot(sequence(index)));
+	}
+
+	/**
+	 * Get the value of a reading
+	 *
+	 * @param index Index of the reading, 0 is the oldest
+	 * @return The value
+	 */
+	public synchronized double getValue(int index) {
+		return values.get(slot(sequence(index)));
+	}
+
+	/**
+	 * Find the first reading at or after a time
+	 *
+	 * @param timestamp Time in milliseconds
+	 * @return Index of the first reading at or after the time, or {@link #size()} if there is none
+	 */
+	public synchronized int indexOf(long timestamp) {
+		int low = 0;
+		int high = size();
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (timestamps.get(slot(sequence(middle))) < timestamp) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Remove all readings. Attached aggregates are reset.
+	 */
+	public synchronized void clear() {
+		appended = 0;
+		for (RunningAggregate aggregate : aggregates) {
+			aggregate.reset();
+		}
+	}
+
+	/**
+	 * Incrementally maintained count, minimum, maximum, mean and variance over a
+	 * sliding window of the buffer. The mean and variance use Welford's method,
+	 * and the minimum and maximum monotonic queues of sequence numbers, so every
+	 * update is O(1) amortized and nothing is allocated.
+	 */
+	public class RunningAggregate {
+
+		private final int maxCount;
+		private final long maxAgeMillis;
+
+		/**
+		 * Sequence number of the oldest reading in the window
+		 */
+		private long first;
+
+		/**
+		 * Sequence number after the newest reading in the window
+		 */
+		private long end;
+
+		private double mean;
+		private double m2;
+
+		/**
+		 * Sequence numbers of candidates for the minimum, values increasing
+		 */
+		private final long[] minQueue;
+		private int minHead;
+		private int minSize;
+
+		/**
+		 * Sequence numbers of candidates for the maximum, values decreasing
+		 */
+		private final long[] maxQueue;
+		private int maxHead;
+		private int maxSize;
+
+		private RunningAggregate(int maxCount, long maxAgeMillis) {
+			this.maxCount = maxCount;
+			this.maxAgeMillis = maxAgeMillis;
+			this.minQueue = new long[maxCount];
+			this.maxQueue = new long[maxCount];
+			reset();
+		}
+
+		/**
+		 * Empty the window, starting after the newest reading in the buffer
+		 */
+		private void reset() {
+			first = appended;
+			end = appended;
+			mean = 0;
+			m2 = 0;
+			minHead = 0;
+			minSize = 0;
+			maxHead = 0;
+			maxSize = 0;
+		}
+
+		/**
+		 * Add the newest reading and drop the readings that fell out of the window
+		 */
+		private void add(long sequence, long timestamp, double value) {
+			// Make room for the new reading
+			while (sequence + 1 - first > maxCount) {
+				removeFirst();
+			}
+			end = sequence + 1;
+			int count = (int) (end - first);
+			double delta = value - mean;
+			mean += delta / count;
+			m2 += delta * (value - mean);
+
+			// Drop candidates that can no longer be the minimum or maximum
+			while (minSize > 0 && valueOf(minQueue[(minHead + minSize - 1) % maxCount]) >= value) {
+				minSize--;
+			}
+			minQueue[(minHead + minSize) % maxCount] = sequence;
+			minSize++;
+			while (maxSize > 0 && valueOf(maxQueue[(maxHead + maxSize - 1) % maxCount]) <= value) {
+				maxSize--;
+			}
+			maxQueue[(maxHead + maxSize) % maxCount] = sequence;
+			maxSize++;
+
+			while (end - first > 1 && timestamp - timestamps.get(slot(first)) > maxAgeMillis) {
+				removeFirst();
+			}
+		}
+
+		/**
+		 * Drop all readings with a sequence number below a limit
+		 */
+		private void evictBefore(long sequence) {
+			while (first < sequence && first < end) {
+				removeFirst();
+			}
+			if (first < sequence) {
+				first = sequence;
+				end = sequence;
+			}
+		}
+
+		/**
+		 * Drop the oldest reading from the window
+		 */
+		private void removeFirst() {
+			double value = valueOf(first);
+			int count = (int) (end - first);
+			if (count == 1) {
+				mean = 0;
+				m2 = 0;
+			} else {
+				double oldMean = mean;
+				mean = (count * oldMean - value) / (count - 1);
+				m2 -= (value - oldMean) * (value - mean);
+				if (m2 < 0) {
+					m2 = 0;
+				}
+			}
+			if (minSize > 0 && minQueue[minHead] == first) {
+				minHead = (minHead + 1) % maxCount;
+				minSize--;
+			}
+			if (maxSize > 0 && maxQueue[maxHead] == first) {
+				maxHead = (maxHead + 1) % maxCount;
+				maxSize--;
+			}
+			first++;
+		}
+
+		private double valueOf(long sequence) {
+			return values.get(slot(sequence));
+		}
+
+		/**
+		 * Get the number of readings in the window
+		 *
+		 * @return The count
+		 */
+		public int getCount() {
+			synchronized (TimeSeriesBuffer.this) {
+				return (int) (end - first);
+			}
+		}
+
+		/**
+		 * Get the smallest reading in the window
+		 *
+		 * @return The minimum, or NaN if the window is empty
+		 */
+		public double getMin() {
+			synchronized (TimeSeriesBuffer.this) {
+				return minSize == 0 ? Double.NaN : valueOf(minQueue[minHead]);
+			}
+		}
+
+		/**
+		 * Get the largest reading in the window
+		 *
+		 * @return The maximum, or NaN if the window is empty
+		 */
+		public double getMax() {
+			synchronized (TimeSeriesBuffer.this) {
+				return maxSize == 0 ? Double.NaN : valueOf(maxQueue[maxHead]);
+			}
+		}
+
+		/**
+		 * Get the mean of the readings in the window
+		 *
+		 * @return The mean, or NaN if the window is empty
+		 */
+		public double getMean() {
+			synchronized (TimeSeriesBuffer.this) {
+				return end == first ? Double.NaN : mean;
+			}
+		}
+
+		/**
+		 * Get the population variance of the readings in the window
+		 *
+		 * @return The variance, or NaN if the window is empty
+		 */
+		public double getVariance() {
+			synchronized (TimeSeriesBuffer.this) {
+				return end == first ? Double.NaN : m2 / (end - first);
+			}
+		}
+	}
+}
@@ -0,0 +1,463 @@
+package coza.trojanc.meepsensors.sensors.impl;
+
+import coza.trojanc.meepsensors.Logger;
+import coza.trojanc.meepsensors.hub.SensorListener;
+import coza.trojanc.meepsensors.nmea.NmeaAdapter;
+import coza.trojanc.meepsensors.nmea.NmeaDecoder;
+import coza.trojanc.meepsensors.nmea.NmeaDispatcher;
+import coza.trojanc.meepsensors.nmea.NmeaListener;
+import coza.trojanc.meepsensors.nmea.NmeaParser;
+import coza.trojanc.meepsensors.sensors.GpsSensor;
+import coza.trojanc.meepsensors.sensors.data.FixStatus;
+import coza.trojanc.meepsensors.sensors.data.FixTime;
+import coza.trojanc.meepsensors.sensors.data.MutablePosition;
+import coza.trojanc.meepsensors.sensors.data.MutableVelocity;
+import coza.trojanc.meepsensors.sensors.data.Position;
+import coza.trojanc.meepsensors.sensors.data.ReadablePosition;
+import coza.trojanc.meepsensors.sensors.data.ReadableVelocity;
+import coza.trojanc.meepsensors.sensors.data.SatellitesInView;
+import coza.trojanc.meepsensors.sensors.data.Velocity;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * GPS sensor replaying a raw NMEA capture recorded from a receiver. The file is
+ * memory mapped and parsed in place with the same parser and decoding as
+ * {@link AdaFruitGPSSensor}, so it produces the same positions and velocities.
+ *
+ * Sentences are replayed as fast as possible by default. In real time mode
+ * they are released at the pace given by the UTC times of the GGA sentences,
+ * optionally sped up. Reading time stamps start at the start time, which
+ * defaults to the time the replay was created, and advance with the sentence
+ * times, so a backfill gets the original spacing of the readings.
+ *
+ * The replay can be sampled like a live sensor, or run to the end feeding a
+ * listener with {@link #replay(NmeaListener)}, which decodes every sentence type
+ * the {@link NmeaDispatcher} knows. Like the dispatcher it matches sentences on
+ * their type from any talker, so GNGGA from a multi-constellation receiver is
+ * replayed like GPGGA.
+ *
+ * The capture is memory mapped, which Java ME doesn't support, so the replay is
+ * part of the desktop tools rather than the library.
+ */
+public class NmeaReplay implements GpsSensor {
+
+	/**
+	 * A reference to a logger
+	 */
+	private static final Logger LOG = Logger.getLogger(NmeaReplay.class);
+
+	private static final int MILLIS_PER_DAY = 24 * 60 * 60 * 1000;
+
+	private static final int GGA = NmeaParser.type("GGA");
+	private static final int VTG = NmeaParser.type("VTG");
+
+	private final File capture;
+	private MappedByteBuffer data;
+	private final NmeaParser parser;
+
+	private volatile boolean realTime;
+	private volatile double speed = 1;
+	private long startTime = System.currentTimeMillis() / 1000;
+
+	/**
+	 * Time of day of the first GGA sentence, -1 before it was seen
+	 */
+	private int firstTimeOfDay;
+	private int lastTimeOfDay;
+
+	/**
+	 * Milliseconds of capture time passed since the first GGA sentence
+	 */
+	private long elapsedMillis;
+
+	private long startNanos;
+	private long endNanos;
+	private long positions;
+	private long velocities;
+
+	/**
+	 * Open a capture for replay
+	 *
+	 * @param capture The capture file
+	 * @throws IOException If the file can't be mapped
+	 */
+	public NmeaReplay(File capture) throws IOException {
+		this.capture = capture;
+		try (FileChannel channel = FileChannel.open(capture.toPath(), StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("Capture too large to map: " + capture);
+			}
+			data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		parser = new NmeaParser(data);
+		rewind();
+		LOG.info("Opened NMEA capture {}, {} bytes", capture, data.capacity());
+	}
+
+	/**
+	 * Set if sentences are released at the pace they were recorded
+	 *
+	 * @param realTime true to replay at the original timing, false to replay as fast as possible
+	 */
+	public void setRealTime(boolean realTime) {
+		this.realTime = realTime;
+	}
+
+	/**
+	 * Set how much faster than recorded a real time replay runs
+	 *
+	 * @param speed The speed up, 1 for the original timing
+	 */
+	public void setSpeed(double speed) {
+		if (speed <= 0) {
+			throw new IllegalArgumentException("speed <= 0");
+		}
+		this.speed = speed;
+	}
+
+	/**
+	 * Set the time stamp of the first readings
+	 *
+	 * @param epochSeconds Time in seconds from the epoch
+	 */
+	public synchronized void setStartTime(long epochSeconds) {
+		this.startTime = epochSeconds;
+	}
+
+	/**
+	 * Start the replay from the beginning of the capture
+	 */
+	public synchronized void rewind() {
+		parser.rewind();
+		firstTimeOfDay = -1;
+		lastTimeOfDay = -1;
+		elapsedMillis = 0;
+		startNanos = 0;
+		endNanos = 0;
+		positions = 0;
+		velocities = 0;
+	}
+
+	/**
+	 * Replay the rest of the capture, decoding every known sentence type
+	 *
+	 * @param listener Listener receiving the decoded data
+	 * @return The number of sentences replayed
+	 * @throws InterruptedException If interrupted while waiting in real time mode
+	 */
+	public synchronized long replay(NmeaListener listener) throws InterruptedException {
+		long before = parser.getSentenceCount();
+		NmeaDispatcher dispatcher = new NmeaDispatcher(new CountingListener(listener));
+		while (next()) {
+			dispatcher.dispatch(parser, getTimeStamp());
+		}
+		long sentences = parser.getSentenceCount() - before;
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Replayed {} sentences at {} sentences/s", sentences, Math.round(getSentencesPerSecond()));
+		}
+		return sentences;
+	}
+
+	/**
+	 * Replay the rest of the capture, passing the positions and velocities to a
+	 * sensor listener. Every reading is copied into a new immutable object, use
+	 * {@link #replay(NmeaListener)} to replay without creating them.
+	 *
+	 * @param listener Listener receiving the positions and velocities
+	 * @return The number of sentences replayed
+	 * @throws InterruptedException If interrupted while waiting in real time mode
+	 */
+	public long replay(final SensorListener listener) throws InterruptedException {
+		return replay(new NmeaAdapter() {
+			@Override
+			public void position(ReadablePosition position) {
+				listener.position(NmeaReplay.this, new Position(position.getTime(), position.getLatitude(),
+						position.getLatitudeDirection(), position.getLongitude(), position.getLongitudeDirection(),
+						position.getAltitude()));
+			}
+
+			@Override
+			public void velocity(ReadableVelocity velocity) {
+				listener.velocity(NmeaReplay.this, new Velocity(velocity.getTimeStamp(), velocity.getTrueTrack(),
+						velocity.getGroundSpeed()));
+			}
+		});
+	}
+
+	/**
+	 * Get the next position in the capture
+	 *
+	 * @return The position, or null at the end of the capture
+	 */
+	@Override
+	public Position getPosition() {
+		MutablePosition position = new MutablePosition();
+		return readPosition(position) ? position.toPosition() : null;
+	}
+
+	/**
+	 * Read the next position in the capture into a holder
+	 *
+	 * @param into Holder to fill
+	 * @return false at the end of the capture
+	 */
+	@Override
+	public synchronized boolean readPosition(MutablePosition into) {
+		try {
+			while (nextSentence(GGA)) {
+				if (NmeaDecoder.decodePosition(parser, getTimeStamp(), into)) {
+					positions++;
+					return true;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return false;
+	}
+
+	/**
+	 * Get the next velocity in the capture
+	 *
+	 * @return The velocity, or null at the end of the capture
+	 */
+	@Override
+	public Velocity getVelocity() {
+		MutableVelocity velocity = new MutableVelocity();
+		return readVelocity(velocity) ? velocity.toVelocity() : null;
+	}
+
+	/**
+	 * Read the next velocity in the capture into a holder
+	 *
+	 * @param into Holder to fill
+	 * @return false at the end of the capture
+	 */
+	@Override
+	public synchronized boolean readVelocity(MutableVelocity into) {
+		try {
+			while (nextSentence(VTG)) {
+				if (NmeaDecoder.decodeVelocity(parser, getTimeStamp(), into)) {
+					velocities++;
+					return true;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return false;
+	}
+
+	/**
+	 * Advance to the next sentence of a type, from any talker
+	 *
+	 * @param type The type, as returned by {@link NmeaParser#getSentenceType()}
+	 * @return false at the end of the capture
+	 * @throws InterruptedException If interrupted while waiting in real time mode
+	 */
+	private boolean nextSentence(int type) throws InterruptedException {
+		while (next()) {
+			if (parser.getSentenceType() == type) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Advance to the next sentence, following the capture time on GGA sentences
+	 * and waiting for it in real time mode
+	 *
+	 * @return false at the end of the capture
+	 * @throws InterruptedException If interrupted while waiting
+	 */
+	private boolean next() throws InterruptedException {
+		if (data == null) {
+			return false;
+		}
+		if (startNanos == 0) {
+			startNanos = System.nanoTime();
+		}
+		boolean more;
+		try {
+			more = parser.next();
+		} catch (IOException e) {
+			// Parsing a buffer doesn't do IO
+			more = false;
+		}
+		if (!more) {
+			if (endNanos == 0) {
+				endNanos = System.nanoTime();
+			}
+			return false;
+		}
+		if (parser.getSentenceType() == GGA) {
+			advanceTime(parser.getTimeOfDay(0));
+		}
+		return true;
+	}
+
+	/**
+	 * Follow the capture time to a sentence time
+	 *
+	 * @param timeOfDay UTC time of day of the sentence in milliseconds, -1 if unknown
+	 * @throws InterruptedException If interrupted while waiting
+	 */
+	private void advanceTime(int timeOfDay) throws InterruptedException {
+		if (timeOfDay < 0) {
+			return;
+		}
+		if (firstTimeOfDay < 0) {
+			firstTimeOfDay = timeOfDay;
+			lastTimeOfDay = timeOfDay;
+			return;
+		}
+		int step = timeOfDay - lastTimeOfDay;
+		if (step < -MILLIS_PER_DAY / 2) {
+			// Passed midnight
+			step += MILLIS_PER_DAY;
+		}
+		lastTimeOfDay = timeOfDay;
+		if (step <= 0) {
+			return;
+		}
+		elapsedMillis += step;
+		if (realTime) {
+			long due = startNanos + (long) (TimeUnit.MILLISECONDS.toNanos(elapsedMillis) / speed);
+			long wait = due - System.nanoTime();
+			if (wait > 0) {
+				TimeUnit.NANOSECONDS.sleep(wait);
+			}
+		}
+	}
+
+	/**
+	 * Time stamp of the current sentence
+	 *
+	 * @return Time in seconds from the epoch
+	 */
+	private long getTimeStamp() {
+		return startTime + elapsedMillis / 1000;
+	}
+
+	/**
+	 * Get the number of valid sentences replayed since the start
+	 *
+	 * @return The sentence count
+	 */
+	public synchronized long getSentences() {
+		return parser.getSentenceCount();
+	}
+
+	/**
+	 * Get the replay rate since the start, up to the end of the capture
+	 *
+	 * @return Sentences per second
+	 */
+	public synchronized double getSentencesPerSecond() {
+		if (startNanos == 0) {
+			return 0;
+		}
+		long end = endNanos != 0 ? endNanos : System.nanoTime();
+		return end > startNanos ? parser.getSentenceCount() * 1e9 / (end - startNanos) : 0;
+	}
+
+	/**
+	 * Get the number of positions decoded since the start
+	 *
+	 * @return The position count
+	 */
+	public synchronized long getPositions() {
+		return positions;
+	}
+
+	/**
+	 * Get the number of velocities decoded since the start
+	 *
+	 * @return The velocity count
+	 */
+	public synchronized long getVelocities() {
+		return velocities;
+	}
+
+	/**
+	 * Get the number of sentences skipped because of a checksum mismatch
+	 *
+	 * @return The checksum error count
+	 */
+	public synchronized long getChecksumErrors() {
+		return parser.getChecksumErrors();
+	}
+
+	/**
+	 * Get the number of sentences skipped because they were malformed
+	 *
+	 * @return The malformed sentence count
+	 */
+	public synchronized long getMalformedSentences() {
+		return parser.getMalformedSentences();
+	}
+
+	/**
+	 * Get the capture time replayed since the start
+	 *
+	 * @return Milliseconds since the first GGA sentence
+	 */
+	public synchronized long getCaptureMillis() {
+		return elapsedMillis;
+	}
+
+	/**
+	 * Stop the replay, the mapping is released once it is garbage collected
+	 */
+	@Override
+	public synchronized void close() {
+		data = null;
+		LOG.info("Closed NMEA capture {}", capture);
+	}
+
+	/**
+	 * Counts the positions and velocities passed to a listener
+	 */
+	private class CountingListener implements NmeaListener {
+
+		private final NmeaListener listener;
+
+		CountingListener(NmeaListener listener) {
+			this.listener = listener;
+		}
+
+		@Override
+		public void position(ReadablePosition position) {
+			positions++;
+			listener.position(position);
+		}
+
+		@Override
+		public void velocity(ReadableVelocity velocity) {
+			velocities++;
+			listener.velocity(velocity);
+		}
+
+		@Override
+		public void fixTime(FixTime fixTime) {
+			listener.fixTime(fixTime);
+		}
+
+		@Override
+		public void fixStatus(FixStatus fixStatus) {
+			listener.fixStatus(fixStatus);
+		}
+
+		@Override
+		public void satellites(SatellitesInView satellites) {
+			listener.satellites(satellites);
+		}
+	}
+}
@@ -0,0 +1,431 @@
+package coza.trojanc.meepsensors.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Append-only binary log of timestamped samples for a fixed set of channels,
+ * for example the temperature, pressure and humidity of the attached sensors.
+ * The log is a directory of segment files. Samples are written into a memory
+ * mapped segment, so appending a sample copies 13 bytes and makes no system
+ * call. The segment is forced to storage at a fixed interval, and when it is
+ * full the log rolls over to a new segment.
+ *
+ * A segment starts with a header holding the channel names and a sparse index
+ * of timestamps and record offsets, followed by the records:
+ * <pre>
+ * header  int magic, short version, short index entries, long base timestamp,
+ *         int data start, int index interval
+ * index   per entry: int timestamp - base, int record offset (0 if unused)
+ * names   byte channel count, per channel: short length, UTF-8 name
+ * record  byte channel (1 based), int timestamp - base, double value
+ * </pre>
+ * The records end at a channel of 0 or at the end of the file. The index has an
+ * entry for the first record after every index interval bytes, so
+ * {@link #scan} can start close to the first record in range without reading
+ * the segment up to there.
+ *
+ * Timestamps are in milliseconds and must not decrease.
+ *
+ * The log uses memory mapped files, which Java ME doesn't have, so it is part of
+ * the desktop tools rather than the library.
+ */
+public class SampleLog implements AutoCloseable {
+
+	private static final int MAGIC = 0x4D534C47;
+	private static final short VERSION = 1;
+	private static final int HEADER_SIZE = 24;
+	private static final int INDEX_ENTRIES = 256;
+	private static final int RECORD_SIZE = 13;
+	private static final String SUFFIX = ".seg";
+	private static final int SEGMENT_DIGITS = 16;
+
+	private final File directory;
+	private final String[] channels;
+	private final int segmentSize;
+	private final long flushIntervalMillis;
+
+	/**
+	 * Channel names as written in a segment header
+	 */
+	private final byte[] channelTable;
+
+	/**
+	 * Number of the next segment file
+	 */
+	private long nextSegment;
+
+	private RandomAccessFile file;
+	private MappedByteBuffer segment;
+
+	/**
+	 * Base timestamp of the current segment
+	 */
+	private long base;
+	private long lastTimestamp = Long.MIN_VALUE;
+	private int dataStart;
+	private int indexInterval;
+	private int nextIndexEntry;
+	private long lastFlush;
+	private long samples;
+	private long segments;
+
+	/**
+	 * Open a log, creating the directory if needed. Samples are appended to a new
+	 * segment after the existing ones.
+	 *
+	 * @param directory Directory holding the segment files
+	 * @param channels Names of the channels, at most 255
+	 * @param segmentSize Size of a segment file in bytes
+	 * @param flushIntervalMillis Time between forcing the segment to storage, 0 to only force on rollover and close
+	 * @throws IOException If the directory can't be used
+	 */
+	public SampleLog(File directory, String[] channels, int segmentSize, long flushIntervalMillis) throws IOException {
+		if (channels.length == 0 || channels.length > 255) {
+			throw new IllegalArgumentException("Between 1 and 255 channels are needed");
+		}
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Could not create " + directory);
+		}
+		this.directory = directory;
+		this.channels = channels.clone();
+		this.flushIntervalMillis = flushIntervalMillis;
+
+		ByteBuffer table = ByteBuffer.allocate(1 + channels.length * 258);
+		table.put((byte) channels.length);
+		for (String channel : channels) {
+			byte[] name = channel.getBytes(StandardCharsets.UTF_8);
+			if (name.length > 255) {
+				throw new IllegalArgumentException("Channel name too long: " + channel);
+			}
+			table.putShort((short) name.length).put(name);
+		}
+		channelTable = Arrays.copyOf(table.array(), table.position());
+
+		int minimumSize = HEADER_SIZE + INDEX_ENTRIES * 8 + channelTable.length + RECORD_SIZE;
+		if (segmentSize < minimumSize) {
+			throw new IllegalArgumentException("Segments need at least " + minimumSize + " bytes");
+		}
+		this.segmentSize = segmentSize;
+
+		File[] existing = segmentFiles(directory);
+		if (existing.length > 0) {
+			nextSegment = segmentNumber(existing[existing.length - 1].getName()) + 1;
+		}
+	}
+
+	/**
+	 * Get the channel number of a channel name
+	 *
+	 * @param name The channel name
+	 * @return The channel number, or -1 if the log has no such channel
+	 */
+	public int getChannel(String name) {
+		for (int i = 0; i < channels.length; i++) {
+			if (channels[i].equals(name)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Append a sample
+	 *
+	 * @param channel Channel number, the index of the channel name
+	 * @param timestamp Time of the sample in milliseconds
+	 * @param value The sample
+	 * @throws IOException If a new segment could not be created
+	 */
+	public synchronized void append(int channel, long timestamp, double value) throws IOException {
+		if (channel < 0 || channel >= channels.length) {
+			throw new IllegalArgumentException("No channel " + channel);
+		}
+		if (timestamp < lastTimestamp) {
+			throw new IllegalArgumentException("Timestamps must not decrease");
+		}
+		if (segment == null) {
+			startSegment(timestamp);
+		} else if (segment.remaining() < RECORD_SIZE || timestamp - base > Integer.MAX_VALUE) {
+			finishSegment();
+			startSegment(timestamp);
+		}
+		int offset = segment.position();
+		int delta = (int) (timestamp - base);
+		if (nextIndexEntry < INDEX_ENTRIES && offset >= dataStart + nextIndexEntry * indexInterval) {
+			int entry = HEADER_SIZE + nextIndexEntry * 8;
+			segment.putInt(entry, delta);
+			segment.putInt(entry + 4, offset);
+			nextIndexEntry++;
+		}
+		segment.put((byte) (channel + 1)).putInt(delta).putDouble(value);
+		lastTimestamp = timestamp;
+		samples++;
+
+		if (flushIntervalMillis > 0) {
+			long now = System.currentTimeMillis();
+			if (now - lastFlush >= flushIntervalMillis) {
+				segment.force();
+				lastFlush = now;
+			}
+		}
+	}
+
+	/**
+	 * Force the appended samples to storage
+	 */
+	public synchronized void flush() {
+		if (segment != null) {
+			segment.force();
+			lastFlush = System.currentTimeMillis();
+		}
+	}
+
+	/**
+	 * Create and map the next segment
+	 */
+	private void startSegment(long timestamp) throws IOException {
+		File segmentFile = new File(directory, segmentName(nextSegment++));
+		file = new RandomAccessFile(segmentFile, "rw");
+		segment = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+		base = timestamp;
+		dataStart = HEADER_SIZE + INDEX_ENTRIES * 8 + channelTable.length;
+		indexInterval = Math.max(RECORD_SIZE, (segmentSize - dataStart) / INDEX_ENTRIES);
+		nextIndexEntry = 0;
+		segment.putInt(MAGIC).putShort(VERSION).putShort((short) INDEX_ENTRIES).putLong(base)
+				.putInt(dataStart).putInt(indexInterval);
+		segment.position(dataStart - channelTable.length);
+		segment.put(channelTable);
+		lastFlush = System.currentTimeMillis();
+		segments++;
+	}
+
+	/**
+	 * Force the current segment and cut the file to the written records
+	 */
+	private void finishSegment() throws IOException {
+		int end = segment.position();
+		segment.force();
+		segment = null;
+		try {
+			file.getChannel().truncate(end);
+		} finally {
+			file.close();
+			file = null;
+		}
+	}
+
+	/**
+	 * Get the number of samples appended since the log was opened
+	 *
+	 * @return The sample count
+	 */
+	public synchronized long getSamples() {
+		return samples;
+	}
+
+	/**
+	 * Get the number of segments created since the log was opened
+	 *
+	 * @return The segment count
+	 */
+	public synchronized long getSegments() {
+		return segments;
+	}
+
+	/**
+	 * Finish the current segment
+	 *
+	 * @throws IOException If the segment could not be finished
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (segment != null) {
+			finishSegment();
+		}
+	}
+
+	/**
+	 * Receives the samples found by {@link SampleLog#scan}
+	 */
+	public interface SampleVisitor {
+
+		/**
+		 * A sample in the scanned range
+		 *
+		 * @param channel Name of the channel
+		 * @param timestamp Time of the sample in milliseconds
+		 * @param value The sample
+		 */
+		public void sample(String channel, long timestamp, double value);
+	}
+
+	/**
+	 * Read the samples in a time range from a log directory. Segments are read in
+	 * the order of their base timestamp rather than the order they were written,
+	 * so a clock that was set back between sessions doesn't hide any. Segments
+	 * starting after the range are skipped by their header, and inside a segment
+	 * the scan starts at the index entry before the range. Samples of a segment
+	 * still being written are included up to the last forced or mapped write.
+	 *
+	 * @param directory Directory holding the segment files
+	 * @param from Start of the range in milliseconds, inclusive
+	 * @param to End of the range in milliseconds, inclusive
+	 * @param visitor Visitor receiving the samples
+	 * @return The number of samples visited
+	 * @throws IOException If a segment could not be read or is not a segment
+	 */
+	public static long scan(File directory, long from, long to, SampleVisitor visitor) throws IOException {
+		File[] files = segmentFiles(directory);
+		final long[] bases = new long[files.length];
+		Integer[] order = new Integer[files.length];
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		for (int i = 0; i < files.length; i++) {
+			try (RandomAccessFile segmentFile = new RandomAccessFile(files[i], "r")) {
+				FileChannel channel = segmentFile.getChannel();
+				header.clear();
+				while (header.hasRemaining() && channel.read(header) >= 0) {
+					// Read the whole header
+				}
+				if (header.hasRemaining() || header.getInt(0) != MAGIC) {
+					throw new IOException(files[i] + " is not a sample log segment");
+				}
+				bases[i] = header.getLong(8);
+				order[i] = i;
+			}
+		}
+		// Stable, so segments with the same base stay in the order they were written
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Long.compare(bases[a], bases[b]);
+			}
+		});
+
+		long visited = 0;
+		for (int i : order) {
+			if (bases[i] > to) {
+				// Later segments start later still
+				break;
+			}
+			try (RandomAccessFile segmentFile = new RandomAccessFile(files[i], "r")) {
+				FileChannel channel = segmentFile.getChannel();
+				visited += scanSegment(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), from, to, visitor);
+			}
+		}
+		return visited;
+	}
+
+	/**
+	 * Visit the samples of one segment in a time range
+	 */
+	private static long scanSegment(ByteBuffer segment, long from, long to, SampleVisitor visitor) {
+		long segmentBase = segment.getLong(8);
+		int indexEntries = segment.getShort(6);
+		int dataStart = segment.getInt(16);
+
+		int position = HEADER_SIZE + indexEntries * 8;
+		String[] names = new String[segment.get(position++) & 0xFF];
+		for (int i = 0; i < names.length; i++) {
+			byte[] name = new byte[segment.getShort(position)];
+			segment.position(position + 2);
+			segment.get(name);
+			names[i] = new String(name, StandardCharsets.UTF_8);
+			position += 2 + name.length;
+		}
+
+		// Start at the last index entry before the range
+		position = dataStart;
+		for (int i = 0; i < indexEntries; i++) {
+			int entry = HEADER_SIZE + i * 8;
+			int offset = segment.getInt(entry + 4);
+			if (offset == 0 || segmentBase + segment.getInt(entry) >= from) {
+				break;
+			}
+			position = offset;
+		}
+
+		long visited = 0;
+		int limit = segment.limit();
+		while (position + RECORD_SIZE <= limit) {
+			int channel = segment.get(position) & 0xFF;
+			if (channel == 0) {
+				break;
+			}
+			long timestamp = segmentBase + segment.getInt(position + 1);
+			if (timestamp > to) {
+				break;
+			}
+			if (timestamp >= from) {
+				visitor.sample(names[channel - 1], timestamp, segment.getDouble(position + 5));
+				visited++;
+			}
+			position += RECORD_SIZE;
+		}
+		return visited;
+	}
+
+	/**
+	 * File name of a segment, the number padded to 16 digits so the names sort in
+	 * the order the segments were written
+	 */
+	private static String segmentName(long number) {
+		String digits = Long.toString(number);
+		StringBuilder name = new StringBuilder(SEGMENT_DIGITS + SUFFIX.length());
+		for (int i = digits.length(); i < SEGMENT_DIGITS; i++) {
+			name.append('0');
+		}
+		return name.append(digits).append(SUFFIX).toString();
+	}
+
+	/**
+	 * Number of a segment from its file name
+	 *
+	 * @return The number, or -1 if the name isn't the name of a segment
+	 */
+	private static long segmentNumber(String name) {
+		int end = name.length() - SUFFIX.length();
+		if (end <= 0 || end > SEGMENT_DIGITS || !name.endsWith(SUFFIX)) {
+			return -1;
+		}
+		for (int i = 0; i < end; i++) {
+			char c = name.charAt(i);
+			if (c < '0' || c > '9') {
+				return -1;
+			}
+		}
+		return Long.parseLong(name.substring(0, end));
+	}
+
+	/**
+	 * The segment files of a log in the order they were written. Other files in
+	 * the directory are left out, even if their name ends like a segment name.
+	 */
+	private static File[] segmentFiles(File directory) {
+		File[] files = directory.listFiles();
+		if (files == null) {
+			return new File[0];
+		}
+		int count = 0;
+		for (File file : files) {
+			if (segmentNumber(file.getName()) >= 0) {
+				files[count++] = file;
+			}
+		}
+		files = Arrays.copyOf(files, count);
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File a, File b) {
+				return Long.compare(segmentNumber(a.getName()), segmentNumber(b.getName()));
+			}
+		});
+		return files;
+	}
+}